@@ -0,0 +1,28 @@
+#!/usr/bin/env bash
+# Measures latency against concurrency on a running history service, using hey (https://github.com/rakyll/hey).
+# Run it once with history.threads.virtual=false and once with history.threads.virtual=true, on Java 21,
+# against the same MongoDB data, then compare the two CSV files.
+#
+# Usage: loadtest/concurrency-latency.sh <label> [base-url] [patId]
+set -euo pipefail
+
+LABEL=${1:?label of the run, for example platform or virtual}
+BASE_URL=${2:-http://localhost:8082}
+PAT_ID=${3:-1}
+REQUESTS_PER_LEVEL=${REQUESTS_PER_LEVEL:-20000}
+OUTPUT=${OUTPUT:-target/loadtest-${LABEL}.csv}
+
+mkdir -p "$(dirname "$OUTPUT")"
+echo "label,concurrency,requests_per_second,p50_ms,p90_ms,p99_ms,errors" > "$OUTPUT"
+
+for CONCURRENCY in 10 50 100 200 400 800 1600; do
+  RESULT=$(hey -n "$REQUESTS_PER_LEVEL" -c "$CONCURRENCY" "$BASE_URL/patHistory?patId=$PAT_ID")
+
+  RPS=$(echo "$RESULT" | awk '/Requests\/sec/ { print $2 }')
+  P50=$(echo "$RESULT" | awk '/ 50% in/ { print $3 * 1000 }')
+  P90=$(echo "$RESULT" | awk '/ 90% in/ { print $3 * 1000 }')
+  P99=$(echo "$RESULT" | awk '/ 99% in/ { print $3 * 1000 }')
+  ERRORS=$(echo "$RESULT" | awk '/\[[0-9]+\]/ && !/\[200\]/ { sum += $2 } END { print sum + 0 }')
+
+  echo "$LABEL,$CONCURRENCY,$RPS,$P50,$P90,$P99,$ERRORS" | tee -a "$OUTPUT"
+done
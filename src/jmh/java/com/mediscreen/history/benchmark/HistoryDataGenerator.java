@@ -0,0 +1,120 @@
+package com.mediscreen.history.benchmark;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.History;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Scales up the notes of mongodb_data.ndjson into a data set of any size.
+ * The same seed, patient count and notes per patient always give the same histories, so benchmark runs compare.
+ */
+public final class HistoryDataGenerator {
+
+    public static final long DEFAULT_SEED = 42L;
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(2015, 1, 1);
+
+    private static final int DATE_RANGE_DAYS = 3650;
+
+    private final List<HistoryDTO> templates;
+
+    private final long seed;
+
+    public HistoryDataGenerator(long seed) {
+        this.templates = readTemplates();
+        this.seed = seed;
+    }
+
+    /**
+     * Generates the histories of patients 1 to {@code patients}, with {@code notesPerPatient} notes each.
+     */
+    public List<History> generate(int patients, int notesPerPatient) {
+        Random random = new Random(seed);
+        List<History> histories = new ArrayList<>(patients * notesPerPatient);
+        for (int patId = 1; patId <= patients; patId++) {
+            String patient = templates.get(random.nextInt(templates.size())).getPatient() + patId;
+            for (int i = 0; i < notesPerPatient; i++) {
+                History history = new History();
+                history.setPatId(patId);
+                history.setPatient(patient);
+                history.setCreationDate(FIRST_DATE.plusDays(random.nextInt(DATE_RANGE_DAYS)));
+                history.setNotes(templates.get(random.nextInt(templates.size())).getNotes());
+                histories.add(history);
+            }
+        }
+        return histories;
+    }
+
+    /**
+     * Same histories as {@link #generate(int, int)}, mapped to DTOs with a sequential ID.
+     */
+    public List<HistoryDTO> generateDTOs(int count) {
+        List<HistoryDTO> dtos = new ArrayList<>(count);
+        for (History history : generate(count, 1)) {
+            HistoryDTO dto = toDTO(history);
+            dto.setId(String.format("%024x", dtos.size()));
+            dtos.add(dto);
+        }
+        return dtos;
+    }
+
+    private static HistoryDTO toDTO(History history) {
+        HistoryDTO dto = new HistoryDTO();
+        dto.setPatId(history.getPatId());
+        dto.setPatient(history.getPatient());
+        dto.setCreationDate(history.getCreationDate());
+        dto.setNotes(history.getNotes());
+        return dto;
+    }
+
+    private static List<HistoryDTO> readTemplates() {
+        try (InputStream in = HistoryDataGenerator.class.getResourceAsStream("/mongodb_data.ndjson");
+             MappingIterator<HistoryDTO> it = objectMapper().readerFor(HistoryDTO.class).readValues(in)) {
+            return it.readAll();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read mongodb_data.ndjson", e);
+        }
+    }
+
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+
+    /**
+     * Writes a generated data set as NDJSON in the mongodb_data.ndjson format, without IDs nor versions,
+     * ready for mongoimport or POST /patHistory/bulk.
+     * Arguments: output file, patients (default 1000), notes per patient (default 10), seed (default 42).
+     */
+    public static void main(String[] args) throws IOException {
+        Path output = Path.of(args.length > 0 ? args[0] : "target/mongodb_data_scaled.ndjson");
+        int patients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int notesPerPatient = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+
+        // Only the fields of mongodb_data.ndjson: a null version would be imported as such and never incremented
+        ObjectMapper objectMapper = objectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        try (BufferedWriter writer = Files.newBufferedWriter(output)) {
+            for (History history : new HistoryDataGenerator(seed).generate(patients, notesPerPatient)) {
+                writer.write(objectMapper.writeValueAsString(toDTO(history)));
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.mediscreen.history.benchmark;
+
+import com.mediscreen.history.HistoryApplication;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryDateDTO;
+import com.mediscreen.history.dto.HistoryPageDTO;
+import com.mediscreen.history.dto.TriggerCountDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.service.HistoryService;
+import com.mediscreen.history.service.TriggerTermService;
+import de.flapdoodle.embed.mongo.commands.ServerAddress;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.mongo.transitions.Mongod;
+import de.flapdoodle.embed.mongo.transitions.RunningMongodProcess;
+import de.flapdoodle.reverse.TransitionWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HistoryService read paths against an embedded MongoDB loaded with generated histories.
+ * The cache parameter compares the cached reads with the plain database round trips.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistoryServiceBenchmark {
+
+    @Param({"1000"})
+    public int patients;
+
+    @Param({"10"})
+    public int notesPerPatient;
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    private TransitionWalker.ReachedState<RunningMongodProcess> mongod;
+
+    private ConfigurableApplicationContext context;
+
+    private HistoryService historyService;
+
+    private TriggerTermService triggerTermService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mongod = Mongod.instance().start(Version.Main.V6_0);
+        ServerAddress address = mongod.current().getServerAddress();
+        context = new SpringApplicationBuilder(HistoryApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.data.mongodb.host=" + address.getHost(),
+                        "spring.data.mongodb.port=" + address.getPort(),
+                        "spring.data.mongodb.database=patientHistoryBenchmark",
+                        "history.cache.enabled=" + cache)
+                .run();
+
+        List<History> histories = new HistoryDataGenerator(HistoryDataGenerator.DEFAULT_SEED)
+                .generate(patients, notesPerPatient);
+        context.getBean(MongoTemplate.class).insertAll(histories);
+
+        historyService = context.getBean(HistoryService.class);
+        triggerTermService = context.getBean(TriggerTermService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        mongod.close();
+    }
+
+    /**
+     * Walks through the patients so that every call does not hit the same documents.
+     */
+    @State(Scope.Thread)
+    public static class Patients {
+
+        private int next;
+
+        int next(int patients) {
+            next = next % patients + 1;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public List<HistoryDTO> getHistoryByPatientId(Patients patientIds) {
+        return historyService.getHistoryByPatientId(patientIds.next(patients));
+    }
+
+    @Benchmark
+    public List<HistoryDateDTO> getHistoryDatesByPatientId(Patients patientIds) {
+        return historyService.getHistoryDatesByPatientId(patientIds.next(patients));
+    }
+
+    @Benchmark
+    public TriggerCountDTO countTriggers(Patients patientIds) {
+        return triggerTermService.countTriggers(patientIds.next(patients), null);
+    }
+
+    @Benchmark
+    public HistoryPageDTO getHistoryPage() {
+        return historyService.getHistoryPage(100, null);
+    }
+
+    @Benchmark
+    public List<HistoryDTO> searchHistories() {
+        return historyService.searchHistories("microalbumine", null, 0, 20);
+    }
+}
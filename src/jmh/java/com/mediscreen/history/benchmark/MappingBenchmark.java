@@ -0,0 +1,48 @@
+package com.mediscreen.history.benchmark;
+
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.MapstructMapper;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the MapStruct entity to DTO mapping used by every read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MappingBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int notes;
+
+    private final MapstructMapper mapper = Mappers.getMapper(MapstructMapper.class);
+
+    private List<History> histories;
+
+    @Setup
+    public void setUp() {
+        histories = new HistoryDataGenerator(HistoryDataGenerator.DEFAULT_SEED).generate(notes, 1);
+    }
+
+    @Benchmark
+    public HistoryDTO historyToDTO() {
+        return mapper.historyToDTO(histories.get(0));
+    }
+
+    @Benchmark
+    public List<HistoryDTO> historyListToDTO() {
+        return mapper.historyListToDTO(histories);
+    }
+}
@@ -0,0 +1,81 @@
+package com.mediscreen.history.benchmark;
+
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.NoteCodec;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of compressing a note when it is written and of decompressing it when it is read, with the French notes
+ * of the sample data, without a dictionary and with the bundled one.
+ * The bundled dictionary was trained on these same notes, so the sizes, reported by the storedBytes and notesBytes
+ * counters, are a best case: train one on the stored notes with GET /admin/patHistory/notes/dictionary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NoteCompressionBenchmark {
+
+    private static final int NOTES = 1000;
+
+    @Param({"none", "bundled"})
+    public String dictionary;
+
+    private byte[] dictionaryBytes;
+
+    private List<String> notes;
+
+    private byte[][] compressed;
+
+    private int next;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+
+        public long notesBytes;
+
+        public long storedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            notesBytes = 0;
+            storedBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        dictionaryBytes = "bundled".equals(dictionary) ? NoteCodec.defaultDictionary() : null;
+        notes = new HistoryDataGenerator(HistoryDataGenerator.DEFAULT_SEED).generateDTOs(NOTES).stream()
+                .map(HistoryDTO::getNotes)
+                .toList();
+        compressed = notes.stream().map(note -> NoteCodec.compress(note, dictionaryBytes)).toArray(byte[][]::new);
+    }
+
+    @Benchmark
+    public byte[] compress(Sizes sizes) {
+        String note = notes.get(next++ % NOTES);
+        byte[] bytes = NoteCodec.compress(note, dictionaryBytes);
+        sizes.notesBytes += note.getBytes(StandardCharsets.UTF_8).length;
+        sizes.storedBytes += bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public String decompress() {
+        return NoteCodec.decompress(compressed[next++ % NOTES]);
+    }
+}
@@ -0,0 +1,88 @@
+package com.mediscreen.history.benchmark;
+
+import com.mediscreen.history.HistoryApplication;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.service.HistoryParallelScan;
+import de.flapdoodle.embed.mongo.commands.ServerAddress;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.mongo.transitions.Mongod;
+import de.flapdoodle.embed.mongo.transitions.RunningMongodProcess;
+import de.flapdoodle.reverse.TransitionWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-collection reads of HistoryParallelScan against an embedded MongoDB loaded with generated histories.
+ * Parallelism 1 is the single cursor baseline, the ordered parameter adds the in-order hand-over to one consumer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelScanBenchmark {
+
+    @Param({"10000"})
+    public int patients;
+
+    @Param({"10"})
+    public int notesPerPatient;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"true", "false"})
+    public boolean ordered;
+
+    private TransitionWalker.ReachedState<RunningMongodProcess> mongod;
+
+    private ConfigurableApplicationContext context;
+
+    private HistoryParallelScan historyParallelScan;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mongod = Mongod.instance().start(Version.Main.V6_0);
+        ServerAddress address = mongod.current().getServerAddress();
+        context = new SpringApplicationBuilder(HistoryApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.data.mongodb.host=" + address.getHost(),
+                        "spring.data.mongodb.port=" + address.getPort(),
+                        "spring.data.mongodb.database=patientHistoryBenchmark",
+                        "history.scan.parallelism=" + parallelism,
+                        "history.scan.min-range-size=1000")
+                .run();
+
+        List<History> histories = new HistoryDataGenerator(HistoryDataGenerator.DEFAULT_SEED)
+                .generate(patients, notesPerPatient);
+        context.getBean(MongoTemplate.class).insertAll(histories);
+
+        historyParallelScan = context.getBean(HistoryParallelScan.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        mongod.close();
+    }
+
+    @Benchmark
+    public long scan(Blackhole blackhole) {
+        return historyParallelScan.scan(null, ordered, null, blackhole::consume);
+    }
+}
@@ -0,0 +1,55 @@
+package com.mediscreen.history.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.mediscreen.history.dto.HistoryDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing and reading HistoryDTO lists as JSON, with the date settings of the application's ObjectMapper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int notes;
+
+    private ObjectWriter writer;
+
+    private ObjectMapper objectMapper;
+
+    private List<HistoryDTO> histories;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        objectMapper = HistoryDataGenerator.objectMapper();
+        writer = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, HistoryDTO.class));
+        histories = new HistoryDataGenerator(HistoryDataGenerator.DEFAULT_SEED).generateDTOs(notes);
+        json = writer.writeValueAsBytes(histories);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return writer.writeValueAsBytes(histories);
+    }
+
+    @Benchmark
+    public List<HistoryDTO> deserialize() throws Exception {
+        return objectMapper.readerForListOf(HistoryDTO.class).readValue(json);
+    }
+}
@@ -0,0 +1,11 @@
+package com.mediscreen.history.Exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+public class HistoryVersionConflictException extends RuntimeException{
+    public HistoryVersionConflictException(String s) {
+        super(s);
+    }
+}
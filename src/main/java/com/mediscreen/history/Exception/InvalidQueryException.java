@@ -0,0 +1,11 @@
+package com.mediscreen.history.Exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidQueryException extends RuntimeException{
+    public InvalidQueryException(String s) {
+        super(s);
+    }
+}
@@ -1,9 +1,12 @@
 package com.mediscreen.history;
 
+import com.mediscreen.history.config.HistoryRuntimeHints;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
+@ImportRuntimeHints(HistoryRuntimeHints.class)
 public class HistoryApplication {
 
 	public static void main(String[] args) {
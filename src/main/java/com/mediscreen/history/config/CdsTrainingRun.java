@@ -0,0 +1,36 @@
+package com.mediscreen.history.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stops the application once it has started when history.cds.training-run is true,
+ * so that a JVM started with -XX:ArchiveClassesAtExit dumps the classes loaded during startup.
+ * The property is read at runtime rather than used as a bean condition, which AOT processing would fix at build time.
+ */
+@Component
+public class CdsTrainingRun {
+
+    private static Logger logger = LoggerFactory.getLogger(CdsTrainingRun.class);
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Value("${history.cds.training-run:false}")
+    private boolean trainingRun = false;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void exitAfterStartup() {
+        if (trainingRun) {
+            logger.info("CDS training run: exiting after startup");
+            System.exit(SpringApplication.exit(applicationContext));
+        }
+    }
+}
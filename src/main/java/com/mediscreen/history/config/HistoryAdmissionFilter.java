@@ -0,0 +1,238 @@
+package com.mediscreen.history.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mediscreen.history.service.HistoryMetrics;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control of the history endpoints, in front of the controllers.
+ * Each client has a token bucket per class of request (read, write, expensive) and is answered 429 when it runs out.
+ * Expensive requests (full scans, exports, searches) are capped across all clients, and when too many requests are
+ * in flight only the single-history reads are still admitted. Those rejections are answered 503.
+ * Rejections carry a Retry-After header and are counted in history.admission.rejected.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 100)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@EnableConfigurationProperties(HistoryAdmissionProperties.class)
+public class HistoryAdmissionFilter extends OncePerRequestFilter {
+
+    static final String READ = "read";
+
+    static final String WRITE = "write";
+
+    static final String EXPENSIVE = "expensive";
+
+    private static final long RETRY_AFTER_SECONDS = 1;
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    private final HistoryAdmissionProperties properties;
+
+    private final HistoryMetrics historyMetrics;
+
+    private final Cache<String, TokenBucket> buckets;
+
+    private final Semaphore expensiveRequests;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public HistoryAdmissionFilter(HistoryAdmissionProperties properties, HistoryMetrics historyMetrics) {
+        this.properties = properties;
+        this.historyMetrics = historyMetrics;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxClients() * 3L)
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+        this.expensiveRequests = new Semaphore(properties.getMaxConcurrentExpensive());
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = path(request);
+        return !properties.isEnabled() || !matches(properties.getPaths(), path) || matches(properties.getExemptPaths(), path);
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        // Admitted once, when the request arrives
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String admissionClass = admissionClass(request);
+
+        long waitNanos = bucket(client(request), admissionClass).tryAcquire(System.nanoTime());
+        if (waitNanos > 0) {
+            reject(response, admissionClass, "rate", HttpStatus.TOO_MANY_REQUESTS,
+                    Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)));
+            return;
+        }
+
+        int running = inFlight.incrementAndGet();
+        if (running > properties.getMaxInFlight() || (running > properties.getShedThreshold() && !priority(request, admissionClass))) {
+            inFlight.decrementAndGet();
+            reject(response, admissionClass, "shed", HttpStatus.SERVICE_UNAVAILABLE, RETRY_AFTER_SECONDS);
+            return;
+        }
+        if (matches(properties.getStreamingPaths(), path(request))) {
+            // Admitted, but held open for as long as the client listens under its own subscriber limit
+            inFlight.decrementAndGet();
+            filterChain.doFilter(request, response);
+            return;
+        }
+        boolean expensive = EXPENSIVE.equals(admissionClass);
+        if (expensive && !expensiveRequests.tryAcquire()) {
+            inFlight.decrementAndGet();
+            reject(response, admissionClass, "concurrency", HttpStatus.SERVICE_UNAVAILABLE, RETRY_AFTER_SECONDS);
+            return;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                if (expensive) {
+                    expensiveRequests.release();
+                }
+            }
+        };
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // Streamed responses hold their slot until they are complete
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        release.run();
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                        release.run();
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                release.run();
+            }
+        }
+    }
+
+    private String admissionClass(HttpServletRequest request) {
+        if (matches(properties.getExpensivePaths(), path(request))) {
+            return EXPENSIVE;
+        }
+        return HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod()) ? READ : WRITE;
+    }
+
+    private boolean priority(HttpServletRequest request, String admissionClass) {
+        return READ.equals(admissionClass) && matches(properties.getPriorityPaths(), path(request));
+    }
+
+    private TokenBucket bucket(String client, String admissionClass) {
+        HistoryAdmissionProperties.Rate rate = switch (admissionClass) {
+            case READ -> properties.getRead();
+            case WRITE -> properties.getWrite();
+            default -> properties.getExpensive();
+        };
+        return buckets.get(admissionClass + ":" + client, key -> new TokenBucket(rate.getBurst(), rate.getPerSecond()));
+    }
+
+    private String client(HttpServletRequest request) {
+        String header = properties.getClientHeader();
+        String client = header == null || header.isEmpty() ? null : request.getHeader(header);
+        if (client != null) {
+            // Each proxy appends the address it received the request from, anything before the outermost trusted one
+            // was sent by the client itself
+            String[] entries = client.split(",");
+            client = entries[Math.max(0, entries.length - Math.max(1, properties.getTrustedProxies()))].trim();
+        }
+        return client == null || client.isEmpty() ? request.getRemoteAddr() : client;
+    }
+
+    private void reject(HttpServletResponse response, String admissionClass, String reason, HttpStatus status,
+                        long retryAfterSeconds) throws IOException {
+        historyMetrics.rejected(admissionClass, reason);
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.sendError(status.value(), status == HttpStatus.TOO_MANY_REQUESTS
+                ? "Too many " + admissionClass + " requests, retry later"
+                : "Server busy, retry later");
+    }
+
+    private boolean matches(List<String> patterns, String path) {
+        return patterns.stream().anyMatch(pattern -> pathMatcher.match(pattern, path));
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private static class TokenBucket {
+
+        private final double capacity;
+
+        private final double tokensPerNano;
+
+        private double tokens;
+
+        private long refilledAt;
+
+        TokenBucket(double capacity, double tokensPerSecond) {
+            this.capacity = capacity;
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = capacity;
+            this.refilledAt = System.nanoTime();
+        }
+
+        /**
+         * Takes a token if there is one.
+         *
+         * @return 0 if a token was taken, otherwise the nanoseconds until the next token.
+         */
+        synchronized long tryAcquire(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+    }
+}
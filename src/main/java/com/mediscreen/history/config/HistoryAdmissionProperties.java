@@ -0,0 +1,108 @@
+package com.mediscreen.history.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rate limits, concurrency caps and load shedding thresholds of the history endpoints, see HistoryAdmissionFilter.
+ */
+@Data
+@ConfigurationProperties(prefix = "history.admission")
+public class HistoryAdmissionProperties {
+
+    private boolean enabled = false;
+
+    /**
+     * Request header naming the client, set by the gateway (X-Client-Id, X-Forwarded-For...). The remote address
+     * identifies the client when empty.
+     */
+    private String clientHeader;
+
+    /**
+     * Proxies appending to a comma-separated client header, such as X-Forwarded-For. The client is the entry appended
+     * by the outermost trusted proxy, the trustedProxies-th from the right: the entries on its left come from the
+     * client and can be forged.
+     */
+    private int trustedProxies = 1;
+
+    /**
+     * Endpoints under admission control.
+     */
+    private List<String> paths = new ArrayList<>(List.of("/patHistory/**", "/admin/patHistory/**"));
+
+    /**
+     * Endpoints never rejected.
+     */
+    private List<String> exemptPaths = new ArrayList<>();
+
+    /**
+     * Endpoints reading or writing many histories, capped by maxConcurrentExpensive and shed first.
+     */
+    private List<String> expensivePaths = new ArrayList<>(List.of("/patHistory/all", "/patHistory/search",
+            "/patHistory/batch", "/patHistory/range", "/patHistory/counts", "/patHistory/summary",
+            "/patHistory/changes", "/patHistory/bulk", "/admin/patHistory/**"));
+
+    /**
+     * Long-lived streams among the expensive endpoints, rate limited and shed when they are opened but not counted
+     * in flight nor in maxConcurrentExpensive while they stream: they have their own subscriber limit.
+     */
+    private List<String> streamingPaths = new ArrayList<>(List.of("/patHistory/changes"));
+
+    /**
+     * Reads still admitted above shedThreshold: the single histories.
+     */
+    private List<String> priorityPaths = new ArrayList<>(List.of("/patHistory/{id:[0-9a-f]{24}}"));
+
+    /**
+     * Rate of each client on the GET endpoints that are not expensive.
+     */
+    private Rate read = new Rate(400, 200);
+
+    /**
+     * Rate of each client on the other methods.
+     */
+    private Rate write = new Rate(100, 50);
+
+    /**
+     * Rate of each client on the expensive endpoints.
+     */
+    private Rate expensive = new Rate(10, 2);
+
+    /**
+     * Expensive requests running at the same time, for every client.
+     */
+    private int maxConcurrentExpensive = 4;
+
+    /**
+     * Requests in flight above which only the reads of priorityPaths are admitted.
+     */
+    private int shedThreshold = 150;
+
+    /**
+     * Requests in flight above which every request is rejected, below the server thread count.
+     */
+    private int maxInFlight = 190;
+
+    /**
+     * Clients whose rates are tracked, the least recently seen ones start again with a full bucket.
+     */
+    private int maxClients = 10000;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Rate {
+
+        /**
+         * Requests a client can send at once after being idle.
+         */
+        private int burst;
+
+        private double perSecond;
+    }
+}
@@ -0,0 +1,59 @@
+package com.mediscreen.history.config;
+
+import com.mediscreen.history.model.History;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Creates the indexes declared on the History document when the application starts,
+ * and drops the indexes that are no longer declared.
+ */
+@Component
+@ConditionalOnProperty(name = "history.mongo.indexes.create-on-startup", havingValue = "true")
+@Profile("!reactive")
+public class HistoryIndexInitializer {
+
+    /**
+     * Indexes created by previous versions of the application, which are not used by any query anymore.
+     */
+    static final List<String> LEGACY_INDEXES = List.of("notes");
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryIndexInitializer.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Drops the legacy indexes then ensures every index declared on the History document exists.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createIndexes() {
+        IndexOperations indexOperations = mongoTemplate.indexOps(History.class);
+
+        for (IndexInfo indexInfo : indexOperations.getIndexInfo()) {
+            if (LEGACY_INDEXES.contains(indexInfo.getName())) {
+                logger.info("Dropping legacy history index: {}", indexInfo.getName());
+                indexOperations.dropIndex(indexInfo.getName());
+            }
+        }
+
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        resolver.resolveIndexFor(History.class).forEach(index -> {
+            logger.info("Ensuring history index: {}", index.getIndexKeys().toJson());
+            indexOperations.ensureIndex(index);
+        });
+    }
+}
@@ -0,0 +1,99 @@
+package com.mediscreen.history.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Connection pool, socket, write concern, read routing and sharding settings of the MongoDB client,
+ * on top of the spring.data.mongodb.* settings.
+ */
+@Data
+@ConfigurationProperties(prefix = "history.mongodb")
+public class HistoryMongoProperties {
+
+    private Pool pool = new Pool();
+
+    private Socket socket = new Socket();
+
+    /**
+     * How long an operation waits for a reachable server before failing.
+     */
+    private long serverSelectionTimeoutMs = 30000;
+
+    /**
+     * Write concern of every write, as accepted by WriteConcern.valueOf: w1, w2, majority, journaled...
+     * Null keeps the write concern of the connection string.
+     */
+    private String writeConcern;
+
+    /**
+     * How long a write waits for the nodes of its write concern before failing, 0 to wait forever.
+     */
+    private long writeConcernTimeoutMs = 0;
+
+    /**
+     * Read preference and read concern of the reads routed by HistoryReadRouting, by read name.
+     */
+    private Map<String, Read> reads = new LinkedHashMap<>();
+
+    private Sharding sharding = new Sharding();
+
+    @Data
+    public static class Pool {
+
+        private int maxSize = 100;
+
+        private int minSize = 0;
+
+        /**
+         * Maximum number of connections being opened at the same time.
+         */
+        private int maxConnecting = 2;
+
+        /**
+         * How long a request waits in the queue for a free connection before failing.
+         */
+        private long maxWaitTimeMs = 120000;
+
+        private long maxConnectionIdleTimeMs = 0;
+    }
+
+    @Data
+    public static class Socket {
+
+        private int connectTimeoutMs = 10000;
+
+        private int readTimeoutMs = 0;
+    }
+
+    @Data
+    public static class Read {
+
+        /**
+         * primary, primaryPreferred, secondary, secondaryPreferred or nearest.
+         */
+        private String preference = "primary";
+
+        /**
+         * Secondaries lagging further behind the primary are not read, 0 for no limit, at least 90 otherwise.
+         */
+        private long maxStalenessSeconds = 0;
+
+        /**
+         * local, available or majority, null for the server default.
+         */
+        private String concern;
+    }
+
+    @Data
+    public static class Sharding {
+
+        /**
+         * Shard the histories collection on a hashed patId when the application starts, needs a mongos router.
+         */
+        private boolean enabled = false;
+    }
+}
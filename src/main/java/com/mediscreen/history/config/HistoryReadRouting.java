@@ -0,0 +1,66 @@
+package com.mediscreen.history.config;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.ReadPreference;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read preference and read concern of the history reads, set by name with history.mongodb.reads.&lt;name&gt;.*.
+ * Reads without settings go to the primary with the default read concern of the client.
+ * Reads that must see the writes of the request, by ID or for an ETag, are never routed.
+ */
+@Component
+public class HistoryReadRouting {
+
+    /**
+     * The histories of a patient, GET /patHistory?id=.
+     */
+    public static final String PATIENT = "patient";
+
+    /**
+     * Every history, GET /patHistory/all.
+     */
+    public static final String ALL = "all";
+
+    private final Map<String, ReadPreference> preferences = new HashMap<>();
+
+    private final Map<String, ReadConcern> concerns = new HashMap<>();
+
+    public HistoryReadRouting(HistoryMongoProperties properties) {
+        // Parsed once here so that a misspelled setting fails the startup
+        properties.getReads().forEach((read, settings) -> {
+            preferences.put(read, settings.getMaxStalenessSeconds() > 0
+                    ? ReadPreference.valueOf(settings.getPreference(), List.of(), settings.getMaxStalenessSeconds(), TimeUnit.SECONDS)
+                    : ReadPreference.valueOf(settings.getPreference()));
+            if (settings.getConcern() != null) {
+                concerns.put(read, new ReadConcern(ReadConcernLevel.fromString(settings.getConcern())));
+            }
+        });
+    }
+
+    /**
+     * Applies the read preference and read concern of a read to its query.
+     *
+     * @param read  The name of the read, see the constants of this class.
+     * @param query The query of the read.
+     * @return The same query.
+     */
+    public Query route(String read, Query query) {
+        ReadPreference preference = preferences.get(read);
+        if (preference != null) {
+            query.withReadPreference(preference);
+        }
+        ReadConcern concern = concerns.get(read);
+        if (concern != null) {
+            query.withReadConcern(concern);
+        }
+        return query;
+    }
+}
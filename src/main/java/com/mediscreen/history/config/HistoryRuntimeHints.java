@@ -0,0 +1,58 @@
+package com.mediscreen.history.config;
+
+import com.mediscreen.history.dto.BackfillResultDTO;
+import com.mediscreen.history.dto.BulkItemResultDTO;
+import com.mediscreen.history.dto.BulkResultDTO;
+import com.mediscreen.history.dto.CacheStatsDTO;
+import com.mediscreen.history.dto.HistoryChangeDTO;
+import com.mediscreen.history.dto.HistoryCountDTO;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryDateDTO;
+import com.mediscreen.history.dto.HistoryFieldsDTO;
+import com.mediscreen.history.dto.HistoryPageDTO;
+import com.mediscreen.history.dto.HistorySummaryDTO;
+import com.mediscreen.history.dto.HistoryVersionDTO;
+import com.mediscreen.history.dto.ImportResultDTO;
+import com.mediscreen.history.dto.NoteMigrationResultDTO;
+import com.mediscreen.history.dto.TriggerCountDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.MapstructMapper;
+import com.mediscreen.history.model.NoteCodec;
+import com.mediscreen.history.model.PatientTriggers;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+/**
+ * Reflection the native image cannot find by itself.
+ * Spring registers the controller bodies and the repository entities, but not:
+ * - the MapStruct implementation, loaded by name by Mappers.getMapper,
+ * - the DTOs written outside of a controller return type (SSE events, NDJSON lines, bulk reads),
+ *   nor the ones springdoc inspects for the OpenAPI schemas,
+ * - the documents read and written through MongoTemplate only,
+ * - the notes compression dictionary, read as a class path resource.
+ * Lombok needs no hint, its code is generated at compile time.
+ */
+public class HistoryRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        hints.reflection().registerType(TypeReference.of(MapstructMapper.class.getName() + "Impl"),
+                MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(),
+                HistoryDTO.class, HistoryFieldsDTO.class, HistoryChangeDTO.class, HistoryCountDTO.class, HistoryPageDTO.class,
+                HistorySummaryDTO.class, HistoryDateDTO.class, HistoryVersionDTO.class, CacheStatsDTO.class,
+                BulkResultDTO.class, BulkItemResultDTO.class, TriggerCountDTO.class, BackfillResultDTO.class,
+                ImportResultDTO.class, NoteMigrationResultDTO.class);
+
+        for (Class<?> document : new Class<?>[] { History.class, PatientTriggers.class }) {
+            hints.reflection().registerType(document, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                    MemberCategory.DECLARED_FIELDS, MemberCategory.INVOKE_PUBLIC_METHODS);
+        }
+
+        hints.resources().registerPattern(NoteCodec.DEFAULT_DICTIONARY.substring(1));
+    }
+}
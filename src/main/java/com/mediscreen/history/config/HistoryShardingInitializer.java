@@ -0,0 +1,64 @@
+package com.mediscreen.history.config;
+
+import com.mediscreen.history.model.History;
+import com.mongodb.MongoCommandException;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.HashedIndex;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shards the histories collection on a hashed patId when the application starts, so that the histories of a patient
+ * live on one shard and spread evenly over the shards, and reads by patient go to a single shard.
+ * Reads and updates by ID go to every shard; updating or deleting a history by ID needs MongoDB 7.1 or later.
+ */
+@Component
+@ConditionalOnProperty(name = "history.mongodb.sharding.enabled", havingValue = "true")
+@Profile("!reactive")
+public class HistoryShardingInitializer {
+
+    static final String SHARD_KEY = "patId";
+
+    // Code of shardCollection on an already sharded collection, before MongoDB 5.0
+    private static final int ALREADY_INITIALIZED = 20;
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryShardingInitializer.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Creates the hashed index of the shard key, then enables the sharding of the database and of the collection.
+     * Both commands do nothing when already done.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void shardHistories() {
+        String database = mongoTemplate.getDb().getName();
+        String collection = database + "." + mongoTemplate.getCollectionName(History.class);
+
+        // Needed before sharding a collection that already holds histories
+        mongoTemplate.indexOps(History.class).ensureIndex(HashedIndex.hashed(SHARD_KEY));
+        try {
+            runAdminCommand(new Document("enableSharding", database));
+            runAdminCommand(new Document("shardCollection", collection).append("key", new Document(SHARD_KEY, "hashed")));
+            logger.info("Histories sharded on hashed {}: {}", SHARD_KEY, collection);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() == ALREADY_INITIALIZED) {
+                logger.info("Histories already sharded: {}", collection);
+            } else {
+                logger.error("Cannot shard the histories, is the application connected to a mongos router?", e);
+            }
+        }
+    }
+
+    private void runAdminCommand(Document command) {
+        mongoTemplate.getMongoDatabaseFactory().getMongoDatabase("admin").runCommand(command);
+    }
+}
@@ -0,0 +1,50 @@
+package com.mediscreen.history.config;
+
+import com.mongodb.WriteConcern;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the history.mongodb.* connection and write concern settings to the blocking and the reactive MongoDB clients.
+ */
+@Configuration
+@EnableConfigurationProperties(HistoryMongoProperties.class)
+public class MongoClientConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer historyMongoClientSettings(HistoryMongoProperties properties) {
+        HistoryMongoProperties.Pool pool = properties.getPool();
+        HistoryMongoProperties.Socket socket = properties.getSocket();
+
+        return builder -> {
+            builder.applyToConnectionPoolSettings(settings -> settings
+                            .maxSize(pool.getMaxSize())
+                            .minSize(pool.getMinSize())
+                            .maxConnecting(pool.getMaxConnecting())
+                            .maxWaitTime(pool.getMaxWaitTimeMs(), TimeUnit.MILLISECONDS)
+                            .maxConnectionIdleTime(pool.getMaxConnectionIdleTimeMs(), TimeUnit.MILLISECONDS))
+                    .applyToSocketSettings(settings -> settings
+                            .connectTimeout(socket.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
+                            .readTimeout(socket.getReadTimeoutMs(), TimeUnit.MILLISECONDS))
+                    .applyToClusterSettings(settings -> settings
+                            .serverSelectionTimeout(properties.getServerSelectionTimeoutMs(), TimeUnit.MILLISECONDS));
+            if (properties.getWriteConcern() != null) {
+                builder.writeConcern(writeConcern(properties));
+            }
+        };
+    }
+
+    private static WriteConcern writeConcern(HistoryMongoProperties properties) {
+        WriteConcern writeConcern = WriteConcern.valueOf(properties.getWriteConcern());
+        if (writeConcern == null) {
+            throw new IllegalArgumentException("Unknown write concern: " + properties.getWriteConcern());
+        }
+        return properties.getWriteConcernTimeoutMs() > 0
+                ? writeConcern.withWTimeout(properties.getWriteConcernTimeoutMs(), TimeUnit.MILLISECONDS)
+                : writeConcern;
+    }
+}
@@ -0,0 +1,121 @@
+package com.mediscreen.history.config;
+
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.NoteCodec;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Stores the notes of the histories compressed, in compressedNotes instead of notes, when history.notes.compression.enabled.
+ * Inserted and replaced histories are compressed here before they are written, partial updates through notesUpdate.
+ * Notes are only stored compressed when it makes them smaller, and the compressed notes are readable whether
+ * compression is enabled or not: disabling it writes the new notes uncompressed.
+ */
+@Component
+public class NoteCompression implements BeforeSaveCallback<History> {
+
+    static final String NOTES = "notes";
+
+    static final String COMPRESSED_NOTES = "compressedNotes";
+
+    private static final Logger logger = LoggerFactory.getLogger(NoteCompression.class);
+
+    private final boolean enabled;
+
+    private final byte[] dictionary;
+
+    public NoteCompression(@Value("${history.notes.compression.enabled:false}") boolean enabled,
+                           @Value("${history.notes.compression.dictionary:}") String dictionary,
+                           @Value("${history.notes.compression.previous-dictionaries:}") List<String> previousDictionaries) {
+        this.enabled = enabled;
+        ResourceLoader resourceLoader = new DefaultResourceLoader();
+        this.dictionary = dictionary.isEmpty() ? NoteCodec.defaultDictionary() : read(resourceLoader, dictionary);
+        if (this.dictionary != null) {
+            NoteCodec.register(this.dictionary);
+        }
+        // Still needed to read the notes compressed before the dictionary changed
+        previousDictionaries.stream()
+                .filter(location -> !location.isEmpty())
+                .forEach(location -> NoteCodec.register(read(resourceLoader, location)));
+        if (enabled && this.dictionary != null) {
+            logger.info("Notes stored compressed with dictionary {}", Integer.toHexString(NoteCodec.dictionaryId(this.dictionary)));
+        }
+    }
+
+    private static byte[] read(ResourceLoader resourceLoader, String location) {
+        try (InputStream in = resourceLoader.getResource(location).getInputStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the notes dictionary " + location, e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compresses notes with the configured dictionary.
+     *
+     * @param notes The notes.
+     * @return The compressed notes, or null when compression is disabled or would not make them smaller.
+     */
+    public byte[] compress(String notes) {
+        if (!enabled) {
+            return null;
+        }
+        byte[] compressed = NoteCodec.compress(notes, dictionary);
+        return compressed.length < notes.getBytes(StandardCharsets.UTF_8).length ? compressed : null;
+    }
+
+    /**
+     * Replaces the notes of a history about to be inserted or replaced by their compressed form.
+     * A history read compressed keeps its compressed notes, even once decompressed, unless they were set again.
+     */
+    @Override
+    public History onBeforeSave(History entity, Document document, String collection) {
+        Object notes = document.get(NOTES);
+        if (document.get(COMPRESSED_NOTES) != null) {
+            if (notes != null) {
+                document.remove(enabled ? NOTES : COMPRESSED_NOTES);
+            }
+        } else if (notes instanceof String text) {
+            byte[] compressed = compress(text);
+            if (compressed != null) {
+                document.remove(NOTES);
+                document.put(COMPRESSED_NOTES, compressed);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Sets the notes of a history in a partial update, compressed or not, and removes their other form.
+     *
+     * @param update The update.
+     * @param notes  The new notes.
+     * @return The number of bytes of the notes as stored.
+     */
+    public int setNotes(Update update, String notes) {
+        byte[] compressed = compress(notes);
+        if (compressed == null) {
+            update.set(NOTES, notes).unset(COMPRESSED_NOTES);
+            return notes.getBytes(StandardCharsets.UTF_8).length;
+        }
+        update.set(COMPRESSED_NOTES, compressed).unset(NOTES);
+        return compressed.length;
+    }
+}
@@ -0,0 +1,53 @@
+package com.mediscreen.history.config;
+
+import com.mediscreen.history.model.History;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+/**
+ * Reactive version of HistoryIndexInitializer, for the reactive profile where the blocking MongoTemplate is not created.
+ */
+@Component
+@ConditionalOnProperty(name = "history.mongo.indexes.create-on-startup", havingValue = "true")
+@Profile("reactive")
+public class ReactiveHistoryIndexInitializer {
+
+    private static Logger logger = LoggerFactory.getLogger(ReactiveHistoryIndexInitializer.class);
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    /**
+     * Drops the legacy indexes then ensures every index declared on the History document exists,
+     * before the application is reported ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createIndexes() {
+        ReactiveIndexOperations indexOperations = reactiveMongoTemplate.indexOps(History.class);
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(reactiveMongoTemplate.getConverter().getMappingContext());
+
+        indexOperations.getIndexInfo()
+                .filter(indexInfo -> HistoryIndexInitializer.LEGACY_INDEXES.contains(indexInfo.getName()))
+                .concatMap(indexInfo -> {
+                    logger.info("Dropping legacy history index: {}", indexInfo.getName());
+                    return indexOperations.dropIndex(indexInfo.getName());
+                })
+                .thenMany(Flux.fromIterable(resolver.resolveIndexFor(History.class)))
+                .concatMap(index -> {
+                    logger.info("Ensuring history index: {}", index.getIndexKeys().toJson());
+                    return indexOperations.ensureIndex(index);
+                })
+                .blockLast();
+    }
+}
@@ -0,0 +1,26 @@
+package com.mediscreen.history.config;
+
+import com.mediscreen.history.model.History;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeSaveCallback;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Compresses the notes of the histories written by the reactive stack, see NoteCompression.
+ */
+@Component
+public class ReactiveNoteCompression implements ReactiveBeforeSaveCallback<History> {
+
+    private final NoteCompression noteCompression;
+
+    public ReactiveNoteCompression(NoteCompression noteCompression) {
+        this.noteCompression = noteCompression;
+    }
+
+    @Override
+    public Publisher<History> onBeforeSave(History entity, Document document, String collection) {
+        return Mono.just(noteCompression.onBeforeSave(entity, document, collection));
+    }
+}
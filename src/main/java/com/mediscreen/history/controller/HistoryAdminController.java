@@ -0,0 +1,181 @@
+package com.mediscreen.history.controller;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mediscreen.history.dto.BackfillResultDTO;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.ImportResultDTO;
+import com.mediscreen.history.dto.NoteMigrationResultDTO;
+import com.mediscreen.history.service.HistoryTransferService;
+import com.mediscreen.history.service.NoteCompressionService;
+import com.mediscreen.history.service.TriggerIndexService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Maintenance operations on the whole history collection.
+ */
+@RestController
+@Profile("!reactive")
+public class HistoryAdminController {
+
+    private static final String GZIP = "gzip";
+
+    private static final MediaType APPLICATION_GZIP = MediaType.valueOf("application/gzip");
+
+    @Autowired
+    private TriggerIndexService triggerIndexService;
+
+    @Autowired
+    private HistoryTransferService historyTransferService;
+
+    @Autowired
+    private NoteCompressionService noteCompressionService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryAdminController.class);
+
+    /**
+     * Computes the trigger terms of every history and rebuilds the trigger counts of every patient.
+     *
+     * @return A BackfillResultDTO with the number of indexed histories.
+     */
+    @Operation(summary = "Build the trigger index of the existing histories")
+    @PostMapping(value = "/admin/patHistory/triggers/backfill")
+    public BackfillResultDTO backfillTriggers() {
+        logger.info("Trigger index backfill requested");
+        return triggerIndexService.backfill();
+    }
+
+    /**
+     * Exports every history as newline delimited JSON, in the format of mongodb_data.ndjson with the ID of each history,
+     * ordered by ID and streamed from a database cursor.
+     *
+     * @param after    The ID of the last history already received, to resume an interrupted export.
+     * @param gzip     True to download a gzip file, histories.ndjson.gz.
+     * @param parallel True to read the ID ranges of the collection with several cursors, in the same order.
+     * @return A ResponseEntity streaming the histories as they are read from the database.
+     */
+    @Operation(summary = "Export all patient histories as NDJSON")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Streaming the histories", content = { @Content(mediaType = "application/x-ndjson"), @Content(mediaType = "application/gzip") }),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor", content = @Content)
+    })
+    @GetMapping(value = "/admin/patHistory/export")
+    public ResponseEntity<StreamingResponseBody> exportHistories(@RequestParam(value = "after", required = false) String after,
+                                                                 @RequestParam(value = "gzip", defaultValue = "false") boolean gzip,
+                                                                 @RequestParam(value = "parallel", defaultValue = "false") boolean parallel) {
+        logger.info("Export of patient histories requested after: {}", after);
+
+        StreamingResponseBody body = outputStream -> {
+            try (OutputStream output = gzip ? new GZIPOutputStream(outputStream, 64 * 1024) : outputStream;
+                 NdjsonWriter lines = new NdjsonWriter(objectMapper, output)) {
+                historyTransferService.exportHistories(after, parallel, lines::writeLine);
+            }
+        };
+        if (!gzip) {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+        }
+        return ResponseEntity.ok()
+                .contentType(APPLICATION_GZIP)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("histories.ndjson.gz").build().toString())
+                .body(body);
+    }
+
+    /**
+     * Imports histories sent as newline delimited JSON, plain or gzipped, replacing the histories having the same ID.
+     * The body is parsed as it is received and written in batches, the progress is saved after each batch.
+     *
+     * @param importId        The ID of an interrupted import to resume with the same input, absent for a new import.
+     * @param contentType     The type of the body, application/gzip for a gzip file.
+     * @param contentEncoding gzip for a gzipped NDJSON body.
+     * @param body            The request body, in the format of mongodb_data.ndjson or of the export.
+     * @return An ImportResultDTO with the progress of the import and its ID.
+     * @throws IOException if the request body cannot be read.
+     */
+    @Operation(summary = "Import patient histories from NDJSON")
+    @PostMapping(value = "/admin/patHistory/import", consumes = { MediaType.APPLICATION_NDJSON_VALUE, "application/gzip" })
+    public ImportResultDTO importHistories(@RequestParam(value = "importId", required = false) String importId,
+                                           @RequestHeader(value = HttpHeaders.CONTENT_TYPE) String contentType,
+                                           @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding,
+                                           InputStream body) throws IOException {
+        logger.info("Import of patient histories requested: {}", importId);
+
+        boolean gzip = APPLICATION_GZIP.isCompatibleWith(MediaType.parseMediaType(contentType)) || GZIP.equalsIgnoreCase(contentEncoding);
+        try (InputStream input = gzip ? new GZIPInputStream(body, 64 * 1024) : body;
+             MappingIterator<HistoryDTO> historyDTOs = objectMapper.readerFor(HistoryDTO.class).readValues(input)) {
+            return historyTransferService.importHistories(importId, historyDTOs);
+        }
+    }
+
+    /**
+     * Retrieves the progress of an import, saved after each of its batches.
+     *
+     * @param importId The ID of the import.
+     * @return An ImportResultDTO with the progress of the import.
+     */
+    @Operation(summary = "Get the progress of an import")
+    @GetMapping(value = "/admin/patHistory/import/{importId}")
+    public ImportResultDTO getImport(@PathVariable String importId) {
+        return historyTransferService.getImport(importId);
+    }
+
+    /**
+     * Rewrites the notes of the existing histories compressed, or uncompressed, as history.notes.compression.enabled.
+     *
+     * @return A NoteMigrationResultDTO with the number of rewritten histories and the size of their notes.
+     */
+    @Operation(summary = "Compress or decompress the notes of the existing histories")
+    @PostMapping(value = "/admin/patHistory/notes/migrate")
+    public NoteMigrationResultDTO migrateNotes() {
+        logger.info("Notes migration requested");
+        return noteCompressionService.migrate();
+    }
+
+    /**
+     * Trains a notes compression dictionary on the notes of random histories.
+     *
+     * @param sample The number of histories to read.
+     * @param size   The maximum size of the dictionary in bytes.
+     * @return A ResponseEntity with the dictionary, notes.dict.
+     */
+    @Operation(summary = "Train a notes compression dictionary on the stored notes")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Dictionary trained", content = @Content(mediaType = "application/octet-stream")),
+            @ApiResponse(responseCode = "400", description = "Invalid sample or size", content = @Content)
+    })
+    @GetMapping(value = "/admin/patHistory/notes/dictionary")
+    public ResponseEntity<byte[]> trainNotesDictionary(@RequestParam(value = "sample", defaultValue = "10000") int sample,
+                                                       @RequestParam(value = "size", defaultValue = "16384") int size) {
+        logger.info("Notes dictionary requested from {} histories", sample);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("notes.dict").build().toString())
+                .body(noteCompressionService.trainDictionary(sample, size));
+    }
+}
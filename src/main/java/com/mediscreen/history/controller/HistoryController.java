@@ -1,61 +1,265 @@
 package com.mediscreen.history.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mediscreen.history.dto.BulkResultDTO;
+import com.mediscreen.history.dto.CacheStatsDTO;
+import com.mediscreen.history.dto.HistoryChangeDTO;
+import com.mediscreen.history.dto.HistoryCountDTO;
 import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryDateDTO;
+import com.mediscreen.history.dto.HistoryPageDTO;
+import com.mediscreen.history.dto.HistorySummaryDTO;
+import com.mediscreen.history.dto.HistoryVersionDTO;
+import com.mediscreen.history.dto.TriggerCountDTO;
+import com.mediscreen.history.service.HistoryBulkService;
+import com.mediscreen.history.service.HistoryChangeFeed;
+import com.mediscreen.history.service.HistoryChangeListener;
+import com.mediscreen.history.service.HistoryETags;
+import com.mediscreen.history.service.HistoryFields;
 import com.mediscreen.history.service.HistoryService;
+import com.mediscreen.history.service.TriggerTermService;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @RestController
+@Profile("!reactive")
 public class HistoryController {
 
     @Autowired
     private HistoryService historyService;
 
+    @Autowired
+    private HistoryBulkService historyBulkService;
+
+    @Autowired
+    private TriggerTermService triggerTermService;
+
+    @Autowired
+    private HistoryChangeFeed historyChangeFeed;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${history.changes.timeout-ms:1800000}")
+    private long changesTimeout = 1800000;
+
     private static Logger logger = LoggerFactory.getLogger(HistoryController.class);
 
     /**
      * Retrieves a patient's history by its ID.
      *
-     * @param id The ID of the history to retrieve.
-     * @return The HistoryDTO representing the patient's history.
+     * @param id      The ID of the history to retrieve.
+     * @param fields  The HistoryDTO fields to return, all of them when absent.
+     * @param request The request, answered with 304 when its If-None-Match or If-Modified-Since header still matches.
+     * @return The HistoryDTO representing the patient's history, with its ETag and Last-Modified headers.
      */
     @Operation(summary = "Get a patient history by its id")
     @GetMapping(value = "/patHistory/{id}")
-    public HistoryDTO getHistoryById(@PathVariable String id) {
-        logger.info("History " + id + " requested");
-        return historyService.getHistoryById(id);
+    public HistoryDTO getHistoryById(@PathVariable String id, @RequestParam(value = "fields", required = false) List<String> fields,
+                                     WebRequest request) {
+        logger.info("History {} requested", id);
+        Set<String> selected = HistoryFields.parse(fields);
+
+        if (isConditional(request)) {
+            HistoryVersionDTO version = historyService.getHistoryVersion(id, selected);
+            if (version != null && checkNotModified(request, version)) {
+                return null;
+            }
+            return historyService.getHistoryById(id, selected);
+        }
+
+        HistoryDTO historyDTO = historyService.getHistoryById(id, selected);
+        if (historyDTO != null) {
+            checkNotModified(request, HistoryETags.ofHistory(historyDTO, selected));
+        }
+        return historyDTO;
     }
 
     /**
      * Retrieves a patient's history by the patient ID.
      *
-     * @param id The ID of the patient for whom the history is requested.
-     * @return A list of HistoryDTO representing the patient's history.
+     * @param id      The ID of the patient for whom the history is requested.
+     * @param fields  The HistoryDTO fields to return, all of them when absent.
+     * @param request The request, answered with 304 when its If-None-Match or If-Modified-Since header still matches.
+     * @return A list of HistoryDTO representing the patient's history, with its ETag and Last-Modified headers.
      */
     @Operation(summary = "Get a patient history by patient id")
     @GetMapping(value = "/patHistory")
-    public List<HistoryDTO> getHistoryByPatientId(@RequestParam("patId") Integer id) {
-        logger.info("History for the Patient id : " + id + " requested");
-        return historyService.getHistoryByPatientId(id);
+    public List<HistoryDTO> getHistoryByPatientId(@RequestParam("patId") Integer id, @RequestParam(value = "fields", required = false) List<String> fields,
+                                                  WebRequest request) {
+        logger.info("History for the Patient id : {} requested", id);
+        Set<String> selected = HistoryFields.parse(fields);
+
+        if (isConditional(request)) {
+            if (checkNotModified(request, historyService.getPatientHistoryVersion(id, selected))) {
+                return null;
+            }
+            return historyService.getHistoryByPatientId(id, selected);
+        }
+
+        List<HistoryDTO> histories = historyService.getHistoryByPatientId(id, selected);
+        checkNotModified(request, HistoryETags.ofHistories(histories, selected));
+        return histories;
+    }
+
+    /**
+     * Conditional requests are checked against the versions alone, before the notes are read.
+     */
+    private static boolean isConditional(WebRequest request) {
+        return request.getHeader(HttpHeaders.IF_NONE_MATCH) != null || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null;
+    }
+
+    /**
+     * Sets the ETag and Last-Modified headers and tells whether the response can be a 304 without body.
+     */
+    private static boolean checkNotModified(WebRequest request, HistoryVersionDTO version) {
+        long lastModified = version.getLastModified() == null ? -1 : version.getLastModified().toEpochMilli();
+        return request.checkNotModified(version.getEtag(), lastModified);
+    }
+
+    /**
+     * Retrieves the summaries of a patient's histories, without the notes.
+     *
+     * @param id The ID of the patient.
+     * @return A list of HistorySummaryDTO, newest first.
+     */
+    @Operation(summary = "Get the history summaries of a patient, without the notes")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Summaries of the patient histories"),
+            @ApiResponse(responseCode = "400", description = "Missing patient ID, read every history with /patHistory/page", content = @Content)
+    })
+    @GetMapping(value = "/patHistory/summary")
+    public List<HistorySummaryDTO> getHistorySummaries(@RequestParam("patId") Integer id) {
+        logger.info("History summaries for the Patient id : {} requested", id);
+        return historyService.getHistorySummaries(id);
+    }
+
+    /**
+     * Retrieves the histories of many patients in a single request.
+     *
+     * @param patIds The IDs of the patients.
+     * @param limit  The maximum number of histories for each patient, the latest ones, or all of them when absent.
+     * @param fields The HistoryDTO fields to return, all of them when absent.
+     * @return The HistoryDTO lists of each patient, newest first, keyed by patient ID.
+     */
+    @Operation(summary = "Get the histories of many patients")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Histories of each patient, empty when the patient has none"),
+            @ApiResponse(responseCode = "400", description = "No patient, too many patients or invalid limit", content = @Content)
+    })
+    @GetMapping(value = "/patHistory/batch")
+    public Map<Integer, List<HistoryDTO>> getHistoriesByPatientIds(@RequestParam("patIds") List<Integer> patIds,
+                                                                   @RequestParam(value = "limit", required = false) Integer limit,
+                                                                   @RequestParam(value = "fields", required = false) List<String> fields) {
+        logger.info("Histories of {} patients requested", patIds.size());
+        return historyService.getHistoriesByPatientIds(patIds, limit, HistoryFields.parse(fields));
+    }
+
+    /**
+     * Retrieves the histories created within a range of dates, for a patient or for all patients.
+     *
+     * @param patId  The ID of the patient, all patients when absent.
+     * @param from   The first creation date, inclusive, no lower bound when absent.
+     * @param to     The last creation date, inclusive, no upper bound when absent.
+     * @param order  asc for the oldest first, desc for the newest first.
+     * @param limit  The maximum number of histories, capped by history.pagination.max-limit.
+     * @param fields The HistoryDTO fields to return, all of them when absent.
+     * @return A list of HistoryDTO ordered by creation date.
+     */
+    @Operation(summary = "Get the histories created within a range of dates")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Found the histories of the range"),
+            @ApiResponse(responseCode = "400", description = "Invalid range, order or limit", content = @Content)
+    })
+    @GetMapping(value = "/patHistory/range")
+    public List<HistoryDTO> getHistoriesByCreationDate(@RequestParam(value = "patId", required = false) Integer patId,
+                                                       @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                       @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                       @RequestParam(value = "order", defaultValue = "desc") String order,
+                                                       @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                                       @RequestParam(value = "fields", required = false) List<String> fields) {
+        logger.info("Histories of the Patient id : {} created from {} to {} requested", patId, from, to);
+        return historyService.getHistoriesByCreationDate(patId, from, to, order, limit, HistoryFields.parse(fields));
+    }
+
+    /**
+     * Counts the histories created by day, week or month, for a patient or for all patients.
+     *
+     * @param patId The ID of the patient, all patients when absent.
+     * @param from  The first creation date, inclusive, no lower bound when absent.
+     * @param to    The last creation date, inclusive, no upper bound when absent.
+     * @param unit  day, week (starting on Monday) or month.
+     * @return A list of HistoryCountDTO, oldest period first, without the periods having no history.
+     */
+    @Operation(summary = "Count the histories created by day, week or month")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Number of histories of each period"),
+            @ApiResponse(responseCode = "400", description = "Invalid range or unit", content = @Content)
+    })
+    @GetMapping(value = "/patHistory/counts")
+    public List<HistoryCountDTO> countHistoriesByCreationDate(@RequestParam(value = "patId", required = false) Integer patId,
+                                                              @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                              @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                              @RequestParam(value = "unit", defaultValue = "month") String unit) {
+        logger.info("History counts by {} of the Patient id : {} requested", unit, patId);
+        return historyService.countHistoriesByCreationDate(patId, from, to, unit);
+    }
+
+    /**
+     * Retrieves the IDs and creation dates of a patient's histories, without the notes.
+     *
+     * @param id The ID of the patient.
+     * @return A list of HistoryDateDTO, newest first.
+     */
+    @Operation(summary = "Get the history dates of a patient")
+    @GetMapping(value = "/patHistory/dates")
+    public List<HistoryDateDTO> getHistoryDatesByPatientId(@RequestParam("patId") Integer id) {
+        logger.info("History dates for the Patient id : {} requested", id);
+        return historyService.getHistoryDatesByPatientId(id);
+    }
+
+    /**
+     * Retrieves the hit, miss and eviction counters of the history cache.
+     *
+     * @return The CacheStatsDTO with the cache counters.
+     */
+    @Operation(summary = "Get the history cache statistics")
+    @GetMapping(value = "/patHistory/cache/stats")
+    public CacheStatsDTO getCacheStats() {
+        return historyService.getCacheStats();
     }
 
     /**
      * Retrieves all patient histories.
      *
+     * @param fields The HistoryDTO fields to return, all of them when absent.
      * @return A list of HistoryDTO representing all patient histories.
      */
     @Operation(summary = "Get all patient histories ")
@@ -64,13 +268,137 @@ public class HistoryController {
             @ApiResponse(responseCode = "404", description = "Histories not found", content = @Content)
     })
     @GetMapping(value = "/patHistory/all")
-    public List<HistoryDTO> getHistoryList() {
+    public List<HistoryDTO> getHistoryList(@RequestParam(value = "fields", required = false) List<String> fields) {
         logger.info("List of patient histories requested");
-        return historyService.getAllHistories();
+        return historyService.getAllHistories(HistoryFields.parse(fields));
+    }
+
+    /**
+     * Retrieves one page of patient histories, using the ID of the last history of the previous page as cursor.
+     *
+     * @param limit  The maximum number of histories in the page.
+     * @param after  The cursor returned with the previous page, absent for the first page.
+     * @param fields The HistoryDTO fields to return, all of them when absent.
+     * @return A HistoryPageDTO with the histories and the cursor of the next page.
+     */
+    @Operation(summary = "Get a page of patient histories")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Found the page of histories", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = HistoryPageDTO.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid page limit or cursor", content = @Content)
+    })
+    @GetMapping(value = "/patHistory/all", params = "limit")
+    public HistoryPageDTO getHistoryPage(@RequestParam("limit") int limit, @RequestParam(value = "after", required = false) String after,
+                                         @RequestParam(value = "fields", required = false) List<String> fields) {
+        logger.info("Page of patient histories requested after: {}", after);
+        return historyService.getHistoryPage(limit, after, HistoryFields.parse(fields));
+    }
+
+    /**
+     * Streams all patient histories as newline delimited JSON, one history per line.
+     *
+     * @return A ResponseEntity streaming the histories as they are read from the database.
+     */
+    @Operation(summary = "Stream all patient histories as NDJSON")
+    @GetMapping(value = "/patHistory/all", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamHistoryList() {
+        logger.info("Stream of patient histories requested");
+
+        StreamingResponseBody body = outputStream -> {
+            try (NdjsonWriter lines = new NdjsonWriter(objectMapper, outputStream)) {
+                historyService.streamAllHistories(lines::writeLine);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Streams the inserts, updates and deletes of the patient histories as server-sent events.
+     * Each event is named after the operation and has the resume token of the change as its ID,
+     * so that a reconnecting EventSource resumes right after the last change it received.
+     *
+     * @param lastEventId The resume token sent back by a reconnecting EventSource.
+     * @param resumeAfter The resume token of the last change received, used when there is no Last-Event-ID header.
+     * @return An SseEmitter sending a HistoryChangeDTO per change, and a comment line when idle.
+     */
+    @Operation(summary = "Stream the changes of patient histories as server-sent events")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Streaming the history changes", content = { @Content(mediaType = "text/event-stream", schema = @Schema(implementation = HistoryChangeDTO.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid resume token", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Too many subscribers", content = @Content)
+    })
+    @GetMapping(value = "/patHistory/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamHistoryChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                           @RequestParam(value = "resumeAfter", required = false) String resumeAfter) {
+        String resumeToken = lastEventId != null && !lastEventId.isBlank() ? lastEventId : resumeAfter;
+        logger.info("History changes requested after: {}", resumeToken);
+
+        SseEmitter emitter = new SseEmitter(changesTimeout);
+        HistoryChangeFeed.Subscription subscription = historyChangeFeed.subscribe(resumeToken, new HistoryChangeListener() {
+            @Override
+            public void onChange(HistoryChangeDTO change) throws IOException {
+                emitter.send(SseEmitter.event().id(change.getResumeToken()).name(change.getOperation())
+                        .data(change, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void onIdle() throws IOException {
+                emitter.send(SseEmitter.event().comment("idle"));
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                logger.warn("History changes stream failed", error);
+                emitter.completeWithError(error);
+            }
+        });
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(error -> subscription.close());
+        return emitter;
+    }
+
+    /**
+     * Searches the notes of the patient histories.
+     *
+     * @param text The words to search, in French, case and accents are ignored.
+     * @param patId The ID of the patient to search, absent to search every patient.
+     * @param page The index of the page, starting at 0.
+     * @param size The size of the page.
+     * @return A list of HistoryDTO, best matches first.
+     */
+    @Operation(summary = "Search the notes of patient histories")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Found the matching histories", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = HistoryDTO.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid search text or page", content = @Content),
+            @ApiResponse(responseCode = "501", description = "The notes are stored compressed, out of the text index", content = @Content)
+    })
+    @GetMapping(value = "/patHistory/search")
+    public List<HistoryDTO> searchHistories(@RequestParam("q") String text,
+                                            @RequestParam(value = "patId", required = false) Integer patId,
+                                            @RequestParam(value = "page", defaultValue = "0") int page,
+                                            @RequestParam(value = "size", defaultValue = "20") int size) {
+        logger.info("Search of patient histories requested for: {}", text);
+        return historyService.searchHistories(text, patId, page, size);
     }
 
     /**
-     * Saves a patient history.
+     * Counts the distinct trigger terms found in the notes of a patient.
+     *
+     * @param patId The ID of the patient.
+     * @param terms The terms to count, absent to count the configured trigger terms.
+     * @return A TriggerCountDTO with the number of distinct terms found.
+     */
+    @Operation(summary = "Count the trigger terms in the notes of a patient")
+    @GetMapping(value = "/patHistory/triggers/count")
+    public TriggerCountDTO countTriggers(@RequestParam("patId") Integer patId,
+                                         @RequestParam(value = "terms", required = false) List<String> terms) {
+        logger.info("Trigger terms count for the Patient id : {} requested", patId);
+        return triggerTermService.countTriggers(patId, terms);
+    }
+
+    /**
+     * Saves a patient history. With history.write-behind.enabled the history is queued and the response is
+     * 202 Accepted with its generated ID, see HistoryWriteBehind for the durability.
      *
      * @param historyDTO The HistoryDTO representing the patient history to be saved.
      * @return A ResponseEntity with status indicating the result of the operation.
@@ -78,27 +406,56 @@ public class HistoryController {
     @Operation(summary = "Save a patient history")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Patient History added successfully", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = HistoryDTO.class)) }),
+            @ApiResponse(responseCode = "202", description = "Patient History queued, the body is its ID", content = @Content),
             @ApiResponse(responseCode = "400", description = "Invalid Patient History data", content = @Content),
-            @ApiResponse(responseCode = "500", description = "Failed to add Patient History", content = @Content)
+            @ApiResponse(responseCode = "500", description = "Failed to add Patient History", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Too many Patient Histories waiting to be written", content = @Content)
     })
     @PostMapping(value = "/patHistory/add", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
     public ResponseEntity<String> addHistory(@ModelAttribute HistoryDTO historyDTO) {
-        logger.info("Adding new patient history: " + historyDTO.getId());
+        logger.info("Adding new patient history: {}", historyDTO.getId());
+
+        if (historyService.isWriteBehind()) {
+            String id = historyService.queueHistory(historyDTO);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).header(HttpHeaders.LOCATION, "/patHistory/" + id).body(id);
+        }
 
         //Check if the patient history is saved
         if (historyService.addHistory(historyDTO)) {
-            logger.info("created patient history at: " + historyDTO.getCreationDate());
+            logger.info("created patient history at: {}", historyDTO.getCreationDate());
             return ResponseEntity.status(HttpStatus.CREATED).body("Patient history added successfully");
         } else {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to add patient history");
         }
     }
 
+    /**
+     * Saves many patient histories sent as a JSON array or as newline delimited JSON.
+     * The body is parsed as it is received and written in batches.
+     *
+     * @param body The request body, in the format of mongodb_data.ndjson.
+     * @return A BulkResultDTO with the result of each history, in input order.
+     * @throws IOException if the request body cannot be read.
+     */
+    @Operation(summary = "Save many patient histories")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Patient histories processed, see the result of each item", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = BulkResultDTO.class)) })
+    })
+    @PostMapping(value = "/patHistory/bulk", consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+    public BulkResultDTO addHistories(InputStream body) throws IOException {
+        logger.info("Adding patient histories in bulk");
+
+        try (MappingIterator<HistoryDTO> historyDTOs = objectMapper.readerFor(HistoryDTO.class).readValues(body)) {
+            return historyBulkService.addHistories(historyDTOs);
+        }
+    }
+
     /**
      * Updates a patient history.
      *
      * @param id The ID of the history to be updated.
      * @param historyDTO The HistoryDTO representing the updated patient history.
+     * @param ifMatch The ETag of the history read by the client, to reject the update if it changed since.
      * @return A ResponseEntity with status indicating the result of the operation.
      */
     @Operation(summary = "Update a patient history")
@@ -106,15 +463,18 @@ public class HistoryController {
             @ApiResponse(responseCode = "200", description = "Patient history updated successfully", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = HistoryDTO.class))}),
             @ApiResponse(responseCode = "400", description = "Invalid patient history data", content = @Content),
             @ApiResponse(responseCode = "404", description = "Patient history not found", content = @Content),
+            @ApiResponse(responseCode = "412", description = "Patient history changed since the If-Match ETag", content = @Content),
             @ApiResponse(responseCode = "500", description = "Failed to update patient history", content = @Content)
     })
     @PutMapping(value = "/patHistory/update/{id}")
-    public ResponseEntity<String> updateHistory(@PathVariable String id, @RequestBody HistoryDTO historyDTO) {
-        logger.info("Updating patient history with ID: " + id);
+    public ResponseEntity<String> updateHistory(@PathVariable String id, @RequestBody HistoryDTO historyDTO,
+                                                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        logger.info("Updating patient history with ID: {}", id);
 
-        // Update the patient history
-        if (historyService.updateHistory(id, historyDTO)) {
-            logger.info("Updated patient history with ID: " + id);
+        // Update the patient history, only if it is still at the version read by the client when If-Match is set
+        if (historyService.updateHistory(id, historyDTO, HistoryETags.parseIfMatch(ifMatch),
+                HistoryETags.parseIfMatchLastModified(ifMatch))) {
+            logger.info("Updated patient history with ID: {}", id);
             return ResponseEntity.status(HttpStatus.OK).body("Patient history updated successfully");
         } else {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to update patient history");
@@ -135,10 +495,10 @@ public class HistoryController {
     })
     @DeleteMapping(value = "/patHistory/{id}")
     public ResponseEntity<String> deleteHistory(@PathVariable String id) {
-        logger.info("Deleting patient history with ID: " + id);
+        logger.info("Deleting patient history with ID: {}", id);
 
         if (historyService.deleteHistory(id)) {
-            logger.info("Deleted patient history with ID: " + id);
+            logger.info("Deleted patient history with ID: {}", id);
             return ResponseEntity.status(HttpStatus.OK).body("Patient history deleted successfully");
         } else {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to delete patient history");
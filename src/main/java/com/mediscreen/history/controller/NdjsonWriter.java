@@ -0,0 +1,50 @@
+package com.mediscreen.history.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes values as newline delimited JSON, one value per line, for the streamed responses.
+ * The generator buffers several lines instead of flushing the response after each value.
+ */
+final class NdjsonWriter implements Closeable {
+
+    private final ObjectWriter writer;
+
+    private final JsonGenerator generator;
+
+    NdjsonWriter(ObjectMapper objectMapper, OutputStream output) throws IOException {
+        this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.generator = objectMapper.getFactory().createGenerator(output);
+    }
+
+    /**
+     * Writes a value on its own line.
+     *
+     * @param value The value to write.
+     * @throws UncheckedIOException if the response cannot be written, so that it can be thrown from a Consumer.
+     */
+    void writeLine(Object value) {
+        try {
+            writer.writeValue(generator, value);
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes the buffered lines and closes the output.
+     */
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
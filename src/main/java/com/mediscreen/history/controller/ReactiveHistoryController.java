@@ -0,0 +1,120 @@
+package com.mediscreen.history.controller;
+
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.service.HistoryETags;
+import com.mediscreen.history.service.ReactiveHistoryService;
+import io.swagger.v3.oas.annotations.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * WebFlux version of HistoryController, serving the same paths when the reactive profile is active.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveHistoryController {
+
+    @Autowired
+    private ReactiveHistoryService historyService;
+
+    private static Logger logger = LoggerFactory.getLogger(ReactiveHistoryController.class);
+
+    /**
+     * Retrieves a patient's history by its ID.
+     *
+     * @param id The ID of the history to retrieve.
+     * @return The HistoryDTO representing the patient's history.
+     */
+    @Operation(summary = "Get a patient history by its id")
+    @GetMapping(value = "/patHistory/{id}")
+    public Mono<HistoryDTO> getHistoryById(@PathVariable String id) {
+        logger.info("History {} requested", id);
+        return historyService.getHistoryById(id);
+    }
+
+    /**
+     * Retrieves a patient's history by the patient ID.
+     *
+     * @param id The ID of the patient for whom the history is requested.
+     * @return The HistoryDTO representing the patient's history.
+     */
+    @Operation(summary = "Get a patient history by patient id")
+    @GetMapping(value = "/patHistory")
+    public Flux<HistoryDTO> getHistoryByPatientId(@RequestParam("patId") Integer id) {
+        logger.info("History for the Patient id : {} requested", id);
+        return historyService.getHistoryByPatientId(id);
+    }
+
+    /**
+     * Retrieves all patient histories. With Accept: application/x-ndjson each history is written as soon as it is
+     * read, and the database cursor is only advanced as fast as the client consumes the response.
+     *
+     * @return All patient histories.
+     */
+    @Operation(summary = "Get all patient histories ")
+    @GetMapping(value = "/patHistory/all", produces = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+    public Flux<HistoryDTO> getHistoryList() {
+        logger.info("List of patient histories requested");
+        return historyService.getAllHistories();
+    }
+
+    /**
+     * Saves a patient history.
+     *
+     * @param historyDTO The HistoryDTO representing the patient history to be saved.
+     * @return A ResponseEntity with status indicating the result of the operation.
+     */
+    @Operation(summary = "Save a patient history")
+    @PostMapping(value = "/patHistory/add", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+    public Mono<ResponseEntity<String>> addHistory(@ModelAttribute HistoryDTO historyDTO) {
+        logger.info("Adding new patient history: {}", historyDTO.getId());
+
+        return historyService.addHistory(historyDTO).map(added -> added
+                ? ResponseEntity.status(HttpStatus.CREATED).body("Patient history added successfully")
+                : ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to add patient history"));
+    }
+
+    /**
+     * Updates a patient history.
+     *
+     * @param id The ID of the history to be updated.
+     * @param historyDTO The HistoryDTO representing the updated patient history.
+     * @param ifMatch The ETag of the history read by the client, to reject the update if it changed since.
+     * @return A ResponseEntity with status indicating the result of the operation.
+     */
+    @Operation(summary = "Update a patient history")
+    @PutMapping(value = "/patHistory/update/{id}")
+    public Mono<ResponseEntity<String>> updateHistory(@PathVariable String id, @RequestBody HistoryDTO historyDTO,
+                                                      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        logger.info("Updating patient history with ID: {}", id);
+
+        // Update the patient history, only if it is still at the version read by the client when If-Match is set
+        return historyService.updateHistory(id, historyDTO, HistoryETags.parseIfMatch(ifMatch),
+                        HistoryETags.parseIfMatchLastModified(ifMatch))
+                .map(updated -> ResponseEntity.status(HttpStatus.OK).body("Patient history updated successfully"));
+    }
+
+    /**
+     * Deletes a patient history by its ID.
+     *
+     * @param id The ID of the history to be deleted.
+     * @return A ResponseEntity with status indicating the result of the operation.
+     */
+    @Operation(summary = "Delete a patient history by its id")
+    @DeleteMapping(value = "/patHistory/{id}")
+    public Mono<ResponseEntity<String>> deleteHistory(@PathVariable String id) {
+        logger.info("Deleting patient history with ID: {}", id);
+
+        return historyService.deleteHistory(id)
+                .map(deleted -> ResponseEntity.status(HttpStatus.OK).body("Patient history deleted successfully"));
+    }
+}
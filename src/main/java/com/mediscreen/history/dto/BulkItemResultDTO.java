@@ -0,0 +1,20 @@
+package com.mediscreen.history.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkItemResultDTO {
+
+    private int index;
+
+    private String id;
+
+    private boolean success;
+
+    private String error;
+
+}
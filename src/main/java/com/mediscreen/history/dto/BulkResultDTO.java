@@ -0,0 +1,19 @@
+package com.mediscreen.history.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class BulkResultDTO {
+
+    private int inserted;
+
+    private int failed;
+
+    private List<BulkItemResultDTO> items = new ArrayList<>();
+
+}
@@ -0,0 +1,22 @@
+package com.mediscreen.history.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheStatsDTO {
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    private long entries;
+
+    private long weightInBytes;
+
+}
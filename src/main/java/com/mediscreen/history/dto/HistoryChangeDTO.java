@@ -0,0 +1,46 @@
+package com.mediscreen.history.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HistoryChangeDTO {
+
+    /**
+     * Token to resume the feed right after this change.
+     */
+    private String resumeToken;
+
+    /**
+     * insert, update, replace or delete.
+     */
+    private String operation;
+
+    private String id;
+
+    /**
+     * Patient of the history after the change, or before it for a delete when the pre-images are enabled.
+     */
+    private Integer patId;
+
+    /**
+     * Patient of the history before the change when it moved to another patient, only with the pre-images enabled.
+     */
+    private Integer previousPatId;
+
+    /**
+     * True when an update set the patient of the history, which may have moved from a patient that is unknown
+     * without the pre-images. Absent otherwise.
+     */
+    private Boolean patIdUpdated;
+
+    private Instant clusterTime;
+
+}
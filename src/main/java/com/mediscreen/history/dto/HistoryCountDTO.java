@@ -0,0 +1,21 @@
+package com.mediscreen.history.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryCountDTO {
+
+    /**
+     * First day of the day, week or month.
+     */
+    private LocalDate period;
+
+    private long count;
+
+}
@@ -1,11 +1,13 @@
 package com.mediscreen.history.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
 import java.time.LocalDate;
 
 @Data
@@ -22,4 +24,13 @@ public class HistoryDTO {
 
     private String notes;
 
+    /**
+     * Sent in the ETag and Last-Modified headers instead of the body.
+     */
+    @JsonIgnore
+    private Long version;
+
+    @JsonIgnore
+    private Instant lastModified;
+
 }
\ No newline at end of file
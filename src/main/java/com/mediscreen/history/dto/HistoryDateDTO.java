@@ -0,0 +1,16 @@
+package com.mediscreen.history.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+public class HistoryDateDTO {
+
+    private String id;
+
+    private LocalDate creationDate;
+
+}
@@ -0,0 +1,12 @@
+package com.mediscreen.history.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * HistoryDTO read with a fields= selector: the fields that were not selected are left out of the JSON,
+ * while a complete HistoryDTO keeps its null fields.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HistoryFieldsDTO extends HistoryDTO {
+
+}
@@ -0,0 +1,18 @@
+package com.mediscreen.history.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryPageDTO {
+
+    private List<HistoryDTO> items;
+
+    private String next;
+
+}
@@ -0,0 +1,20 @@
+package com.mediscreen.history.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@NoArgsConstructor
+public class HistorySummaryDTO {
+
+    private String id;
+
+    private Integer patId;
+
+    private String patient;
+
+    private LocalDate creationDate;
+
+}
@@ -0,0 +1,18 @@
+package com.mediscreen.history.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryVersionDTO {
+
+    private String etag;
+
+    private Instant lastModified;
+
+}
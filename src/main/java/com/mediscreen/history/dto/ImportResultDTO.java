@@ -0,0 +1,30 @@
+package com.mediscreen.history.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+public class ImportResultDTO {
+
+    /**
+     * ID to send again to resume the import after its last completed batch.
+     */
+    private String importId;
+
+    private long read;
+
+    private long imported;
+
+    private long failed;
+
+    private List<String> errors = new ArrayList<>();
+
+    private String lastId;
+
+    private boolean completed;
+
+}
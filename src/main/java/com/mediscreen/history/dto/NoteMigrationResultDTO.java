@@ -0,0 +1,33 @@
+package com.mediscreen.history.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteMigrationResultDTO {
+
+    private boolean compressed;
+
+    private long histories;
+
+    /**
+     * Histories updated while the migration ran, left as they are: migrate again to rewrite them.
+     */
+    private long skipped;
+
+    /**
+     * UTF-8 size of the notes read, skipped histories included.
+     */
+    private long notesBytes;
+
+    /**
+     * Size of the notes as written, compressed or not, skipped histories included.
+     */
+    private long storedBytes;
+
+    private long durationMs;
+
+}
@@ -0,0 +1,16 @@
+package com.mediscreen.history.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TriggerCountDTO {
+
+    private Integer patId;
+
+    private int count;
+
+}
@@ -1,16 +1,23 @@
 package com.mediscreen.history.model;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.TextIndexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.List;
 
 @Data
 @NoArgsConstructor
-@Document("histories")
+@Document(collection = "histories", language = "french")
+@CompoundIndex(name = "patId_creationDate", def = "{'patId': 1, 'creationDate': -1, '_id': 1}")
+@CompoundIndex(name = "creationDate", def = "{'creationDate': -1, '_id': 1}")
 public class History {
 
     @Id
@@ -22,7 +29,43 @@ public class History {
 
     private LocalDate creationDate;
 
-    @Indexed
+    /**
+     * Null when the notes are stored compressed, until they are first read.
+     */
+    @TextIndexed
     private String notes;
 
+    /**
+     * The notes compressed by NoteCodec when note compression is enabled, only decompressed when the notes are read.
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private byte[] compressedNotes;
+
+    /**
+     * Normalized trigger terms found in the notes, maintained on write when the trigger index is enabled.
+     */
+    private List<String> triggers;
+
+    /**
+     * 0 on insert and incremented by every update, missing on the histories written before it was added and read as 0.
+     */
+    private Long version;
+
+    private Instant lastModified;
+
+    public String getNotes() {
+        if (notes == null && compressedNotes != null) {
+            notes = NoteCodec.decompress(compressedNotes);
+        }
+        return notes;
+    }
+
+    /**
+     * Replaces the notes, and the compressed notes read with the history.
+     */
+    public void setNotes(String notes) {
+        this.notes = notes;
+        this.compressedNotes = null;
+    }
 }
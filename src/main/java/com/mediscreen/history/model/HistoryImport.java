@@ -0,0 +1,49 @@
+package com.mediscreen.history.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress of an NDJSON import, saved after each batch so that an interrupted import resumes after its last batch.
+ */
+@Data
+@NoArgsConstructor
+@Document("historyImports")
+public class HistoryImport {
+
+    @Id
+    private String id;
+
+    /**
+     * Number of histories read from the start of the input and written, or failed, by the completed batches.
+     */
+    private long read;
+
+    private long imported;
+
+    private long failed;
+
+    /**
+     * The first errors of the import, at most HistoryTransferService.MAX_ERRORS.
+     */
+    private List<String> errors = new ArrayList<>();
+
+    /**
+     * ID of the last history of the last completed batch.
+     */
+    private String lastId;
+
+    /**
+     * True when the whole input was read.
+     */
+    private boolean completed;
+
+    private Instant lastModified;
+
+}
@@ -1,7 +1,11 @@
 package com.mediscreen.history.model;
 
 import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryDateDTO;
+import com.mediscreen.history.dto.HistorySummaryDTO;
+import com.mediscreen.history.dto.ImportResultDTO;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 import java.util.List;
 
@@ -10,5 +14,13 @@ public interface MapstructMapper {
 
     List<HistoryDTO> historyListToDTO(List<History> histories);
     HistoryDTO historyToDTO(History History);
+    @Mapping(target = "triggers", ignore = true)
+    @Mapping(target = "compressedNotes", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "lastModified", ignore = true)
     History historyDTOtoEntity(HistoryDTO history);
+    List<HistoryDateDTO> historyListToDateDTO(List<History> histories);
+    List<HistorySummaryDTO> historyListToSummaryDTO(List<History> histories);
+    @Mapping(target = "importId", source = "id")
+    ImportResultDTO historyImportToDTO(HistoryImport historyImport);
 }
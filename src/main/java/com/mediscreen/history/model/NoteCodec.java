@@ -0,0 +1,215 @@
+package com.mediscreen.history.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the notes stored in a history with deflate and a preset dictionary of French clinical text.
+ * The compressed notes are zlib streams naming their dictionary by its Adler-32 checksum, so the histories
+ * compressed with a former dictionary stay readable as long as it is registered.
+ */
+public final class NoteCodec {
+
+    /**
+     * Dictionary trained on mongodb_data.ndjson, always registered.
+     */
+    public static final String DEFAULT_DICTIONARY = "/notes.dict";
+
+    private static final int MAX_NGRAM_WORDS = 8;
+
+    private static final Map<Integer, byte[]> DICTIONARIES = new ConcurrentHashMap<>();
+
+    private static final byte[] DEFAULT = readDefaultDictionary();
+
+    private NoteCodec() {
+    }
+
+    /**
+     * @return The dictionary bundled with the application.
+     */
+    public static byte[] defaultDictionary() {
+        return DEFAULT;
+    }
+
+    /**
+     * Makes the notes compressed with a dictionary readable.
+     *
+     * @param dictionary The dictionary.
+     * @return Its ID, the Adler-32 checksum found in the notes it compressed.
+     */
+    public static int register(byte[] dictionary) {
+        int id = dictionaryId(dictionary);
+        DICTIONARIES.put(id, dictionary);
+        return id;
+    }
+
+    public static int dictionaryId(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary);
+        return (int) adler32.getValue();
+    }
+
+    /**
+     * Compresses notes with a dictionary.
+     *
+     * @param notes      The notes to compress.
+     * @param dictionary The dictionary, or null to compress without one.
+     * @return The zlib stream of the UTF-8 notes.
+     */
+    public static byte[] compress(String notes, byte[] dictionary) {
+        byte[] input = notes.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+            byte[] buffer = new byte[Math.max(64, input.length)];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses notes compressed by {@link #compress(String, byte[])}.
+     *
+     * @param compressed The zlib stream.
+     * @return The notes.
+     * @throws IllegalStateException if the stream is corrupt or its dictionary is not registered.
+     */
+    public static String decompress(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] buffer = new byte[Math.max(256, compressed.length * 3)];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(buffer);
+                if (read == 0) {
+                    if (inflater.needsDictionary()) {
+                        byte[] dictionary = DICTIONARIES.get(inflater.getAdler());
+                        if (dictionary == null) {
+                            throw new IllegalStateException("Unknown notes dictionary " + Integer.toHexString(inflater.getAdler()));
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalStateException("Truncated compressed notes");
+                    }
+                }
+                output.write(buffer, 0, read);
+            }
+            return output.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed notes", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Trains a dictionary on sample notes: the word sequences found in most notes, weighted by their length.
+     * The most useful ones are written last, where deflate reaches them with the shortest distances.
+     *
+     * @param notes The sample notes.
+     * @param size  The maximum size of the dictionary in bytes, deflate only looks 32 KB back.
+     * @return The dictionary.
+     */
+    public static byte[] train(Collection<String> notes, int size) {
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        for (String note : new HashSet<>(notes)) {
+            if (note != null) {
+                ngrams(note).forEach(ngram -> documentFrequency.merge(ngram, 1, Integer::sum));
+            }
+        }
+
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        documentFrequency.forEach((ngram, frequency) -> {
+            if (frequency > 1) {
+                candidates.add(Map.entry(ngram, frequency * ngram.getBytes(StandardCharsets.UTF_8).length));
+            }
+        });
+        candidates.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+        List<String> selected = new ArrayList<>();
+        int selectedBytes = 0;
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            String ngram = candidate.getKey();
+            if (selected.stream().noneMatch(chosen -> chosen.contains(ngram))) {
+                selected.add(ngram);
+                selectedBytes += ngram.getBytes(StandardCharsets.UTF_8).length;
+                if (selectedBytes >= size) {
+                    break;
+                }
+            }
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(selectedBytes);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            dictionary.writeBytes(selected.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] bytes = dictionary.toByteArray();
+        return bytes.length <= size ? bytes : Arrays.copyOfRange(bytes, bytes.length - size, bytes.length);
+    }
+
+    /**
+     * The distinct sequences of 1 to 8 words of a note, with their separators.
+     */
+    private static Set<String> ngrams(String note) {
+        List<int[]> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= note.length(); i++) {
+            boolean space = i == note.length() || Character.isWhitespace(note.charAt(i));
+            if (!space && start < 0) {
+                start = i;
+            } else if (space && start >= 0) {
+                words.add(new int[] { start, i });
+                start = -1;
+            }
+        }
+
+        Set<String> ngrams = new HashSet<>();
+        for (int first = 0; first < words.size(); first++) {
+            for (int last = first; last < Math.min(words.size(), first + MAX_NGRAM_WORDS); last++) {
+                // Keep the separator after the sequence, it is compressed with it
+                int end = Math.min(note.length(), words.get(last)[1] + 1);
+                ngrams.add(note.substring(words.get(first)[0], end));
+            }
+        }
+        return ngrams;
+    }
+
+    private static byte[] readDefaultDictionary() {
+        try (InputStream in = NoteCodec.class.getResourceAsStream(DEFAULT_DICTIONARY)) {
+            if (in == null) {
+                return null;
+            }
+            byte[] dictionary = in.readAllBytes();
+            register(dictionary);
+            return dictionary;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
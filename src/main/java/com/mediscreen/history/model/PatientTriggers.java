@@ -0,0 +1,24 @@
+package com.mediscreen.history.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@Document("patientTriggers")
+public class PatientTriggers {
+
+    @Id
+    private Integer patId;
+
+    /**
+     * Number of notes of the patient containing each normalized trigger term.
+     */
+    private Map<String, Integer> counts = new HashMap<>();
+
+}
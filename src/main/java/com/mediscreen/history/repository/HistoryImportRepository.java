@@ -0,0 +1,9 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.model.HistoryImport;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface HistoryImportRepository extends MongoRepository<HistoryImport, String> {
+}
@@ -1,13 +1,47 @@
 package com.mediscreen.history.repository;
 
 import com.mediscreen.history.model.History;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
-public interface HistoryRepository extends MongoRepository<History, String> {
+public interface HistoryRepository extends MongoRepository<History, String>, HistoryRepositoryCustom {
 
-    public List<History> findByPatId(Integer id);
+    /**
+     * Covered by the (patId, creationDate, _id) index: only the ID and the date are read, never the notes.
+     */
+    @Query(value = "{ 'patId' : ?0 }", fields = "{ '_id' : 1, 'creationDate' : 1 }", sort = "{ 'creationDate' : -1 }")
+    public List<History> findDatesByPatId(Integer id);
+
+    @Query(value = "{ '_id' : ?0 }", fields = "{ 'version' : 1, 'lastModified' : 1 }")
+    public History findVersionById(String id);
+
+    @Query(value = "{ 'patId' : ?0 }", fields = "{ 'version' : 1, 'lastModified' : 1 }")
+    public List<History> findVersionsByPatId(Integer id);
+
+    @Query(value = "{ 'patId' : ?0 }", fields = "{ 'patId' : 1, 'patient' : 1, 'creationDate' : 1 }", sort = "{ 'creationDate' : -1 }")
+    public List<History> findSummariesByPatId(Integer id);
+
+    @Query(value = "{ 'patId' : ?0 }", fields = "{ 'notes' : 1, 'compressedNotes' : 1 }")
+    public List<History> findNotesByPatId(Integer id);
+
+    public List<History> findAllByOrderByIdAsc(Pageable pageable);
+
+    /**
+     * Takes an ObjectId: String bounds are not converted by the query mapper and would never match the stored ObjectIds.
+     */
+    public List<History> findByIdGreaterThanOrderByIdAsc(ObjectId id, Pageable pageable);
+
+    public Stream<History> streamAllByOrderByIdAsc();
+
+    public Stream<History> streamByIdGreaterThanOrderByIdAsc(ObjectId id);
+
+    @Query(value = "{}", fields = "{ 'patId' : 1, 'notes' : 1, 'compressedNotes' : 1 }")
+    public Stream<History> streamNotesBy();
 }
@@ -0,0 +1,224 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.dto.HistoryCountDTO;
+import com.mediscreen.history.dto.NoteMigrationResultDTO;
+import com.mediscreen.history.model.History;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+public interface HistoryRepositoryCustom {
+
+    /**
+     * Inserts the histories with a single unordered bulk write.
+     *
+     * @param histories The histories to insert, their IDs must already be set.
+     * @return The error message of each failed insert, keyed by its index in the given list.
+     */
+    public Map<Integer, String> bulkInsert(List<History> histories);
+
+    /**
+     * Replaces the histories having the same IDs, or inserts them, with a single unordered bulk write. When the histories
+     * are sharded the replacements are filtered on the ID and the patId shard key, and the stored histories moving to
+     * another patient are deleted and inserted again in a transaction each.
+     *
+     * @param histories The histories to write, their IDs must already be set.
+     * @return The error message of each failed write, keyed by its index in the given list.
+     */
+    public Map<Integer, String> bulkReplace(List<History> histories);
+
+    /**
+     * Sets the non null fields of the changes on the history with the given ID, in a single atomic operation,
+     * and increments its version when a field is set. When the histories are sharded, a change of patient deletes the
+     * history and inserts its new version in a transaction.
+     *
+     * @param id              The ID of the history to update.
+     * @param changes         The fields to set, the ID and the null fields are ignored.
+     * @param expectedVersion      The version the history must have to be updated, or null for any version.
+     * @param expectedLastModified The date of its last write, checked with the version, or null for any date.
+     * @return The history as it was before the update, or null if there is no history with this ID and version.
+     */
+    public History updateFields(String id, History changes, Long expectedVersion, Instant expectedLastModified);
+
+    /**
+     * Removes the history with the given ID in a single atomic operation.
+     *
+     * @param id The ID of the history to remove.
+     * @return The removed history, or null if there is no history with this ID.
+     */
+    public History removeById(String id);
+
+    /**
+     * Finds the histories of a patient, with the read preference and read concern of the patient read.
+     * Replaces the derived query, so that it can be routed.
+     *
+     * @param patId The ID of the patient.
+     * @return The histories of the patient.
+     */
+    public List<History> findByPatId(Integer patId);
+
+    /**
+     * Finds every history, with the read preference and read concern of the all read.
+     * Replaces the findAll of the repository, so that it can be routed.
+     *
+     * @return Every history.
+     */
+    public List<History> findAll();
+
+    /**
+     * Streams every history from a cursor, with the read preference and read concern of the all read.
+     *
+     * @return The histories, the stream must be closed.
+     */
+    public Stream<History> streamAllBy();
+
+    /**
+     * Finds a history, reading only the given fields.
+     *
+     * @param id     The ID of the history.
+     * @param fields The fields to read, the ID is always read.
+     * @return The history with only these fields set, or null if there is no history with this ID.
+     */
+    public History findByIdWithFields(String id, Set<String> fields);
+
+    /**
+     * Finds the histories of a patient, reading only the given fields.
+     *
+     * @param patId  The ID of the patient.
+     * @param fields The fields to read, the ID is always read.
+     * @return The histories with only these fields set.
+     */
+    public List<History> findByPatIdWithFields(Integer patId, Set<String> fields);
+
+    /**
+     * Finds all the histories, reading only the given fields.
+     *
+     * @param fields The fields to read, the ID is always read.
+     * @return The histories with only these fields set.
+     */
+    public List<History> findAllWithFields(Set<String> fields);
+
+    /**
+     * Finds a page of histories ordered by ID, reading only the given fields.
+     *
+     * @param after    The ID after which the page starts, or null for the first page.
+     * @param pageable The size of the page.
+     * @param fields   The fields to read, the ID is always read.
+     * @return The histories of the page with only these fields set.
+     */
+    public List<History> findPageWithFields(String after, Pageable pageable, Set<String> fields);
+
+    /**
+     * Estimates the number of histories from the collection metadata, without counting them.
+     *
+     * @return The estimated number of histories.
+     */
+    public long estimatedCount();
+
+    /**
+     * Picks random history IDs with $sample, to split the collection into ranges of about the same size.
+     *
+     * @param size The number of IDs to pick.
+     * @return The picked IDs, in ascending order.
+     */
+    public List<String> sampleIds(int size);
+
+    /**
+     * Streams the histories of an ID range from a cursor, ordered by ID, with the read preference and read concern
+     * of the all read.
+     *
+     * @param after  The ObjectId after which the range starts, exclusive, or null for the first history.
+     * @param to     The ObjectId at which the range ends, inclusive, or null for the last history.
+     * @param fields The fields to read, or null for all of them.
+     * @return The histories of the range, the stream must be closed.
+     */
+    public Stream<History> streamByIdRange(String after, String to, Set<String> fields);
+
+    /**
+     * Searches the notes with the French text index, best matches first.
+     * The notes stored compressed are not in the text index and never match.
+     *
+     * @param text     The words to search, a history matches when its notes contain any of them.
+     * @param patId    The ID of the patient to search, or null to search every patient.
+     * @param pageable The page to return.
+     * @return The matching histories of the page, ordered by decreasing text score.
+     */
+    public List<History> searchNotes(String text, Integer patId, Pageable pageable);
+
+    /**
+     * Finds the histories of many patients with a single query, using the patId and creationDate index. With a limit,
+     * the latest histories of each patient are picked with $topN (MongoDB 5.2+), then read with a second query.
+     *
+     * @param patIds The IDs of the patients.
+     * @param limit  The maximum number of histories to return for each patient, or null for all of them.
+     * @param fields The fields to read, or null for all of them. The ID, patId and creationDate are always read.
+     * @return The histories grouped by patient, newest first within each patient.
+     */
+    public List<History> findLatestByPatIds(Collection<Integer> patIds, Integer limit, Set<String> fields);
+
+    /**
+     * Finds the histories created within a range of dates, using the patId and creationDate index for a patient
+     * and the creationDate index otherwise.
+     *
+     * @param patId     The ID of the patient, or null for every patient.
+     * @param from      The first creation date, inclusive, or null for no lower bound.
+     * @param to        The last creation date, inclusive, or null for no upper bound.
+     * @param direction The order of the creation dates, ties are ordered by ID in the other direction.
+     * @param limit     The maximum number of histories to return.
+     * @param fields    The fields to read, or null for all of them. The ID is always read.
+     * @return The histories of the range, in the given order.
+     */
+    public List<History> findByCreationDateRange(Integer patId, LocalDate from, LocalDate to, Sort.Direction direction,
+                                                 int limit, Set<String> fields);
+
+    /**
+     * Counts the histories created within a range of dates, by day, week or month, without reading the notes.
+     *
+     * @param patId The ID of the patient, or null for every patient.
+     * @param from  The first creation date, inclusive, or null for no lower bound.
+     * @param to    The last creation date, inclusive, or null for no upper bound.
+     * @param unit  day, week (starting on Monday) or month.
+     * @return The number of histories of each period having at least one, oldest first.
+     */
+    public List<HistoryCountDTO> countByCreationDate(Integer patId, LocalDate from, LocalDate to, String unit);
+
+    /**
+     * Sets the trigger terms of many histories with a single unordered bulk write.
+     *
+     * @param triggersById The normalized trigger terms of each history, keyed by history ID.
+     */
+    public void bulkSetTriggers(Map<String, List<String>> triggersById);
+
+    /**
+     * Streams the notes stored in one form, to rewrite them in the other.
+     *
+     * @param compressed True for the histories whose notes are stored compressed, false for the uncompressed ones.
+     * @return The histories with only their ID and notes, the stream must be closed.
+     */
+    public Stream<History> streamNotesStored(boolean compressed);
+
+    /**
+     * Picks the notes of random histories with $sample, to train a compression dictionary.
+     *
+     * @param size The number of histories to pick.
+     * @return The picked histories with only their ID and notes.
+     */
+    public List<History> sampleNotes(int size);
+
+    /**
+     * Sets the notes of many histories with a single unordered bulk write, compressed when note compression is enabled.
+     * The version and the modification date are left unchanged, the notes read are the same. Each write only applies
+     * while the notes are still stored as they were read, so that an update made since then is not reverted.
+     *
+     * @param histories The histories read by streamNotesStored, with their notes as stored.
+     * @return The number of rewritten and skipped histories, and the number of bytes of the notes as written.
+     */
+    public NoteMigrationResultDTO bulkSetNotes(List<History> histories);
+}
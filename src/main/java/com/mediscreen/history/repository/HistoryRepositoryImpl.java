@@ -0,0 +1,416 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.config.HistoryReadRouting;
+import com.mediscreen.history.config.NoteCompression;
+import com.mediscreen.history.dto.HistoryCountDTO;
+import com.mediscreen.history.dto.NoteMigrationResultDTO;
+import com.mediscreen.history.model.History;
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.ClientSession;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.SelectionOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of the HistoryRepository operations that cannot be derived from method names.
+ */
+public class HistoryRepositoryImpl implements HistoryRepositoryCustom {
+
+    private static final String TEXT_LANGUAGE = "french";
+
+    private static final String LATEST_IDS = "ids";
+
+    private static final Sort PATIENT_NEWEST_FIRST = Sort.by(Sort.Direction.ASC, "patId")
+            .and(Sort.by(Sort.Direction.DESC, "creationDate"))
+            .and(Sort.by(Sort.Direction.ASC, "id"));
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private HistoryReadRouting readRouting;
+
+    @Autowired
+    private NoteCompression noteCompression;
+
+    @Value("${history.mongodb.sharding.enabled:false}")
+    private boolean shardingEnabled;
+
+    @Override
+    public Map<Integer, String> bulkInsert(List<History> histories) {
+        if (histories.isEmpty()) {
+            return Map.of();
+        }
+
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, History.class);
+        operations.insert(histories);
+        return execute(operations);
+    }
+
+    @Override
+    public Map<Integer, String> bulkReplace(List<History> histories) {
+        if (histories.isEmpty()) {
+            return Map.of();
+        }
+
+        if (!shardingEnabled) {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, History.class);
+            histories.forEach(history -> operations.replaceOne(Query.query(Criteria.where("id").is(history.getId())),
+                    history, FindAndReplaceOptions.options().upsert()));
+            return execute(operations);
+        }
+
+        // The shard key of a stored history cannot change in place: the histories moving to another patient are
+        // moved one by one, the others are replaced by an upsert carrying the whole shard key, the hashed patId
+        Map<String, History> stored = new HashMap<>();
+        Query storedQuery = Query.query(Criteria.where("id").in(histories.stream().map(History::getId).toList()));
+        storedQuery.fields().include("patId");
+        mongoTemplate.find(storedQuery, History.class).forEach(history -> stored.put(history.getId(), history));
+
+        Map<Integer, String> errors = new HashMap<>();
+        List<Integer> replaced = new ArrayList<>();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, History.class);
+        for (int i = 0; i < histories.size(); i++) {
+            History history = histories.get(i);
+            History previous = stored.get(history.getId());
+            if (previous != null && !Objects.equals(previous.getPatId(), history.getPatId())) {
+                try {
+                    if (!move(Criteria.where("id").is(previous.getId()).and("patId").is(previous.getPatId()), history)) {
+                        errors.put(i, "History deleted or moved while it was imported");
+                    }
+                } catch (RuntimeException e) {
+                    errors.put(i, e.getMessage());
+                }
+                continue;
+            }
+            replaced.add(i);
+            operations.replaceOne(Query.query(Criteria.where("id").is(history.getId()).and("patId").is(history.getPatId())),
+                    history, FindAndReplaceOptions.options().upsert());
+        }
+        if (!replaced.isEmpty()) {
+            execute(operations).forEach((index, error) -> errors.put(replaced.get(index), error));
+        }
+        return errors;
+    }
+
+    /**
+     * Deletes a stored history and inserts its new version in a single transaction, for a change of its shard key.
+     *
+     * @param stored The criteria matching the stored history, with its shard key.
+     * @param moved  The new version of the history.
+     * @return true if the history is moved, false if no stored history matches anymore.
+     */
+    private boolean move(Criteria stored, History moved) {
+        try (ClientSession session = mongoTemplate.getMongoDatabaseFactory().getSession(ClientSessionOptions.builder().build())) {
+            return session.withTransaction(() -> {
+                MongoTemplate transaction = mongoTemplate.withSession(session);
+                if (transaction.remove(Query.query(stored), History.class).getDeletedCount() == 0) {
+                    return false;
+                }
+                transaction.insert(moved);
+                return true;
+            });
+        }
+    }
+
+    private static Map<Integer, String> execute(BulkOperations operations) {
+        try {
+            operations.execute();
+            return Map.of();
+        } catch (BulkOperationException e) {
+            return e.getErrors().stream()
+                    .collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getMessage));
+        }
+    }
+
+    @Override
+    public History updateFields(String id, History changes, Long expectedVersion, Instant expectedLastModified) {
+        Query query = Query.query(HistoryUpdates.byIdAndVersion(id, expectedVersion, expectedLastModified));
+        if (shardingEnabled && changes.getPatId() != null) {
+            History stored = mongoTemplate.findOne(query, History.class);
+            if (stored == null) {
+                return null;
+            }
+            if (!changes.getPatId().equals(stored.getPatId())) {
+                // A change of the shard key: only move the history still at the version read
+                long version = stored.getVersion() == null ? 0 : stored.getVersion();
+                Criteria read = HistoryUpdates.byIdAndVersion(id, version, stored.getLastModified())
+                        .and("patId").is(stored.getPatId());
+                return move(read, HistoryUpdates.moved(stored, changes)) ? stored : null;
+            }
+        }
+        Update update = HistoryUpdates.changedFields(changes, noteCompression);
+
+        if (update.getUpdateObject().isEmpty()) {
+            // Nothing to set, an empty $set is rejected by the server
+            return mongoTemplate.findOne(query, History.class);
+        }
+        return mongoTemplate.findAndModify(query, HistoryUpdates.versioned(update), History.class);
+    }
+
+    @Override
+    public History removeById(String id) {
+        return mongoTemplate.findAndRemove(Query.query(Criteria.where("id").is(id)), History.class);
+    }
+
+    @Override
+    public List<History> findByPatId(Integer patId) {
+        return findByPatIdWithFields(patId, null);
+    }
+
+    @Override
+    public List<History> findAll() {
+        return findAllWithFields(null);
+    }
+
+    @Override
+    public Stream<History> streamAllBy() {
+        return mongoTemplate.stream(readRouting.route(HistoryReadRouting.ALL, new Query()), History.class);
+    }
+
+    @Override
+    public History findByIdWithFields(String id, Set<String> fields) {
+        return mongoTemplate.findOne(withFields(Query.query(Criteria.where("id").is(id)), fields), History.class);
+    }
+
+    @Override
+    public List<History> findByPatIdWithFields(Integer patId, Set<String> fields) {
+        Query query = readRouting.route(HistoryReadRouting.PATIENT, Query.query(Criteria.where("patId").is(patId)));
+        return mongoTemplate.find(withFields(query, fields), History.class);
+    }
+
+    @Override
+    public List<History> findAllWithFields(Set<String> fields) {
+        return mongoTemplate.find(withFields(readRouting.route(HistoryReadRouting.ALL, new Query()), fields), History.class);
+    }
+
+    @Override
+    public List<History> findPageWithFields(String after, Pageable pageable, Set<String> fields) {
+        // Range bounds on the ID are not converted to ObjectIds like equalities are
+        Query query = after == null ? new Query() : Query.query(Criteria.where("id").gt(new ObjectId(after)));
+        query.with(Sort.by(Sort.Direction.ASC, "id")).limit(pageable.getPageSize());
+        return mongoTemplate.find(withFields(query, fields), History.class);
+    }
+
+    @Override
+    public long estimatedCount() {
+        return mongoTemplate.estimatedCount(History.class);
+    }
+
+    @Override
+    public List<String> sampleIds(int size) {
+        // $sample first reads random documents from a random cursor instead of sorting the whole collection
+        Aggregation aggregation = Aggregation.newAggregation(Aggregation.sample(size), Aggregation.project("id"));
+        return mongoTemplate.aggregate(aggregation, History.class, History.class).getMappedResults().stream()
+                .map(History::getId)
+                .distinct()
+                .sorted()
+                .toList();
+    }
+
+    @Override
+    public Stream<History> streamByIdRange(String after, String to, Set<String> fields) {
+        Criteria range;
+        if (after == null && to == null) {
+            range = new Criteria();
+        } else if (after == null) {
+            // IDs that are not ObjectIds sort before them and are not matched by ObjectId bounds, the first range holds them
+            range = new Criteria().orOperator(Criteria.where("id").lte(new ObjectId(to)),
+                    Criteria.where("id").not().type(JsonSchemaObject.Type.OBJECT_ID));
+        } else {
+            range = Criteria.where("id").gt(new ObjectId(after));
+            if (to != null) {
+                range.lte(new ObjectId(to));
+            }
+        }
+        Query query = Query.query(range).with(Sort.by(Sort.Direction.ASC, "id"));
+        return mongoTemplate.stream(withFields(readRouting.route(HistoryReadRouting.ALL, query), fields), History.class);
+    }
+
+    private static Query withFields(Query query, Set<String> fields) {
+        if (fields != null) {
+            // The version is always read to compute the ETag of the response
+            query.fields().include(withCompressedNotes(fields).toArray(String[]::new)).include("version", "lastModified");
+        }
+        return query;
+    }
+
+    private static Set<String> withCompressedNotes(Set<String> fields) {
+        if (!fields.contains("notes")) {
+            return fields;
+        }
+        Set<String> read = new LinkedHashSet<>(fields);
+        read.add("compressedNotes");
+        return read;
+    }
+
+    @Override
+    public List<History> searchNotes(String text, Integer patId, Pageable pageable) {
+        Query query = TextQuery.queryText(TextCriteria.forLanguage(TEXT_LANGUAGE).matching(text))
+                .sortByScore()
+                .with(pageable);
+        if (patId != null) {
+            query.addCriteria(Criteria.where("patId").is(patId));
+        }
+        return mongoTemplate.find(query, History.class);
+    }
+
+    @Override
+    public List<History> findLatestByPatIds(Collection<Integer> patIds, Integer limit, Set<String> fields) {
+        Criteria patients = Criteria.where("patId").in(patIds);
+        Set<String> read = fields == null ? null : new LinkedHashSet<>(fields);
+        if (read != null) {
+            // Needed to group and order the histories, _id is always kept
+            read.addAll(List.of("patId", "creationDate"));
+            read.remove("id");
+            read = withCompressedNotes(read);
+        }
+        if (limit == null) {
+            return mongoTemplate.find(withFields(Query.query(patients).with(PATIENT_NEWEST_FIRST), read), History.class);
+        }
+
+        // Pick the IDs of the latest histories of each patient with $topN, so that the group holds at most limit IDs
+        // per patient, from the (patId, creationDate, _id) index alone, then read only these histories
+        Aggregation latest = Aggregation.newAggregation(
+                Aggregation.match(patients),
+                Aggregation.project("patId", "creationDate"),
+                Aggregation.group("patId").and(LATEST_IDS, SelectionOperators.Top.top(limit)
+                        .sortBy(Sort.by(Sort.Direction.DESC, "creationDate").and(Sort.by(Sort.Direction.ASC, "_id")))
+                        .output("_id")));
+        List<Object> ids = new ArrayList<>();
+        mongoTemplate.aggregate(latest, History.class, Document.class).getMappedResults()
+                .forEach(patient -> ids.addAll(patient.getList(LATEST_IDS, Object.class)));
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return mongoTemplate.find(withFields(Query.query(Criteria.where("id").in(ids)).with(PATIENT_NEWEST_FIRST), read), History.class);
+    }
+
+    @Override
+    public List<History> findByCreationDateRange(Integer patId, LocalDate from, LocalDate to, Sort.Direction direction,
+                                                 int limit, Set<String> fields) {
+        // Ties are ordered by ID in the other direction, so that both orders walk the indexes forward or backward
+        Query query = Query.query(creationDateRange(patId, from, to))
+                .with(Sort.by(direction, "creationDate").and(Sort.by(direction.isAscending() ? Sort.Direction.DESC : Sort.Direction.ASC, "id")))
+                .limit(limit);
+        return mongoTemplate.find(withFields(query, fields), History.class);
+    }
+
+    @Override
+    public List<HistoryCountDTO> countByCreationDate(Integer patId, LocalDate from, LocalDate to, String unit) {
+        // Creation dates are stored as the start of the day in the default time zone, truncate them in the same zone
+        DateOperators.DateTrunc period = DateOperators.dateOf("creationDate")
+                .withTimezone(DateOperators.Timezone.valueOf(ZoneId.systemDefault().getId()))
+                .truncate(unit);
+        if ("week".equals(unit)) {
+            period = period.startOfWeek(DayOfWeek.MONDAY);
+        }
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(creationDateRange(patId, from, to)),
+                Aggregation.project().and(period).as("period"),
+                Aggregation.group("period").count().as("count"),
+                Aggregation.project("count").and("period").previousOperation(),
+                Aggregation.sort(Sort.Direction.ASC, "period"));
+        return mongoTemplate.aggregate(aggregation, History.class, HistoryCountDTO.class).getMappedResults();
+    }
+
+    private static Criteria creationDateRange(Integer patId, LocalDate from, LocalDate to) {
+        Criteria criteria = patId == null ? null : Criteria.where("patId").is(patId);
+        if (from != null || to != null) {
+            Criteria creationDate = criteria == null ? Criteria.where("creationDate") : criteria.and("creationDate");
+            if (from != null) {
+                creationDate.gte(from);
+            }
+            if (to != null) {
+                creationDate.lte(to);
+            }
+            criteria = criteria == null ? creationDate : criteria;
+        }
+        return criteria == null ? new Criteria() : criteria;
+    }
+
+    @Override
+    public void bulkSetTriggers(Map<String, List<String>> triggersById) {
+        if (triggersById.isEmpty()) {
+            return;
+        }
+
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, History.class);
+        triggersById.forEach((id, triggers) ->
+                operations.updateOne(Query.query(Criteria.where("id").is(id)), Update.update("triggers", triggers)));
+        operations.execute();
+    }
+
+    @Override
+    public Stream<History> streamNotesStored(boolean compressed) {
+        Query query = Query.query(Criteria.where(compressed ? "compressedNotes" : "notes").exists(true));
+        query.fields().include("notes", "compressedNotes");
+        return mongoTemplate.stream(query, History.class);
+    }
+
+    @Override
+    public List<History> sampleNotes(int size) {
+        Aggregation aggregation = Aggregation.newAggregation(Aggregation.sample(size),
+                Aggregation.project("notes", "compressedNotes"));
+        return mongoTemplate.aggregate(aggregation, History.class, History.class).getMappedResults();
+    }
+
+    @Override
+    public NoteMigrationResultDTO bulkSetNotes(List<History> histories) {
+        NoteMigrationResultDTO result = new NoteMigrationResultDTO();
+        if (histories.isEmpty()) {
+            return result;
+        }
+
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, History.class);
+        for (History history : histories) {
+            // Only rewrite the notes still stored as they were read, a history updated since then is skipped
+            Criteria stored = Criteria.where("id").is(history.getId());
+            if (history.getCompressedNotes() != null) {
+                stored.and("compressedNotes").is(history.getCompressedNotes());
+            } else {
+                stored.and("notes").is(history.getNotes());
+            }
+            Update update = new Update();
+            result.setStoredBytes(result.getStoredBytes() + noteCompression.setNotes(update, history.getNotes()));
+            operations.updateOne(Query.query(stored), update);
+        }
+        int matched = operations.execute().getMatchedCount();
+        result.setHistories(matched);
+        result.setSkipped(histories.size() - matched);
+        return result;
+    }
+}
@@ -0,0 +1,102 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.config.NoteCompression;
+import com.mediscreen.history.model.History;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+
+/**
+ * Builds the partial updates shared by the blocking and the reactive history repositories.
+ */
+final class HistoryUpdates {
+
+    private HistoryUpdates() {
+    }
+
+    /**
+     * Builds a $set of the non null fields of the changes, the ID is never set.
+     *
+     * @param changes         The fields to set.
+     * @param noteCompression Sets the notes compressed or not.
+     * @return The update, empty when every field is null.
+     */
+    static Update changedFields(History changes, NoteCompression noteCompression) {
+        Update update = new Update();
+        setIfPresent(update, "patId", changes.getPatId());
+        setIfPresent(update, "patient", changes.getPatient());
+        setIfPresent(update, "creationDate", changes.getCreationDate());
+        if (changes.getNotes() != null) {
+            noteCompression.setNotes(update, changes.getNotes());
+        }
+        setIfPresent(update, "triggers", changes.getTriggers());
+        return update;
+    }
+
+    /**
+     * Adds the version increment and the modification date to a non empty update.
+     *
+     * @param update The update of the changed fields.
+     * @return The same update.
+     */
+    static Update versioned(Update update) {
+        return update.inc("version", 1).set("lastModified", Instant.now());
+    }
+
+    /**
+     * Builds the next version of a history moved to another patient, to be inserted in place of the stored one.
+     *
+     * @param stored  The history as stored.
+     * @param changes The fields to set, the ID and the null fields are ignored.
+     * @return The stored history with the changes set, its version incremented and its modification date set.
+     */
+    static History moved(History stored, History changes) {
+        History moved = new History();
+        moved.setId(stored.getId());
+        moved.setPatId(changes.getPatId());
+        moved.setPatient(changes.getPatient() != null ? changes.getPatient() : stored.getPatient());
+        moved.setCreationDate(changes.getCreationDate() != null ? changes.getCreationDate() : stored.getCreationDate());
+        if (changes.getNotes() != null) {
+            moved.setNotes(changes.getNotes());
+        } else if (stored.getCompressedNotes() != null) {
+            // Moved as stored, without decompressing them
+            moved.setCompressedNotes(stored.getCompressedNotes());
+        } else {
+            moved.setNotes(stored.getNotes());
+        }
+        moved.setTriggers(changes.getTriggers() != null ? changes.getTriggers() : stored.getTriggers());
+        moved.setVersion((stored.getVersion() == null ? 0 : stored.getVersion()) + 1);
+        moved.setLastModified(Instant.now());
+        return moved;
+    }
+
+    /**
+     * Builds the criteria selecting a history by its ID, and by its version and last write when they are expected.
+     *
+     * @param id                   The ID of the history.
+     * @param expectedVersion      The version the history must have, or null for any version.
+     * @param expectedLastModified The date of the last write the history must have, or null for any date.
+     * @return The criteria.
+     */
+    static Criteria byIdAndVersion(String id, Long expectedVersion, Instant expectedLastModified) {
+        Criteria criteria = Criteria.where("id").is(id);
+        if (expectedVersion == null) {
+            return criteria;
+        }
+        if (expectedLastModified != null) {
+            criteria.and("lastModified").is(expectedLastModified);
+        }
+        if (expectedVersion == 0) {
+            // The histories written before versioning have no version field
+            return criteria.orOperator(Criteria.where("version").is(0L), Criteria.where("version").exists(false));
+        }
+        return criteria.and("version").is(expectedVersion);
+    }
+
+    private static void setIfPresent(Update update, String field, Object value) {
+        if (value != null) {
+            update.set(field, value);
+        }
+    }
+}
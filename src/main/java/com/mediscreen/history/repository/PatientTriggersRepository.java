@@ -0,0 +1,9 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.model.PatientTriggers;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PatientTriggersRepository extends MongoRepository<PatientTriggers, Integer>, PatientTriggersRepositoryCustom {
+}
@@ -0,0 +1,19 @@
+package com.mediscreen.history.repository;
+
+import java.util.Map;
+
+public interface PatientTriggersRepositoryCustom {
+
+    /**
+     * Adds the deltas to the note counts of the terms of the patient, creating the patient document when missing.
+     *
+     * @param patId  The ID of the patient.
+     * @param deltas The number of notes containing each normalized term added to the patient, negative when removed.
+     */
+    public void increment(Integer patId, Map<String, Integer> deltas);
+
+    /**
+     * Rebuilds every patient document from the triggers stored on the histories.
+     */
+    public void rebuildFromHistories();
+}
@@ -0,0 +1,48 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.PatientTriggers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.bson.Document;
+
+import java.util.Map;
+
+/**
+ * Implementation of the PatientTriggersRepository operations that cannot be derived from method names.
+ */
+public class PatientTriggersRepositoryImpl implements PatientTriggersRepositoryCustom {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public void increment(Integer patId, Map<String, Integer> deltas) {
+        if (patId == null || deltas.isEmpty()) {
+            return;
+        }
+
+        Update update = new Update();
+        deltas.forEach((term, delta) -> update.inc("counts." + term, delta));
+        mongoTemplate.upsert(Query.query(Criteria.where("patId").is(patId)), update, PatientTriggers.class);
+    }
+
+    @Override
+    public void rebuildFromHistories() {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("triggers.0").exists(true)),
+                Aggregation.unwind("triggers"),
+                Aggregation.group("patId", "triggers").count().as("notes"),
+                Aggregation.group("patId").push(new Document("k", "$_id.triggers").append("v", "$notes")).as("counts"),
+                Aggregation.project().and(ArrayOperators.arrayOf("counts").toObject()).as("counts"),
+                Aggregation.out(mongoTemplate.getCollectionName(PatientTriggers.class)));
+
+        mongoTemplate.aggregate(aggregation.withOptions(Aggregation.newAggregationOptions().skipOutput().build()),
+                History.class, Document.class);
+    }
+}
@@ -0,0 +1,12 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.model.History;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+@Repository
+public interface ReactiveHistoryRepository extends ReactiveMongoRepository<History, String>, ReactiveHistoryRepositoryCustom {
+
+    public Flux<History> findByPatId(Integer id);
+}
@@ -0,0 +1,29 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.model.History;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+
+public interface ReactiveHistoryRepositoryCustom {
+
+    /**
+     * Sets the non null fields of the changes on the history with the given ID, in a single atomic operation,
+     * and increments its version when a field is set.
+     *
+     * @param id                   The ID of the history to update.
+     * @param changes              The fields to set, the ID and the null fields are ignored.
+     * @param expectedVersion      The version the history must have to be updated, or null for any version.
+     * @param expectedLastModified The date of its last write, checked with the version, or null for any date.
+     * @return The history as it was before the update, empty if there is no history with this ID and version.
+     */
+    public Mono<History> updateFields(String id, History changes, Long expectedVersion, Instant expectedLastModified);
+
+    /**
+     * Removes the history with the given ID in a single atomic operation.
+     *
+     * @param id The ID of the history to remove.
+     * @return The removed history, empty if there is no history with this ID.
+     */
+    public Mono<History> removeById(String id);
+}
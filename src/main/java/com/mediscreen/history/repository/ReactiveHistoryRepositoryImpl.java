@@ -0,0 +1,41 @@
+package com.mediscreen.history.repository;
+
+import com.mediscreen.history.config.NoteCompression;
+import com.mediscreen.history.model.History;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+
+/**
+ * Implementation of the ReactiveHistoryRepository operations that cannot be derived from method names.
+ */
+public class ReactiveHistoryRepositoryImpl implements ReactiveHistoryRepositoryCustom {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    private NoteCompression noteCompression;
+
+    @Override
+    public Mono<History> updateFields(String id, History changes, Long expectedVersion, Instant expectedLastModified) {
+        Query query = Query.query(HistoryUpdates.byIdAndVersion(id, expectedVersion, expectedLastModified));
+        Update update = HistoryUpdates.changedFields(changes, noteCompression);
+
+        if (update.getUpdateObject().isEmpty()) {
+            // Nothing to set, an empty $set is rejected by the server
+            return reactiveMongoTemplate.findOne(query, History.class);
+        }
+        return reactiveMongoTemplate.findAndModify(query, HistoryUpdates.versioned(update), History.class);
+    }
+
+    @Override
+    public Mono<History> removeById(String id) {
+        return reactiveMongoTemplate.findAndRemove(Query.query(Criteria.where("id").is(id)), History.class);
+    }
+}
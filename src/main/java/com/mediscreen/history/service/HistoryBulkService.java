@@ -0,0 +1,137 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.dto.BulkItemResultDTO;
+import com.mediscreen.history.dto.BulkResultDTO;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.MapstructMapper;
+import com.mediscreen.history.repository.HistoryRepository;
+import org.bson.types.ObjectId;
+import org.mapstruct.factory.Mappers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service class for adding patient histories in batches.
+ */
+@Service
+@Profile("!reactive")
+public class HistoryBulkService {
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryBulkService.class);
+
+    MapstructMapper mapper = Mappers.getMapper(MapstructMapper.class);
+    @Autowired
+    HistoryRepository historyRepository;
+
+    @Autowired
+    HistoryCache historyCache;
+
+    @Autowired
+    TriggerIndexService triggerIndexService;
+
+    @Value("${history.bulk.batch-size:1000}")
+    private int batchSize = 1000;
+
+    /**
+     * Adds the histories read from the iterator, writing them with one unordered bulk write per batch,
+     * so that at most one batch is held in memory.
+     * Histories without an ID get a generated one, histories without a creation date are dated today.
+     * Reading stops at the first history that cannot be parsed, the histories read before it are still added.
+     *
+     * @param historyDTOs The histories to add, typically parsed lazily from the request body.
+     * @return The number of added and failed histories, with the result of each history in input order.
+     */
+    public BulkResultDTO addHistories(Iterator<HistoryDTO> historyDTOs) {
+        BulkResultDTO result = new BulkResultDTO();
+        List<History> batch = new ArrayList<>(batchSize);
+        List<Integer> batchIndexes = new ArrayList<>(batchSize);
+        int index = 0;
+
+        while (true) {
+            HistoryDTO historyDTO;
+            try {
+                if (!historyDTOs.hasNext()) {
+                    break;
+                }
+                historyDTO = historyDTOs.next();
+            } catch (RuntimeException e) {
+                logger.warn("Bulk input unreadable at index {}: {}", index, e.getMessage());
+                addItem(result, new BulkItemResultDTO(index, null, false, "Unreadable history: " + e.getMessage()));
+                break;
+            }
+
+            if (historyDTO.getPatId() == null) {
+                addItem(result, new BulkItemResultDTO(index, historyDTO.getId(), false, "Missing patId"));
+            } else {
+                batch.add(toEntity(historyDTO));
+                batchIndexes.add(index);
+                if (batch.size() >= batchSize) {
+                    flush(batch, batchIndexes, result);
+                }
+            }
+            index++;
+        }
+        flush(batch, batchIndexes, result);
+
+        result.getItems().sort(Comparator.comparingInt(BulkItemResultDTO::getIndex));
+        logger.info("Bulk added {} patient histories, {} failed", result.getInserted(), result.getFailed());
+        return result;
+    }
+
+    private History toEntity(HistoryDTO historyDTO) {
+        History history = mapper.historyDTOtoEntity(historyDTO);
+        if (history.getId() == null) {
+            history.setId(new ObjectId().toHexString());
+        }
+        if (history.getCreationDate() == null) {
+            history.setCreationDate(LocalDate.now());
+        }
+        history.setVersion(0L);
+        history.setLastModified(Instant.now());
+        triggerIndexService.index(history);
+        return history;
+    }
+
+    private void flush(List<History> batch, List<Integer> batchIndexes, BulkResultDTO result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, String> errors = historyRepository.bulkInsert(List.copyOf(batch));
+        List<History> inserted = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            History history = batch.get(i);
+            String error = errors.get(i);
+            addItem(result, new BulkItemResultDTO(batchIndexes.get(i), history.getId(), error == null, error));
+            if (error == null) {
+                inserted.add(history);
+                historyCache.invalidatePatient(history.getPatId());
+            }
+        }
+        triggerIndexService.onInsert(inserted);
+        batch.clear();
+        batchIndexes.clear();
+    }
+
+    private static void addItem(BulkResultDTO result, BulkItemResultDTO item) {
+        result.getItems().add(item);
+        if (item.isSuccess()) {
+            result.setInserted(result.getInserted() + 1);
+        } else {
+            result.setFailed(result.getFailed() + 1);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.mediscreen.history.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mediscreen.history.dto.CacheStatsDTO;
+import com.mediscreen.history.dto.HistoryDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-process cache of the mapped patient histories, bounded by an estimate of their size in bytes
+ * and evicted with Caffeine's W-TinyLFU policy.
+ * The patient lists take most of the budget, single histories requested by ID share the rest.
+ */
+@Component
+public class HistoryCache {
+
+    private static final int PATIENT_SHARE_PERCENT = 80;
+
+    private final boolean enabled;
+
+    private final Cache<Integer, List<HistoryDTO>> patientHistories;
+
+    private final Cache<String, HistoryDTO> histories;
+
+    public HistoryCache(@Value("${history.cache.enabled:true}") boolean enabled,
+                        @Value("${history.cache.max-bytes:67108864}") long maxBytes) {
+        this.enabled = enabled;
+        long patientBytes = maxBytes * PATIENT_SHARE_PERCENT / 100;
+        this.patientHistories = Caffeine.newBuilder()
+                .maximumWeight(patientBytes)
+                .weigher((Integer patId, List<HistoryDTO> list) -> weigh(list))
+                .recordStats()
+                .build();
+        this.histories = Caffeine.newBuilder()
+                .maximumWeight(maxBytes - patientBytes)
+                .weigher((String id, HistoryDTO historyDTO) -> weigh(historyDTO))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached histories of a patient, loading and caching them on a miss.
+     *
+     * @param patId  The ID of the patient.
+     * @param loader Loads the histories of the patient on a miss.
+     * @return An unmodifiable list of the patient's histories.
+     */
+    public List<HistoryDTO> getPatientHistories(Integer patId, Supplier<List<HistoryDTO>> loader) {
+        if (!enabled || patId == null) {
+            return loader.get();
+        }
+        return patientHistories.get(patId, key -> List.copyOf(loader.get()));
+    }
+
+    /**
+     * Returns the cached history with the given ID, loading and caching it on a miss.
+     * Nothing is cached when the loader throws.
+     *
+     * @param id     The ID of the history.
+     * @param loader Loads the history on a miss.
+     * @return The history.
+     */
+    public HistoryDTO getHistory(String id, Function<String, HistoryDTO> loader) {
+        if (!enabled || id == null) {
+            return loader.apply(id);
+        }
+        return histories.get(id, loader);
+    }
+
+    /**
+     * Removes the cached histories of the given patient.
+     *
+     * @param patId The ID of the patient, ignored when null.
+     */
+    public void invalidatePatient(Integer patId) {
+        if (patId != null) {
+            patientHistories.invalidate(patId);
+        }
+    }
+
+    /**
+     * Removes the cached history with the given ID.
+     *
+     * @param id The ID of the history, ignored when null.
+     */
+    public void invalidateHistory(String id) {
+        if (id != null) {
+            histories.invalidate(id);
+        }
+    }
+
+    /**
+     * Removes every cached history.
+     */
+    public void invalidateAll() {
+        patientHistories.invalidateAll();
+        histories.invalidateAll();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters of both caches combined.
+     *
+     * @return The cache statistics.
+     */
+    public CacheStatsDTO getStats() {
+        CacheStats stats = patientHistories.stats().plus(histories.stats());
+        return new CacheStatsDTO(stats.hitCount(), stats.missCount(), stats.evictionCount(),
+                patientHistories.estimatedSize() + histories.estimatedSize(),
+                weightedSize(patientHistories) + weightedSize(histories));
+    }
+
+    private static long weightedSize(Cache<?, ?> cache) {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    private static int weigh(List<HistoryDTO> list) {
+        int weight = 64;
+        for (HistoryDTO historyDTO : list) {
+            weight += weigh(historyDTO);
+        }
+        return weight;
+    }
+
+    /**
+     * Estimates the heap size of a history: object headers and fields, plus two bytes per character.
+     */
+    private static int weigh(HistoryDTO historyDTO) {
+        return 96 + 2 * (length(historyDTO.getId()) + length(historyDTO.getPatient()) + length(historyDTO.getNotes()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
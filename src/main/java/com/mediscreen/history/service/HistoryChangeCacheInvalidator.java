@@ -0,0 +1,105 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.ChangeFeedBusyException;
+import com.mediscreen.history.dto.HistoryChangeDTO;
+import com.mongodb.MongoCommandException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evicts the histories changed by any instance of the service from the history cache,
+ * so that the instances sharing a database do not serve stale histories.
+ * Resubscribes after the last change seen when the change stream fails.
+ */
+@Component
+@ConditionalOnProperty(name = "history.changes.cache-invalidation", havingValue = "true")
+@Profile("!reactive")
+public class HistoryChangeCacheInvalidator implements HistoryChangeListener {
+
+    static final long RETRY_SECONDS = 5;
+
+    /**
+     * ChangeStreamFatalError and ChangeStreamHistoryLost, the resume token cannot be used anymore.
+     */
+    private static final Set<Integer> LOST_RESUME_CODES = Set.of(280, 286);
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryChangeCacheInvalidator.class);
+
+    @Autowired
+    private HistoryChangeFeed historyChangeFeed;
+
+    @Autowired
+    private HistoryCache historyCache;
+
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "history-cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile String lastResumeToken;
+
+    private volatile HistoryChangeFeed.Subscription subscription;
+
+    /**
+     * Subscribes to the history changes.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribe() {
+        try {
+            subscription = historyChangeFeed.subscribe(lastResumeToken, this);
+        } catch (ChangeFeedBusyException e) {
+            retry(e);
+        }
+    }
+
+    @Override
+    public void onChange(HistoryChangeDTO change) {
+        if (change.getPatId() == null || (Boolean.TRUE.equals(change.getPatIdUpdated()) && change.getPreviousPatId() == null)) {
+            // Without the pre-image, the patient of a deleted history, or the one a history moved from, is unknown
+            historyCache.invalidateAll();
+        } else {
+            historyCache.invalidateHistory(change.getId());
+            historyCache.invalidatePatient(change.getPatId());
+            historyCache.invalidatePatient(change.getPreviousPatId());
+        }
+        lastResumeToken = change.getResumeToken();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        if (error instanceof MongoCommandException commandException && LOST_RESUME_CODES.contains(commandException.getErrorCode())) {
+            lastResumeToken = null;
+        }
+        retry(error);
+    }
+
+    private void retry(Throwable error) {
+        logger.warn("History changes lost, the history cache is cleared and resubscribes in {}s: {}", RETRY_SECONDS, error.getMessage());
+        // Changes may be missed until the subscription is back
+        historyCache.invalidateAll();
+        if (!retries.isShutdown()) {
+            retries.schedule(this::subscribe, RETRY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retries.shutdownNow();
+        if (subscription != null) {
+            subscription.close();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.ChangeFeedBusyException;
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.dto.HistoryChangeDTO;
+import com.mediscreen.history.model.History;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Feed of the inserts, updates and deletes of the histories, read from a MongoDB change stream.
+ * Every subscription has its own change stream, so that it can resume after the last change its client received,
+ * and runs on its own thread. Only the IDs and patients of the changed histories are read, never their notes.
+ * Change streams need a replica set or a sharded cluster.
+ */
+@Service
+@Profile("!reactive")
+public class HistoryChangeFeed {
+
+    private static final List<String> OPERATIONS = List.of("insert", "update", "replace", "delete");
+
+    private static final Pattern RESUME_TOKEN = Pattern.compile("[0-9A-Fa-f]+");
+
+    private static final long AWAIT_MILLIS = 1000;
+
+    private static final long IDLE_MILLIS = 15000;
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryChangeFeed.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final boolean preImages;
+
+    private final Semaphore subscribers;
+
+    private final ExecutorService executor;
+
+    public HistoryChangeFeed(@Value("${history.changes.pre-images:false}") boolean preImages,
+                             @Value("${history.changes.max-subscribers:16}") int maxSubscribers) {
+        this.preImages = preImages;
+        this.subscribers = new Semaphore(maxSubscribers);
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "history-changes-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Turns on the pre-images of the histories collection, so that deletes and patient changes tell the previous patient.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void enablePreImages() {
+        if (!preImages) {
+            return;
+        }
+        try {
+            mongoTemplate.executeCommand(new Document("collMod", mongoTemplate.getCollectionName(History.class))
+                    .append("changeStreamPreAndPostImages", new Document("enabled", true)));
+        } catch (RuntimeException e) {
+            logger.warn("Cannot enable the pre-images of the histories, changes will only tell the current patient", e);
+        }
+    }
+
+    /**
+     * Starts sending the changes to the listener on a background thread.
+     *
+     * @param resumeAfter The resume token of the last change received, or null to receive the changes from now on.
+     * @param listener    The listener receiving the changes.
+     * @return The subscription, to close when the client goes away.
+     * @throws InvalidCursorException  if the resume token is malformed.
+     * @throws ChangeFeedBusyException if history.changes.max-subscribers subscriptions are already open.
+     */
+    public Subscription subscribe(String resumeAfter, HistoryChangeListener listener) {
+        if (resumeAfter != null && !RESUME_TOKEN.matcher(resumeAfter).matches()) {
+            throw new InvalidCursorException("Invalid resume token: " + resumeAfter);
+        }
+        if (!subscribers.tryAcquire()) {
+            throw new ChangeFeedBusyException("Too many subscriptions to the history changes, retry later");
+        }
+
+        Subscription subscription = new Subscription();
+        try {
+            executor.execute(() -> {
+                try {
+                    watch(resumeAfter, listener, subscription);
+                } finally {
+                    subscribers.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            subscribers.release();
+            throw e;
+        }
+        return subscription;
+    }
+
+    private void watch(String resumeAfter, HistoryChangeListener listener, Subscription subscription) {
+        ChangeStreamIterable<Document> changeStream = mongoTemplate.getCollection(mongoTemplate.getCollectionName(History.class))
+                .watch(pipeline())
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (preImages) {
+            changeStream = changeStream.fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE);
+        }
+        if (resumeAfter != null) {
+            changeStream = changeStream.resumeAfter(new BsonDocument("_data", new BsonString(resumeAfter)));
+        }
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changeStream.cursor()) {
+            long lastSent = System.currentTimeMillis();
+            while (!subscription.isClosed()) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null) {
+                    listener.onChange(toChange(change));
+                    lastSent = System.currentTimeMillis();
+                } else if (System.currentTimeMillis() - lastSent >= IDLE_MILLIS) {
+                    listener.onIdle();
+                    lastSent = System.currentTimeMillis();
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("History changes subscriber gone: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            if (!subscription.isClosed()) {
+                listener.onError(e);
+            }
+        }
+    }
+
+    /**
+     * Keeps the data changes only, with the patient of the history instead of the whole document.
+     */
+    private static List<Bson> pipeline() {
+        return List.of(
+                Aggregates.match(Filters.in("operationType", OPERATIONS)),
+                Aggregates.project(Projections.include("operationType", "documentKey", "clusterTime",
+                        "fullDocument.patId", "fullDocumentBeforeChange.patId", "updateDescription.updatedFields.patId")));
+    }
+
+    static HistoryChangeDTO toChange(ChangeStreamDocument<Document> change) {
+        Integer patId = patIdOf(change.getFullDocument());
+        Integer previousPatId = patIdOf(change.getFullDocumentBeforeChange());
+        BsonValue updated = change.getUpdateDescription() == null || change.getUpdateDescription().getUpdatedFields() == null
+                ? null : change.getUpdateDescription().getUpdatedFields().get("patId");
+        if (patId == null && updated != null && updated.isNumber()) {
+            patId = updated.asNumber().intValue();
+        }
+        if (patId == null) {
+            // A delete only knows the patient from the pre-image
+            patId = previousPatId;
+        }
+
+        return new HistoryChangeDTO(
+                change.getResumeToken().getString("_data").getValue(),
+                change.getOperationTypeString(),
+                idOf(change.getDocumentKey()),
+                patId,
+                Objects.equals(previousPatId, patId) ? null : previousPatId,
+                updated == null ? null : Boolean.TRUE,
+                change.getClusterTime() == null ? null : Instant.ofEpochSecond(change.getClusterTime().getTime()));
+    }
+
+    private static Integer patIdOf(Document document) {
+        return document == null ? null : document.getInteger("patId");
+    }
+
+    private static String idOf(BsonDocument documentKey) {
+        if (documentKey == null || !documentKey.containsKey("_id")) {
+            return null;
+        }
+        BsonValue id = documentKey.get("_id");
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.isString() ? id.asString().getValue() : id.toString();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * An open subscription to the history changes.
+     */
+    public static class Subscription {
+
+        private volatile boolean closed;
+
+        /**
+         * Stops the subscription, its change stream is closed within a second.
+         */
+        public void close() {
+            closed = true;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+}
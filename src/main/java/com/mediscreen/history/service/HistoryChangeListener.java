@@ -0,0 +1,32 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.dto.HistoryChangeDTO;
+
+import java.io.IOException;
+
+/**
+ * Receives the changes of a HistoryChangeFeed subscription, on the thread of the subscription.
+ * An IOException thrown by the listener ends the subscription quietly, as when a client disconnects.
+ */
+public interface HistoryChangeListener {
+
+    /**
+     * Receives a change of the histories collection.
+     *
+     * @param change The change.
+     */
+    void onChange(HistoryChangeDTO change) throws IOException;
+
+    /**
+     * Called when no change was received for a while, to keep the connection to the client alive.
+     */
+    default void onIdle() throws IOException {
+    }
+
+    /**
+     * Receives the error that ended the subscription.
+     *
+     * @param error The error, usually an invalid resume token or a lost database connection.
+     */
+    void onError(Throwable error);
+}
@@ -0,0 +1,144 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.HistoryVersionConflictException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryVersionDTO;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Computes the strong ETags and Last-Modified dates of the history reads from the history versions.
+ * A single history is tagged with its version and the millisecond of its last write, so that an If-Match header gives
+ * the version expected by an update. Versions start again at 0 when a history is imported or deleted and inserted again,
+ * the date tells these histories apart.
+ * A list of histories is tagged with a digest of the IDs, versions and dates it contains, without a Last-Modified date:
+ * removing a history from the list changes none of the remaining dates.
+ * Both get a suffix naming the selected fields when only some of them are returned.
+ */
+public final class HistoryETags {
+
+    private HistoryETags() {
+    }
+
+    /**
+     * Tags a single history.
+     *
+     * @param version      The version of the history, null for the histories written before versioning.
+     * @param lastModified The date of the last write, null when unknown.
+     * @param fields       The selected fields, or null for all of them.
+     * @return The ETag and Last-Modified date of the history.
+     */
+    public static HistoryVersionDTO ofHistory(Long version, Instant lastModified, Set<String> fields) {
+        return new HistoryVersionDTO(quote(tagOf(version, lastModified) + suffix(fields)), lastModified);
+    }
+
+    /**
+     * Tags a mapped history.
+     */
+    public static HistoryVersionDTO ofHistory(HistoryDTO historyDTO, Set<String> fields) {
+        return ofHistory(historyDTO.getVersion(), historyDTO.getLastModified(), fields);
+    }
+
+    /**
+     * Tags a list of histories, whatever their order.
+     *
+     * @param histories    The histories, only their ID, version and modification date are used.
+     * @param id           Gets the ID of a history.
+     * @param version      Gets the version of a history.
+     * @param lastModified Gets the date of the last write of a history.
+     * @param fields       The selected fields, or null for all of them.
+     * @return The ETag of the list, without modification date.
+     */
+    public static <T> HistoryVersionDTO ofHistories(List<T> histories, Function<T, String> id, Function<T, Long> version,
+                                                    Function<T, Instant> lastModified, Set<String> fields) {
+        StringBuilder content = new StringBuilder();
+        histories.stream()
+                .sorted(Comparator.comparing(id))
+                .forEach(history -> content.append(id.apply(history)).append(':')
+                        .append(tagOf(version.apply(history), lastModified.apply(history))).append('\n'));
+
+        String digest = DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8));
+        return new HistoryVersionDTO(quote(digest + suffix(fields)), null);
+    }
+
+    /**
+     * Tags a list of mapped histories.
+     */
+    public static HistoryVersionDTO ofHistories(List<HistoryDTO> histories, Set<String> fields) {
+        return ofHistories(histories, HistoryDTO::getId, HistoryDTO::getVersion, HistoryDTO::getLastModified, fields);
+    }
+
+    /**
+     * Reads the version expected by an If-Match header.
+     *
+     * @param ifMatch The If-Match header, absent or * to update any version.
+     * @return The expected version, or null for any version.
+     * @throws HistoryVersionConflictException if the header is not the ETag of a single history.
+     */
+    public static Long parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+
+        String etag = ifMatch.trim();
+        if (etag.length() < 2 || !etag.startsWith("\"") || !etag.endsWith("\"")) {
+            // Weak and malformed ETags never match
+            throw new HistoryVersionConflictException("If-Match does not hold the ETag of a history: " + ifMatch);
+        }
+        String value = etag.substring(1, etag.length() - 1);
+        int end = value.indexOf('.');
+        return parseTag(end < 0 ? value : value.substring(0, end), ifMatch);
+    }
+
+    /**
+     * Reads the date of the last write expected by an If-Match header.
+     *
+     * @param ifMatch The If-Match header, absent or * to update any version.
+     * @return The expected date, or null for any date, also for the ETags of the histories without date.
+     * @throws HistoryVersionConflictException if the header is not the ETag of a single history.
+     */
+    public static Instant parseIfMatchLastModified(String ifMatch) {
+        Long version = parseIfMatch(ifMatch);
+        if (version == null) {
+            return null;
+        }
+        String value = ifMatch.trim();
+        int dot = value.indexOf('.');
+        String tag = value.substring(1, dot < 0 ? value.length() - 1 : dot);
+        int dash = tag.indexOf('-');
+        return dash < 0 ? null : Instant.ofEpochMilli(Long.parseLong(tag.substring(dash + 1)));
+    }
+
+    private static Long parseTag(String tag, String ifMatch) {
+        int dash = tag.indexOf('-');
+        try {
+            if (dash >= 0) {
+                Long.parseLong(tag.substring(dash + 1));
+            }
+            return Long.parseLong(dash < 0 ? tag : tag.substring(0, dash));
+        } catch (NumberFormatException e) {
+            throw new HistoryVersionConflictException("If-Match does not hold the ETag of a history: " + ifMatch);
+        }
+    }
+
+    private static String tagOf(Long version, Instant lastModified) {
+        long number = version == null ? 0 : version;
+        // Dates are stored to the millisecond, the tag of a history read back is the same as when it was written
+        return lastModified == null ? String.valueOf(number) : number + "-" + lastModified.toEpochMilli();
+    }
+
+    private static String suffix(Set<String> fields) {
+        return fields == null ? "" : "." + String.join(".", new TreeSet<>(fields));
+    }
+
+    private static String quote(String value) {
+        return "\"" + value + "\"";
+    }
+}
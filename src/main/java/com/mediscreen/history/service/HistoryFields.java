@@ -0,0 +1,89 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.InvalidQueryException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryFieldsDTO;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parses the fields= selector of the history read endpoints.
+ * The selected fields are the only ones read from the database, mapped and serialized, the ID is always returned.
+ * The other fields are left out of the JSON, see HistoryFieldsDTO.
+ */
+public final class HistoryFields {
+
+    public static final Set<String> NAMES = Set.of("id", "patId", "patient", "creationDate", "notes");
+
+    private HistoryFields() {
+    }
+
+    /**
+     * Validates the requested fields.
+     *
+     * @param fields The names of the HistoryDTO fields to return, null or empty for all of them.
+     * @return The selected fields including the ID, or null when every field is requested.
+     * @throws InvalidQueryException if a field is not a HistoryDTO field.
+     */
+    public static Set<String> parse(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+
+        Set<String> selected = new LinkedHashSet<>();
+        selected.add("id");
+        for (String field : fields) {
+            String name = field.trim();
+            if (!NAMES.contains(name)) {
+                throw new InvalidQueryException("Unknown history field: " + name + ", expected some of " + NAMES);
+            }
+            selected.add(name);
+        }
+        return selected.size() == NAMES.size() ? null : selected;
+    }
+
+    /**
+     * Keeps the selected fields of a history, leaving out those that were read for the query but not selected.
+     *
+     * @param historyDTO The history to trim.
+     * @param fields     The selected fields, or null to keep all of them.
+     * @return The same history when every field is selected, otherwise a HistoryFieldsDTO serialized without
+     * the fields that were not selected.
+     */
+    static HistoryDTO retain(HistoryDTO historyDTO, Set<String> fields) {
+        if (fields == null) {
+            return historyDTO;
+        }
+
+        HistoryDTO selected = new HistoryFieldsDTO();
+        selected.setId(historyDTO.getId());
+        if (fields.contains("patId")) {
+            selected.setPatId(historyDTO.getPatId());
+        }
+        if (fields.contains("patient")) {
+            selected.setPatient(historyDTO.getPatient());
+        }
+        if (fields.contains("creationDate")) {
+            selected.setCreationDate(historyDTO.getCreationDate());
+        }
+        if (fields.contains("notes")) {
+            selected.setNotes(historyDTO.getNotes());
+        }
+        selected.setVersion(historyDTO.getVersion());
+        selected.setLastModified(historyDTO.getLastModified());
+        return selected;
+    }
+
+    /**
+     * Keeps the selected fields of histories, see retain.
+     *
+     * @param histories The histories to trim.
+     * @param fields    The selected fields, or null to keep all of them.
+     * @return The same list when every field is selected, otherwise a new list of HistoryFieldsDTO.
+     */
+    static List<HistoryDTO> retain(List<HistoryDTO> histories, Set<String> fields) {
+        return fields == null ? histories : histories.stream().map(historyDTO -> retain(historyDTO, fields)).toList();
+    }
+}
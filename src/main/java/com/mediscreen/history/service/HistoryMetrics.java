@@ -0,0 +1,85 @@
+package com.mediscreen.history.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * History metrics that Spring Boot does not record on its own: the time spent mapping entities to DTOs,
+ * the number of documents returned by each query, the size of the responses and the requests shed by admission control.
+ * Endpoint, repository and MongoDB driver metrics come from the actuator auto-configuration.
+ */
+@Component
+public class HistoryMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public HistoryMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Runs and times the mapping step of a read.
+     *
+     * @param operation The name of the read, used as the operation tag.
+     * @param mapping   The mapping to run.
+     * @return The result of the mapping.
+     */
+    public <T> T mapping(String operation, Supplier<T> mapping) {
+        return Timer.builder("history.mapping")
+                .description("Time spent mapping histories to DTOs")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(mapping);
+    }
+
+    /**
+     * Records the number of documents returned by a query.
+     *
+     * @param operation The name of the read, used as the operation tag.
+     * @param count     The number of documents.
+     */
+    public void documents(String operation, int count) {
+        DistributionSummary.builder("history.documents")
+                .description("Documents returned by a history query")
+                .baseUnit("documents")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(count);
+    }
+
+    /**
+     * Records the size of a response body.
+     *
+     * @param uri   The URI template of the endpoint.
+     * @param bytes The number of bytes written.
+     */
+    public void responseSize(String uri, long bytes) {
+        DistributionSummary.builder("history.response.size")
+                .description("Size of the history response bodies")
+                .baseUnit("bytes")
+                .tag("uri", uri)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    /**
+     * Counts a request rejected by the admission control.
+     *
+     * @param admissionClass The class of the request: read, write or expensive.
+     * @param reason         rate when the client went over its rate, shed when the server is overloaded,
+     *                       concurrency when too many expensive requests are running.
+     */
+    public void rejected(String admissionClass, String reason) {
+        Counter.builder("history.admission.rejected")
+                .description("Requests rejected by the admission control")
+                .tag("class", admissionClass)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
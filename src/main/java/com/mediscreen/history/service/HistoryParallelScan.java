@@ -0,0 +1,263 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.MapstructMapper;
+import com.mediscreen.history.repository.HistoryRepository;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.mapstruct.factory.Mappers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Reads the whole histories collection with several cursors at once, for exports, aggregations and re-index jobs.
+ * The collection is split into ID ranges of about the same size from a $sample of the IDs, and each range is read
+ * and mapped on a thread of a pool of history.scan.parallelism threads.
+ */
+@Service
+@Profile("!reactive")
+public class HistoryParallelScan {
+
+    // Histories handed over from a range reader to the ordered consumer at a time
+    private static final int CHUNK_SIZE = 256;
+
+    // IDs sampled per range, so that the boundaries fall close to the quantiles
+    private static final int SAMPLES_PER_RANGE = 20;
+
+    private static final List<HistoryDTO> END_OF_RANGE = List.of();
+
+    MapstructMapper mapper = Mappers.getMapper(MapstructMapper.class);
+    @Autowired
+    HistoryRepository historyRepository;
+
+    @Autowired
+    HistoryMetrics historyMetrics;
+
+    private final int parallelism;
+
+    private final int rangesPerThread;
+
+    private final long minRangeSize;
+
+    private final int bufferedChunks;
+
+    private final ExecutorService executor;
+
+    public HistoryParallelScan(@Value("${history.scan.parallelism:4}") int parallelism,
+                               @Value("${history.scan.ranges-per-thread:4}") int rangesPerThread,
+                               @Value("${history.scan.min-range-size:10000}") long minRangeSize,
+                               @Value("${history.scan.buffered-chunks:8}") int bufferedChunks) {
+        this.parallelism = parallelism;
+        this.rangesPerThread = rangesPerThread;
+        this.minRangeSize = minRangeSize;
+        this.bufferedChunks = bufferedChunks;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "history-scan-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads every history after the given ID and hands it to the consumer.
+     * Ordered, the consumer is called on the calling thread in ID order, while the next ranges are read ahead
+     * into bounded buffers. Unordered, it is called on the scan threads as soon as a history is read,
+     * so it must be thread safe.
+     *
+     * @param after    The ObjectId of the last history already read, or null to read from the start.
+     * @param ordered  true to receive the histories in ID order.
+     * @param fields   The fields to read, see HistoryFields, or null for all of them.
+     * @param consumer Receives each history.
+     * @return The number of histories read.
+     * @throws InvalidCursorException if after is not an ObjectId.
+     */
+    public long scan(String after, boolean ordered, Set<String> fields, Consumer<HistoryDTO> consumer) {
+        if (after != null && !ObjectId.isValid(after)) {
+            throw new InvalidCursorException("Invalid scan cursor: " + after);
+        }
+
+        List<String> boundaries = splitPoints(after);
+        AtomicLong count = new AtomicLong();
+        try {
+            if (ordered) {
+                scanOrdered(after, boundaries, fields, consumer, count);
+            } else {
+                scanUnordered(after, boundaries, fields, consumer, count);
+            }
+        } finally {
+            historyMetrics.documents("scan", (int) Math.min(count.get(), Integer.MAX_VALUE));
+        }
+        return count.get();
+    }
+
+    /**
+     * Picks the inclusive upper bounds of all the ranges but the last one, which is open.
+     */
+    private List<String> splitPoints(String after) {
+        long ranges = Math.min((long) parallelism * rangesPerThread, historyRepository.estimatedCount() / minRangeSize);
+        if (ranges <= 1) {
+            return List.of();
+        }
+
+        List<String> samples = historyRepository.sampleIds((int) ranges * SAMPLES_PER_RANGE).stream()
+                .filter(ObjectId::isValid)
+                .filter(id -> after == null || id.compareTo(after) > 0)
+                .toList();
+        List<String> boundaries = new ArrayList<>();
+        for (int i = 1; i < ranges; i++) {
+            String boundary = samples.isEmpty() ? null : samples.get((int) (samples.size() * i / ranges));
+            if (boundary != null && (boundaries.isEmpty() || boundary.compareTo(boundaries.get(boundaries.size() - 1)) > 0)) {
+                boundaries.add(boundary);
+            }
+        }
+        return boundaries;
+    }
+
+    private void scanUnordered(String after, List<String> boundaries, Set<String> fields, Consumer<HistoryDTO> consumer,
+                               AtomicLong count) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<CompletableFuture<Void>> readers = new ArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            String from = i == 0 ? after : boundaries.get(i - 1);
+            String to = i == boundaries.size() ? null : boundaries.get(i);
+            readers.add(CompletableFuture.runAsync(() -> readRange(from, to, fields, cancelled, consumer, count), executor)
+                    .whenComplete((result, e) -> {
+                        // Stop the other ranges at the first failure
+                        if (e != null) {
+                            cancelled.set(true);
+                        }
+                    }));
+        }
+
+        try {
+            CompletableFuture.allOf(readers.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private void scanOrdered(String after, List<String> boundaries, Set<String> fields, Consumer<HistoryDTO> consumer,
+                             AtomicLong count) {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<BlockingQueue<List<HistoryDTO>>> buffers = new ArrayList<>();
+        List<CompletableFuture<Void>> readers = new ArrayList<>();
+        for (int i = 0; i <= boundaries.size(); i++) {
+            String from = i == 0 ? after : boundaries.get(i - 1);
+            String to = i == boundaries.size() ? null : boundaries.get(i);
+            BlockingQueue<List<HistoryDTO>> buffer = new ArrayBlockingQueue<>(bufferedChunks);
+            buffers.add(buffer);
+            // Ranges start in order, so the range being consumed is always read and cannot wait for a free thread
+            readers.add(CompletableFuture.runAsync(() -> readChunks(from, to, fields, cancelled, buffer), executor));
+        }
+
+        try {
+            for (int i = 0; i < buffers.size(); i++) {
+                List<HistoryDTO> chunk;
+                while ((chunk = take(buffers.get(i), readers.get(i))) != END_OF_RANGE) {
+                    chunk.forEach(consumer);
+                    count.addAndGet(chunk.size());
+                }
+                readers.get(i).join();
+            }
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        } finally {
+            cancelled.set(true);
+        }
+    }
+
+    private List<HistoryDTO> take(BlockingQueue<List<HistoryDTO>> buffer, CompletableFuture<Void> reader) {
+        try {
+            List<HistoryDTO> chunk;
+            while ((chunk = buffer.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                if (reader.isCompletedExceptionally()) {
+                    reader.join();
+                }
+            }
+            return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning the histories", e);
+        }
+    }
+
+    private void readChunks(String after, String to, Set<String> fields, AtomicBoolean cancelled,
+                            BlockingQueue<List<HistoryDTO>> buffer) {
+        if (cancelled.get()) {
+            return;
+        }
+        try (Stream<History> histories = historyRepository.streamByIdRange(after, to, fields)) {
+            Iterator<History> iterator = histories.iterator();
+            List<HistoryDTO> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (iterator.hasNext() && !cancelled.get()) {
+                chunk.add(HistoryFields.retain(mapper.historyToDTO(iterator.next()), fields));
+                if (chunk.size() == CHUNK_SIZE) {
+                    put(buffer, chunk, cancelled);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                put(buffer, chunk, cancelled);
+            }
+        }
+        put(buffer, END_OF_RANGE, cancelled);
+    }
+
+    private void readRange(String after, String to, Set<String> fields, AtomicBoolean cancelled,
+                           Consumer<HistoryDTO> consumer, AtomicLong count) {
+        if (cancelled.get()) {
+            return;
+        }
+        try (Stream<History> histories = historyRepository.streamByIdRange(after, to, fields)) {
+            Iterator<History> iterator = histories.iterator();
+            while (iterator.hasNext() && !cancelled.get()) {
+                consumer.accept(HistoryFields.retain(mapper.historyToDTO(iterator.next()), fields));
+                count.incrementAndGet();
+            }
+        }
+    }
+
+    private static void put(BlockingQueue<List<HistoryDTO>> buffer, List<HistoryDTO> chunk, AtomicBoolean cancelled) {
+        try {
+            while (!buffer.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled.get()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled.set(true);
+        }
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        return e.getCause() instanceof RuntimeException cause ? cause : e;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,42 +1,115 @@
 package com.mediscreen.history.service;
 
 import com.mediscreen.history.Exception.HistoryNotFoundException;
+import com.mediscreen.history.Exception.HistoryQueueFullException;
+import com.mediscreen.history.Exception.HistoryVersionConflictException;
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.Exception.InvalidQueryException;
+import com.mediscreen.history.Exception.SearchUnavailableException;
+import com.mediscreen.history.config.NoteCompression;
+import com.mediscreen.history.dto.CacheStatsDTO;
+import com.mediscreen.history.dto.HistoryCountDTO;
 import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryDateDTO;
+import com.mediscreen.history.dto.HistoryPageDTO;
+import com.mediscreen.history.dto.HistorySummaryDTO;
+import com.mediscreen.history.dto.HistoryVersionDTO;
 import com.mediscreen.history.model.History;
 import com.mediscreen.history.model.MapstructMapper;
 import com.mediscreen.history.repository.HistoryRepository;
+import org.bson.types.ObjectId;
 import org.mapstruct.factory.Mappers;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Service class for managing patient history information.
  */
 @Service
+@Profile("!reactive")
 public class HistoryService { ;
 
     MapstructMapper mapper = Mappers.getMapper(MapstructMapper.class);
     @Autowired
     HistoryRepository historyRepository;
 
+    @Autowired
+    HistoryCache historyCache;
+
+    @Autowired
+    TriggerIndexService triggerIndexService;
+
+    @Autowired
+    HistoryMetrics historyMetrics;
+
+    @Autowired
+    HistoryWriteBehind historyWriteBehind;
+
+    @Autowired
+    NoteCompression noteCompression;
+
+    @Value("${history.pagination.max-limit:1000}")
+    private int maxPageLimit = 1000;
+
+    @Value("${history.batch.max-patients:500}")
+    private int maxBatchPatients = 500;
+
+    private static final List<String> DATE_UNITS = List.of("day", "week", "month");
+
     /**
-     * Retrieves a patient history by its ID.
+     * Retrieves a patient history by its ID, from the history cache when it holds it.
      *
      * @param id The ID of the history to retrieve.
      * @return The patient history as a HistoryDTO object.
      * @throws HistoryNotFoundException if the history with the given ID is not found.
      */
     public HistoryDTO getHistoryById(String id) {
+        return historyCache.getHistory(id, this::loadHistoryById);
+    }
+
+    /**
+     * Retrieves a patient history by its ID with only the selected fields.
+     *
+     * @param id     The ID of the history to retrieve.
+     * @param fields The fields to return, see HistoryFields, or null for all of them.
+     * @return The patient history as a HistoryDTO object, the other fields are null.
+     * @throws HistoryNotFoundException if the history with the given ID is not found.
+     */
+    public HistoryDTO getHistoryById(String id, Set<String> fields) {
+        if (fields == null) {
+            return getHistoryById(id);
+        }
+
+        History history = historyRepository.findByIdWithFields(id, fields);
+        if (history == null) {
+            throw new HistoryNotFoundException("History not found with ID: " + id);
+        }
+        return historyMetrics.mapping("findById", () -> HistoryFields.retain(mapper.historyToDTO(history), fields));
+    }
+
+    private HistoryDTO loadHistoryById(String id) {
         Optional<History> history = historyRepository.findById(id);
 
         if (history.isPresent()) {
-            HistoryDTO historyDTO = mapper.historyToDTO(history.get());
+            HistoryDTO historyDTO = historyMetrics.mapping("findById", () -> mapper.historyToDTO(history.get()));
             return historyDTO;
         }
 
@@ -44,24 +117,199 @@ public class HistoryService { ;
     }
 
     /**
-     * Retrieves all patient histories associated with a given patient ID.
+     * Retrieves all patient histories associated with a given patient ID, from the history cache when it holds them.
      *
      * @param id The ID of the patient.
      * @return A list of patient histories as HistoryDTO objects.
      */
     public List<HistoryDTO> getHistoryByPatientId(Integer id) {
+        return historyCache.getPatientHistories(id, () -> loadHistoryByPatientId(id));
+    }
+
+    /**
+     * Retrieves the histories of a patient with only the selected fields, read from the database without the cache.
+     *
+     * @param id     The ID of the patient.
+     * @param fields The fields to return, see HistoryFields, or null for all of them.
+     * @return A list of patient histories as HistoryDTO objects, the other fields are null.
+     */
+    public List<HistoryDTO> getHistoryByPatientId(Integer id, Set<String> fields) {
+        if (fields == null) {
+            return getHistoryByPatientId(id);
+        }
+
+        List<History> histories = historyRepository.findByPatIdWithFields(id, fields);
+        historyMetrics.documents("findByPatId", histories.size());
+        return historyMetrics.mapping("findByPatId", () -> HistoryFields.retain(mapper.historyListToDTO(histories), fields));
+    }
+
+    /**
+     * Retrieves the ETag and last modification date of a history, without reading its notes.
+     *
+     * @param id     The ID of the history.
+     * @param fields The fields returned with the history, see HistoryFields, or null for all of them.
+     * @return The version of the history, or null if the history is not found.
+     */
+    public HistoryVersionDTO getHistoryVersion(String id, Set<String> fields) {
+        History history = historyRepository.findVersionById(id);
+        return history == null ? null : HistoryETags.ofHistory(history.getVersion(), history.getLastModified(), fields);
+    }
+
+    /**
+     * Retrieves the ETag and last modification date of the histories of a patient, without reading their notes.
+     *
+     * @param id     The ID of the patient.
+     * @param fields The fields returned with the histories, see HistoryFields, or null for all of them.
+     * @return The version of the list of histories of the patient.
+     */
+    public HistoryVersionDTO getPatientHistoryVersion(Integer id, Set<String> fields) {
+        return HistoryETags.ofHistories(historyRepository.findVersionsByPatId(id),
+                History::getId, History::getVersion, History::getLastModified, fields);
+    }
+
+    /**
+     * Retrieves the summaries of the histories of a patient, without their notes.
+     * The histories of every patient are read page by page with getHistoryPage or streamed with streamAllHistories.
+     *
+     * @param id The ID of the patient.
+     * @return A list of HistorySummaryDTO objects, newest first.
+     * @throws InvalidQueryException if the patient is missing.
+     */
+    public List<HistorySummaryDTO> getHistorySummaries(Integer id) {
+        if (id == null) {
+            throw new InvalidQueryException("The summaries are read for a single patient");
+        }
+        List<History> histories = historyRepository.findSummariesByPatId(id);
+        historyMetrics.documents("summaries", histories.size());
+        return historyMetrics.mapping("summaries", () -> mapper.historyListToSummaryDTO(histories));
+    }
+
+    private List<HistoryDTO> loadHistoryByPatientId(Integer id) {
         List<History> historyList = historyRepository.findByPatId(id);
+        historyMetrics.documents("findByPatId", historyList.size());
 
         if (!historyList.isEmpty()) {
-            List<HistoryDTO> historyDTOList = historyList.stream()
+            return historyMetrics.mapping("findByPatId", () -> historyList.stream()
                     .map(mapper::historyToDTO)
-                    .collect(Collectors.toList());
-            return historyDTOList;
+                    .collect(Collectors.toList()));
         }
 
         return new ArrayList<>();
     }
 
+    /**
+     * Retrieves the histories of many patients with a single database query.
+     *
+     * @param patIds The IDs of the patients, at most history.batch.max-patients of them.
+     * @param limit  The maximum number of histories to return for each patient, or null for all of them.
+     * @param fields The fields to return, see HistoryFields, or null for all of them.
+     * @return The histories of each requested patient as HistoryDTO objects, newest first,
+     * keyed by patient ID in the order of the request, with an empty list for the patients without history.
+     * @throws InvalidQueryException if no patient is requested, too many are, or the limit is not positive.
+     */
+    public Map<Integer, List<HistoryDTO>> getHistoriesByPatientIds(List<Integer> patIds, Integer limit, Set<String> fields) {
+        if (patIds == null || patIds.isEmpty()) {
+            throw new InvalidQueryException("At least one patient ID is required");
+        }
+        Set<Integer> patients = new LinkedHashSet<>(patIds);
+        if (patients.size() > maxBatchPatients) {
+            throw new InvalidQueryException("At most " + maxBatchPatients + " patients can be requested at once");
+        }
+        if (limit != null && limit <= 0) {
+            throw new InvalidQueryException("Limit per patient must be positive: " + limit);
+        }
+
+        List<History> histories = historyRepository.findLatestByPatIds(patients, limit, fields);
+        historyMetrics.documents("findByPatIds", histories.size());
+
+        Map<Integer, List<HistoryDTO>> historiesByPatient = new LinkedHashMap<>();
+        patients.forEach(patId -> historiesByPatient.put(patId, new ArrayList<>()));
+        historyMetrics.mapping("findByPatIds", () -> {
+            histories.forEach(history -> historiesByPatient.get(history.getPatId())
+                    .add(HistoryFields.retain(mapper.historyToDTO(history), fields)));
+            return historiesByPatient;
+        });
+        return historiesByPatient;
+    }
+
+    /**
+     * Retrieves the histories created within a range of dates, for a patient or for every patient.
+     *
+     * @param patId  The ID of the patient, or null for every patient.
+     * @param from   The first creation date, inclusive, or null for no lower bound.
+     * @param to     The last creation date, inclusive, or null for no upper bound.
+     * @param order  asc for the oldest histories first, desc for the newest first.
+     * @param limit  The maximum number of histories to return, capped by history.pagination.max-limit.
+     * @param fields The fields to return, see HistoryFields, or null for all of them.
+     * @return A list of HistoryDTO in the requested order.
+     * @throws InvalidQueryException if the range is empty, the order unknown or the limit not positive.
+     */
+    public List<HistoryDTO> getHistoriesByCreationDate(Integer patId, LocalDate from, LocalDate to, String order,
+                                                       int limit, Set<String> fields) {
+        checkDateRange(from, to);
+        if (!"asc".equals(order) && !"desc".equals(order)) {
+            throw new InvalidQueryException("Order must be asc or desc: " + order);
+        }
+        if (limit <= 0) {
+            throw new InvalidQueryException("Limit must be positive: " + limit);
+        }
+
+        List<History> histories = historyRepository.findByCreationDateRange(patId, from, to,
+                Sort.Direction.fromString(order), Math.min(limit, maxPageLimit), fields);
+        historyMetrics.documents("findByCreationDate", histories.size());
+        return historyMetrics.mapping("findByCreationDate", () -> histories.stream()
+                .map(history -> HistoryFields.retain(mapper.historyToDTO(history), fields))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Counts the histories created within a range of dates by day, week or month, for a patient or for every patient.
+     *
+     * @param patId The ID of the patient, or null for every patient.
+     * @param from  The first creation date, inclusive, or null for no lower bound.
+     * @param to    The last creation date, inclusive, or null for no upper bound.
+     * @param unit  day, week (starting on Monday) or month.
+     * @return The number of histories of each period having at least one, oldest first.
+     * @throws InvalidQueryException if the range is empty or the unit unknown.
+     */
+    public List<HistoryCountDTO> countHistoriesByCreationDate(Integer patId, LocalDate from, LocalDate to, String unit) {
+        checkDateRange(from, to);
+        if (!DATE_UNITS.contains(unit)) {
+            throw new InvalidQueryException("Unit must be one of " + DATE_UNITS + ": " + unit);
+        }
+
+        List<HistoryCountDTO> counts = historyRepository.countByCreationDate(patId, from, to, unit);
+        historyMetrics.documents("countByCreationDate", counts.size());
+        return counts;
+    }
+
+    private static void checkDateRange(LocalDate from, LocalDate to) {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new InvalidQueryException("The start date " + from + " is after the end date " + to);
+        }
+    }
+
+    /**
+     * Retrieves the hit, miss and eviction counters of the history cache.
+     *
+     * @return The cache statistics as a CacheStatsDTO object.
+     */
+    public CacheStatsDTO getCacheStats() {
+        return historyCache.getStats();
+    }
+
+    /**
+     * Retrieves the IDs and creation dates of the histories of a patient, newest first, without their notes.
+     *
+     * @param id The ID of the patient.
+     * @return A list of HistoryDateDTO objects.
+     */
+    public List<HistoryDateDTO> getHistoryDatesByPatientId(Integer id) {
+        List<History> dates = historyRepository.findDatesByPatId(id);
+        historyMetrics.documents("findDatesByPatId", dates.size());
+        return historyMetrics.mapping("findDatesByPatId", () -> mapper.historyListToDateDTO(dates));
+    }
+
     /**
      * Retrieves all patient histories.
      *
@@ -71,12 +319,117 @@ public class HistoryService { ;
     public List<HistoryDTO> getAllHistories() {
         try {
             List<History> histories = historyRepository.findAll();
-            return mapper.historyListToDTO(histories);
+            historyMetrics.documents("findAll", histories.size());
+            return historyMetrics.mapping("findAll", () -> mapper.historyListToDTO(histories));
         } catch (Exception e) {
             throw new HistoryNotFoundException("Patient histories are not found.");
         }
     }
 
+    /**
+     * Retrieves all patient histories with only the selected fields.
+     *
+     * @param fields The fields to return, see HistoryFields, or null for all of them.
+     * @return A list of all patient histories as HistoryDTO objects, the other fields are null.
+     */
+    public List<HistoryDTO> getAllHistories(Set<String> fields) {
+        if (fields == null) {
+            return getAllHistories();
+        }
+
+        List<History> histories = historyRepository.findAllWithFields(fields);
+        historyMetrics.documents("findAll", histories.size());
+        return historyMetrics.mapping("findAll", () -> HistoryFields.retain(mapper.historyListToDTO(histories), fields));
+    }
+
+    /**
+     * Retrieves one page of patient histories ordered by ID, starting after the given cursor.
+     *
+     * @param limit The maximum number of histories to return, capped by history.pagination.max-limit.
+     * @param after The ID of the last history of the previous page, or null for the first page.
+     * @return The page of histories and the cursor of the next page, null when there is no next page.
+     * @throws InvalidCursorException if the cursor is not a valid history ID or the limit is not positive.
+     */
+    public HistoryPageDTO getHistoryPage(int limit, String after) {
+        return getHistoryPage(limit, after, null);
+    }
+
+    /**
+     * Retrieves one page of patient histories ordered by ID with only the selected fields.
+     *
+     * @param limit  The maximum number of histories to return, capped by history.pagination.max-limit.
+     * @param after  The ID of the last history of the previous page, or null for the first page.
+     * @param fields The fields to return, see HistoryFields, or null for all of them.
+     * @return The page of histories and the cursor of the next page, null when there is no next page.
+     * @throws InvalidCursorException if the cursor is not a valid history ID or the limit is not positive.
+     */
+    public HistoryPageDTO getHistoryPage(int limit, String after, Set<String> fields) {
+        if (limit <= 0) {
+            throw new InvalidCursorException("Page limit must be positive: " + limit);
+        }
+        if (after != null && !ObjectId.isValid(after)) {
+            throw new InvalidCursorException("Invalid page cursor: " + after);
+        }
+
+        PageRequest pageRequest = PageRequest.of(0, Math.min(limit, maxPageLimit));
+        List<History> histories;
+        if (fields != null) {
+            histories = historyRepository.findPageWithFields(after, pageRequest, fields);
+        } else if (after == null) {
+            histories = historyRepository.findAllByOrderByIdAsc(pageRequest);
+        } else {
+            histories = historyRepository.findByIdGreaterThanOrderByIdAsc(new ObjectId(after), pageRequest);
+        }
+
+        historyMetrics.documents("page", histories.size());
+        String next = histories.size() < pageRequest.getPageSize() ? null : histories.get(histories.size() - 1).getId();
+        return new HistoryPageDTO(historyMetrics.mapping("page", () -> HistoryFields.retain(mapper.historyListToDTO(histories), fields)), next);
+    }
+
+    /**
+     * Streams all patient histories one by one from a database cursor, so that memory use does not grow
+     * with the size of the collection.
+     *
+     * @param consumer The consumer receiving each history as a HistoryDTO object.
+     */
+    public void streamAllHistories(Consumer<HistoryDTO> consumer) {
+        AtomicInteger count = new AtomicInteger();
+        try (Stream<History> histories = historyRepository.streamAllBy()) {
+            histories.map(mapper::historyToDTO).peek(historyDTO -> count.incrementAndGet()).forEach(consumer);
+        } finally {
+            historyMetrics.documents("stream", count.get());
+        }
+    }
+
+    /**
+     * Searches the notes of the patient histories, in French, ignoring case and accents.
+     *
+     * @param text  The words to search, a history matches when its notes contain any of them.
+     * @param patId The ID of the patient to search, or null to search every patient.
+     * @param page  The index of the page, starting at 0.
+     * @param size  The size of the page, capped by history.pagination.max-limit.
+     * @return The matching histories as HistoryDTO objects, best matches first.
+     * @throws InvalidQueryException if the text is blank or the page is invalid.
+     * @throws SearchUnavailableException if the notes are stored compressed, out of the text index.
+     */
+    public List<HistoryDTO> searchHistories(String text, Integer patId, int page, int size) {
+        if (noteCompression.isEnabled()) {
+            // The compressed notes are not indexed, the search would silently miss them
+            throw new SearchUnavailableException("Search is unavailable while the notes are stored compressed");
+        }
+        if (text == null || text.isBlank()) {
+            throw new InvalidQueryException("Search text must not be blank");
+        }
+        if (page < 0 || size <= 0) {
+            throw new InvalidQueryException("Invalid search page " + page + " of size " + size);
+        }
+
+        PageRequest pageRequest = PageRequest.of(page, Math.min(size, maxPageLimit));
+        List<History> histories = historyRepository.searchNotes(text, patId, pageRequest);
+        historyMetrics.documents("search", histories.size());
+        return historyMetrics.mapping("search", () -> mapper.historyListToDTO(histories));
+    }
+
     /**
      * Adds a new patient history.
      *
@@ -87,7 +440,12 @@ public class HistoryService { ;
         try {
             History history = mapper.historyDTOtoEntity(historyDTO);
             history.setCreationDate(LocalDate.now());
+            history.setVersion(0L);
+            history.setLastModified(Instant.now());
+            triggerIndexService.index(history);
             historyRepository.save(history);
+            triggerIndexService.onInsert(List.of(history));
+            historyCache.invalidatePatient(history.getPatId());
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -96,39 +454,88 @@ public class HistoryService { ;
     }
 
     /**
-     * Updates an existing patient history with the given ID.
+     * @return true if new histories are queued for the write-behind writer instead of saved by the request.
+     */
+    public boolean isWriteBehind() {
+        return historyWriteBehind.isEnabled();
+    }
+
+    /**
+     * Queues a new patient history, to be inserted with the other queued histories by the write-behind writer.
+     *
+     * @param historyDTO The HistoryDTO object containing the information of the new history.
+     * @return The generated ID of the history.
+     * @throws HistoryQueueFullException if the queue stays full.
+     */
+    public String queueHistory(HistoryDTO historyDTO) {
+        History history = mapper.historyDTOtoEntity(historyDTO);
+        history.setId(new ObjectId().toHexString());
+        history.setCreationDate(LocalDate.now());
+        history.setVersion(0L);
+        history.setLastModified(Instant.now());
+        triggerIndexService.index(history);
+        historyWriteBehind.enqueue(history);
+        return history.getId();
+    }
+
+    /**
+     * Updates an existing patient history with the given ID, in a single atomic operation.
+     * Only the fields set in the HistoryDTO are changed, the others keep their current value.
      *
      * @param id         The ID of the history to update.
-     * @param historyDTO The updated HistoryDTO object.
-     * @return true if the history is updated successfully, false otherwise.
+     * @param historyDTO The HistoryDTO object with the fields to change.
+     * @return true if the history is updated successfully.
      * @throws HistoryNotFoundException if the history with the given ID is not found.
      */
     public boolean updateHistory(String id, HistoryDTO historyDTO) {
-        Optional<History> optionalHistory = historyRepository.findById(id);
+        return updateHistory(id, historyDTO, null, null);
+    }
 
-        if (optionalHistory.isPresent()) {
-            History history = optionalHistory.get();
-            historyDTO.setId(id);
-            history = mapper.historyDTOtoEntity(historyDTO);
-            historyRepository.save(history);
+    /**
+     * Updates an existing patient history with the given ID if it still has the expected version,
+     * in a single atomic operation, so that concurrent updates cannot overwrite each other.
+     *
+     * @param id              The ID of the history to update.
+     * @param historyDTO      The HistoryDTO object with the fields to change.
+     * @param expectedVersion      The version read by the client, or null to update any version.
+     * @param expectedLastModified The date of the last write read by the client, or null for any date.
+     * @return true if the history is updated successfully.
+     * @throws HistoryNotFoundException        if the history with the given ID is not found.
+     * @throws HistoryVersionConflictException if the history was changed since the expected version.
+     */
+    public boolean updateHistory(String id, HistoryDTO historyDTO, Long expectedVersion, Instant expectedLastModified) {
+        History changes = mapper.historyDTOtoEntity(historyDTO);
+        triggerIndexService.index(changes);
+        History previous = historyRepository.updateFields(id, changes, expectedVersion, expectedLastModified);
+
+        if (previous != null) {
+            triggerIndexService.onUpdate(previous, changes);
+            historyCache.invalidateHistory(id);
+            historyCache.invalidatePatient(previous.getPatId());
+            historyCache.invalidatePatient(historyDTO.getPatId());
             return true;
         }
+        if (expectedVersion != null && historyRepository.existsById(id)) {
+            throw new HistoryVersionConflictException("Patient history " + id + " is no longer at version " + expectedVersion);
+        }
 
         throw new HistoryNotFoundException("Patient history not found with ID: " + id);
     }
 
     /**
-     * Deletes a patient history by its ID.
+     * Deletes a patient history by its ID, in a single atomic operation.
      *
      * @param id The ID of the history to delete.
-     * @return true if the history is deleted successfully, false otherwise.
+     * @return true if the history is deleted successfully.
      * @throws HistoryNotFoundException if the history with the given ID is not found.
      */
     public boolean deleteHistory(String id) {
-        Optional<History> history = historyRepository.findById(id);
+        History removed = historyRepository.removeById(id);
 
-        if (history.isPresent()) {
-            historyRepository.deleteById(id);
+        if (removed != null) {
+            triggerIndexService.onDelete(removed);
+            historyCache.invalidateHistory(id);
+            historyCache.invalidatePatient(removed.getPatId());
             return true;
         }
 
@@ -0,0 +1,226 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.HistoryNotFoundException;
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.ImportResultDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.HistoryImport;
+import com.mediscreen.history.model.MapstructMapper;
+import com.mediscreen.history.repository.HistoryImportRepository;
+import com.mediscreen.history.repository.HistoryRepository;
+import org.bson.types.ObjectId;
+import org.mapstruct.factory.Mappers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Service class for exporting and importing the whole history collection, in the format of mongodb_data.ndjson
+ * with the ID of each history. Both directions hold at most one batch of histories in memory.
+ */
+@Service
+@Profile("!reactive")
+public class HistoryTransferService {
+
+    static final int MAX_ERRORS = 100;
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryTransferService.class);
+
+    MapstructMapper mapper = Mappers.getMapper(MapstructMapper.class);
+
+    @Autowired
+    HistoryRepository historyRepository;
+
+    @Autowired
+    HistoryImportRepository historyImportRepository;
+
+    @Autowired
+    HistoryCache historyCache;
+
+    @Autowired
+    TriggerIndexService triggerIndexService;
+
+    @Autowired
+    HistoryMetrics historyMetrics;
+
+    @Autowired
+    HistoryParallelScan historyParallelScan;
+
+    @Value("${history.bulk.batch-size:1000}")
+    private int batchSize = 1000;
+
+    /**
+     * Exports every history after the given ID, in ID order, with one cursor or with the parallel scan.
+     *
+     * @param after    The ID of the last history already exported, or null to export from the start.
+     * @param parallel true to read the ID ranges of the collection with several cursors, see HistoryParallelScan.
+     * @param consumer Receives each history, on the calling thread.
+     * @return The number of exported histories.
+     * @throws InvalidCursorException if after is not a valid history ID.
+     */
+    public long exportHistories(String after, boolean parallel, Consumer<HistoryDTO> consumer) {
+        return parallel ? historyParallelScan.scan(after, true, null, consumer) : exportHistories(after, consumer);
+    }
+
+    /**
+     * Reads every history ordered by ID from a database cursor, so that an interrupted export can be resumed
+     * after the last history received.
+     *
+     * @param after    The ID of the last history already exported, or null to export from the start.
+     * @param consumer Receives each history, on the calling thread.
+     * @return The number of exported histories.
+     * @throws InvalidCursorException if after is not a valid history ID.
+     */
+    public long exportHistories(String after, Consumer<HistoryDTO> consumer) {
+        if (after != null && !ObjectId.isValid(after)) {
+            throw new InvalidCursorException("Invalid export cursor: " + after);
+        }
+
+        AtomicLong count = new AtomicLong();
+        try (Stream<History> histories = after == null ? historyRepository.streamAllByOrderByIdAsc()
+                : historyRepository.streamByIdGreaterThanOrderByIdAsc(new ObjectId(after))) {
+            histories.map(mapper::historyToDTO).peek(historyDTO -> count.incrementAndGet()).forEach(consumer);
+        } finally {
+            historyMetrics.documents("export", (int) Math.min(count.get(), Integer.MAX_VALUE));
+        }
+        logger.info("Exported {} patient histories", count.get());
+        return count.get();
+    }
+
+    /**
+     * Imports the histories read from the iterator with one bulk write per batch, replacing the histories
+     * having the same ID, and saves the progress after each batch.
+     * When the import ID of an interrupted import is given again with the same input, the histories of its completed
+     * batches are read and skipped without being written again.
+     * Histories without an ID get a generated one, histories without a creation date are dated today.
+     * Reading stops at the first history that cannot be parsed.
+     *
+     * @param importId    The ID of the import to resume, or null to start a new import.
+     * @param historyDTOs The histories to import, typically parsed lazily from the request body.
+     * @return The progress of the import, completed when the whole input was read.
+     */
+    public ImportResultDTO importHistories(String importId, Iterator<HistoryDTO> historyDTOs) {
+        HistoryImport progress = importId == null ? null : historyImportRepository.findById(importId).orElse(null);
+        if (progress == null) {
+            progress = new HistoryImport();
+            progress.setId(importId == null ? new ObjectId().toHexString() : importId);
+        } else if (progress.isCompleted()) {
+            return mapper.historyImportToDTO(progress);
+        } else {
+            logger.info("Resuming import {} after {} histories", progress.getId(), progress.getRead());
+        }
+
+        long skip = progress.getRead();
+        long read = 0;
+        boolean completed = true;
+        List<History> batch = new ArrayList<>(batchSize);
+
+        while (true) {
+            HistoryDTO historyDTO;
+            try {
+                if (!historyDTOs.hasNext()) {
+                    break;
+                }
+                historyDTO = historyDTOs.next();
+            } catch (RuntimeException e) {
+                logger.warn("Import {} unreadable after {} histories: {}", progress.getId(), read, e.getMessage());
+                addError(progress, "Unreadable history " + (read + 1) + ": " + e.getMessage());
+                completed = false;
+                break;
+            }
+
+            read++;
+            if (read <= skip) {
+                continue;
+            }
+            if (historyDTO.getPatId() == null) {
+                progress.setFailed(progress.getFailed() + 1);
+                addError(progress, "History " + read + " " + historyDTO.getId() + ": missing patId");
+            } else {
+                batch.add(toEntity(historyDTO));
+            }
+            if (batch.size() >= batchSize) {
+                flush(batch, progress, read);
+            }
+        }
+        flush(batch, progress, Math.max(read, skip));
+        progress.setCompleted(completed);
+        save(progress);
+
+        if (progress.getImported() > 0) {
+            // Replaced histories may have moved to another patient, and the patient aggregates may have changed
+            historyCache.invalidateAll();
+            triggerIndexService.rebuildPatients();
+        }
+        logger.info("Import {} read {} histories: {} imported, {} failed", progress.getId(), progress.getRead(),
+                progress.getImported(), progress.getFailed());
+        return mapper.historyImportToDTO(progress);
+    }
+
+    /**
+     * Retrieves the progress of an import.
+     *
+     * @param importId The ID of the import.
+     * @return The progress saved after its last completed batch.
+     * @throws HistoryNotFoundException if there is no import with this ID.
+     */
+    public ImportResultDTO getImport(String importId) {
+        return historyImportRepository.findById(importId)
+                .map(mapper::historyImportToDTO)
+                .orElseThrow(() -> new HistoryNotFoundException("Import not found with the id: " + importId));
+    }
+
+    private History toEntity(HistoryDTO historyDTO) {
+        History history = mapper.historyDTOtoEntity(historyDTO);
+        if (history.getId() == null) {
+            history.setId(new ObjectId().toHexString());
+        }
+        if (history.getCreationDate() == null) {
+            history.setCreationDate(LocalDate.now());
+        }
+        history.setVersion(0L);
+        history.setLastModified(Instant.now());
+        triggerIndexService.index(history);
+        return history;
+    }
+
+    private void flush(List<History> batch, HistoryImport progress, long read) {
+        if (!batch.isEmpty()) {
+            Map<Integer, String> errors = historyRepository.bulkReplace(List.copyOf(batch));
+            errors.forEach((index, error) -> addError(progress, "History " + batch.get(index).getId() + ": " + error));
+            progress.setImported(progress.getImported() + batch.size() - errors.size());
+            progress.setFailed(progress.getFailed() + errors.size());
+            progress.setLastId(batch.get(batch.size() - 1).getId());
+            batch.clear();
+        }
+        if (read > progress.getRead()) {
+            progress.setRead(read);
+            save(progress);
+        }
+    }
+
+    private void save(HistoryImport progress) {
+        progress.setLastModified(Instant.now());
+        historyImportRepository.save(progress);
+    }
+
+    private static void addError(HistoryImport progress, String error) {
+        if (progress.getErrors().size() < MAX_ERRORS) {
+            progress.getErrors().add(error);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.HistoryQueueFullException;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.HistoryRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Write-behind queue of the new histories. Requests put their history on a bounded queue and a single writer thread
+ * inserts everything queued with one unordered insertMany, so that histories arriving while a batch is written
+ * share the next round trip (group commit).
+ * With the enqueue durability a history is acknowledged once queued and is lost if the instance dies before the
+ * writer inserts it, with the flush durability the request waits for the insert of its batch.
+ */
+@Service
+@Profile("!reactive")
+public class HistoryWriteBehind {
+
+    public enum Durability { ENQUEUE, FLUSH }
+
+    private static Logger logger = LoggerFactory.getLogger(HistoryWriteBehind.class);
+
+    @Autowired
+    HistoryRepository historyRepository;
+
+    @Autowired
+    HistoryCache historyCache;
+
+    @Autowired
+    TriggerIndexService triggerIndexService;
+
+    @Autowired
+    HistoryMetrics historyMetrics;
+
+    private final boolean enabled;
+
+    private final Durability durability;
+
+    private final int batchSize;
+
+    private final long offerTimeoutMillis;
+
+    private final long flushTimeoutMillis;
+
+    private final long shutdownTimeoutMillis;
+
+    private final BlockingQueue<Pending> queue;
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    public HistoryWriteBehind(@Value("${history.write-behind.enabled:false}") boolean enabled,
+                              @Value("${history.write-behind.durability:flush}") String durability,
+                              @Value("${history.write-behind.capacity:10000}") int capacity,
+                              @Value("${history.write-behind.batch-size:500}") int batchSize,
+                              @Value("${history.write-behind.offer-timeout-ms:100}") long offerTimeoutMillis,
+                              @Value("${history.write-behind.flush-timeout-ms:5000}") long flushTimeoutMillis,
+                              @Value("${history.write-behind.shutdown-timeout-ms:10000}") long shutdownTimeoutMillis) {
+        this.enabled = enabled;
+        this.durability = Durability.valueOf(durability.toUpperCase(Locale.ROOT));
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.flushTimeoutMillis = flushTimeoutMillis;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::write, "history-write-behind");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Starts the writer once the repository, the cache and the index are injected.
+     */
+    @PostConstruct
+    public void start() {
+        if (enabled && !writer.isAlive()) {
+            writer.start();
+        }
+    }
+
+    /**
+     * @return true if new histories go through the queue, set by history.write-behind.enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a new history, waiting up to history.write-behind.offer-timeout-ms for room in the queue.
+     * With the flush durability, also waits up to history.write-behind.flush-timeout-ms until its batch is inserted.
+     *
+     * @param history The history to insert, with its ID, dates and version already set.
+     * A history whose batch is being inserted when the flush timeout expires is considered accepted, since it may
+     * already be in the collection; one still waiting in the queue is removed from it, so that a retry cannot insert
+     * it twice.
+     *
+     * @throws HistoryQueueFullException if the queue stays full or is closed for shutdown, or if the history is
+     *                                   still queued when the flush timeout expires.
+     * @throws CompletionException       with the flush durability, if the history cannot be inserted.
+     */
+    public void enqueue(History history) {
+        Pending pending = new Pending(history);
+        try {
+            if (closed || !queue.offer(pending, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new HistoryQueueFullException("Too many histories waiting to be written, retry later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HistoryQueueFullException("Interrupted while queueing the history");
+        }
+
+        if (durability == Durability.FLUSH) {
+            try {
+                pending.written().get(flushTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw new CompletionException(e.getCause());
+            } catch (TimeoutException e) {
+                if (queue.remove(pending)) {
+                    throw new HistoryQueueFullException("The history was not written in time, retry later");
+                }
+                // Already taken by the writer, it is being inserted
+                logger.warn("Queued patient history {} still being written after {} ms", history.getId(), flushTimeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HistoryQueueFullException("Interrupted while waiting for the history to be written");
+            }
+        }
+    }
+
+    /**
+     * @return The number of histories waiting to be written.
+     */
+    public int getPending() {
+        return queue.size();
+    }
+
+    private void write() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                // Shutdown timed out, the histories still queued are lost
+                return;
+            } catch (RuntimeException e) {
+                // The writer must outlive a failed batch, or nothing would drain the queue anymore
+                logger.error("Failed to write {} queued patient histories", batch.size(), e);
+                batch.forEach(pending -> pending.written().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        List<History> histories = batch.stream().map(Pending::history).toList();
+        Map<Integer, String> errors;
+        try {
+            errors = historyRepository.bulkInsert(histories);
+        } catch (RuntimeException e) {
+            logger.error("Failed to write {} queued patient histories", batch.size(), e);
+            batch.forEach(pending -> pending.written().completeExceptionally(e));
+            return;
+        }
+        historyMetrics.documents("writeBehind", batch.size());
+
+        List<History> inserted = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            String error = errors.get(i);
+            if (error == null) {
+                inserted.add(pending.history());
+                invalidatePatient(pending.history().getPatId());
+                pending.written().complete(null);
+            } else {
+                logger.error("Failed to write queued patient history {}: {}", pending.history().getId(), error);
+                pending.written().completeExceptionally(new IllegalStateException(error));
+            }
+        }
+
+        // The histories are written, the index and the cache are best effort
+        try {
+            triggerIndexService.onInsert(inserted);
+        } catch (RuntimeException e) {
+            logger.error("Failed to index the trigger terms of {} queued patient histories", inserted.size(), e);
+        }
+    }
+
+    private void invalidatePatient(Integer patId) {
+        try {
+            historyCache.invalidatePatient(patId);
+        } catch (RuntimeException e) {
+            logger.error("Failed to evict the cached histories of patient {}", patId, e);
+        }
+    }
+
+    /**
+     * Stops accepting histories and waits up to history.write-behind.shutdown-timeout-ms for the queued ones to be written.
+     * Runs after the web server has stopped taking requests.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        closed = true;
+        if (!writer.isAlive()) {
+            return;
+        }
+        writer.join(shutdownTimeoutMillis);
+        if (writer.isAlive()) {
+            logger.error("Shutdown before {} queued patient histories were written", queue.size());
+            writer.interrupt();
+        }
+
+        // Release the requests still waiting for a batch that will never be written
+        List<Pending> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        abandoned.forEach(pending -> pending.written().completeExceptionally(
+                new HistoryQueueFullException("Shutdown before the history was written")));
+    }
+
+    private static class Pending {
+
+        private final History history;
+
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        Pending(History history) {
+            this.history = history;
+        }
+
+        History history() {
+            return history;
+        }
+
+        CompletableFuture<Void> written() {
+            return written;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.InvalidQueryException;
+import com.mediscreen.history.config.NoteCompression;
+import com.mediscreen.history.dto.NoteMigrationResultDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.NoteCodec;
+import com.mediscreen.history.repository.HistoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Service class moving the notes already stored to the storage chosen by history.notes.compression.enabled,
+ * and training compression dictionaries on the stored notes.
+ */
+@Service
+@Profile("!reactive")
+public class NoteCompressionService {
+
+    private static Logger logger = LoggerFactory.getLogger(NoteCompressionService.class);
+
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
+    /**
+     * Deflate only looks this far back, a larger dictionary is truncated.
+     */
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    @Autowired
+    HistoryRepository historyRepository;
+
+    @Autowired
+    NoteCompression noteCompression;
+
+    /**
+     * Compresses the notes stored uncompressed when compression is enabled, decompresses the compressed ones otherwise.
+     * Only the notes are read and written, the versions are unchanged. Notes that compression would not make smaller
+     * are rewritten uncompressed. The histories whose notes were updated after they were read are skipped.
+     *
+     * @return The number of rewritten and skipped histories, the size of their notes before and after, and the duration.
+     */
+    public NoteMigrationResultDTO migrate() {
+        long start = System.currentTimeMillis();
+        boolean compress = noteCompression.isEnabled();
+        NoteMigrationResultDTO result = new NoteMigrationResultDTO();
+        result.setCompressed(compress);
+        List<History> batch = new ArrayList<>();
+
+        try (Stream<History> histories = historyRepository.streamNotesStored(!compress)) {
+            for (History history : (Iterable<History>) histories::iterator) {
+                String notes = history.getNotes();
+                if (notes == null) {
+                    continue;
+                }
+                batch.add(history);
+                result.setNotesBytes(result.getNotesBytes() + notes.getBytes(StandardCharsets.UTF_8).length);
+                if (batch.size() >= MIGRATION_BATCH_SIZE) {
+                    add(result, historyRepository.bulkSetNotes(batch));
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+        add(result, historyRepository.bulkSetNotes(batch));
+
+        result.setDurationMs(System.currentTimeMillis() - start);
+        logger.info("Notes of {} histories {} in {} ms, {} bytes stored in {}, {} histories updated meanwhile skipped",
+                result.getHistories(), compress ? "compressed" : "decompressed", result.getDurationMs(),
+                result.getNotesBytes(), result.getStoredBytes(), result.getSkipped());
+        return result;
+    }
+
+    private static void add(NoteMigrationResultDTO result, NoteMigrationResultDTO batch) {
+        result.setHistories(result.getHistories() + batch.getHistories());
+        result.setSkipped(result.getSkipped() + batch.getSkipped());
+        result.setStoredBytes(result.getStoredBytes() + batch.getStoredBytes());
+    }
+
+    /**
+     * Trains a compression dictionary on the notes of random histories, see NoteCodec.train.
+     *
+     * @param sample The number of histories to read.
+     * @param size   The maximum size of the dictionary in bytes.
+     * @return The dictionary, to be set with history.notes.compression.dictionary.
+     * @throws InvalidQueryException if the sample or the size is out of range.
+     */
+    public byte[] trainDictionary(int sample, int size) {
+        if (sample < 2) {
+            throw new InvalidQueryException("Invalid dictionary sample " + sample + ", expected at least 2 histories");
+        }
+        if (size < 1 || size > MAX_DICTIONARY_SIZE) {
+            throw new InvalidQueryException("Invalid dictionary size " + size + ", expected 1 to " + MAX_DICTIONARY_SIZE + " bytes");
+        }
+
+        List<String> notes = historyRepository.sampleNotes(sample).stream()
+                .map(History::getNotes)
+                .filter(Objects::nonNull)
+                .toList();
+        byte[] dictionary = NoteCodec.train(notes, size);
+        logger.info("Notes dictionary {} of {} bytes trained on {} histories",
+                Integer.toHexString(NoteCodec.dictionaryId(dictionary)), dictionary.length, notes.size());
+        return dictionary;
+    }
+}
@@ -0,0 +1,141 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.Exception.HistoryNotFoundException;
+import com.mediscreen.history.Exception.HistoryVersionConflictException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.MapstructMapper;
+import com.mediscreen.history.repository.ReactiveHistoryRepository;
+import org.mapstruct.factory.Mappers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Reactive counterpart of HistoryService, used by the reactive profile.
+ * The reactive writes do not maintain the trigger index, the profile refuses to start with it enabled.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveHistoryService {
+
+    private static Logger logger = LoggerFactory.getLogger(ReactiveHistoryService.class);
+
+    MapstructMapper mapper = Mappers.getMapper(MapstructMapper.class);
+    @Autowired
+    ReactiveHistoryRepository historyRepository;
+
+    public ReactiveHistoryService(@Value("${history.triggers.index.enabled:false}") boolean triggerIndexEnabled) {
+        if (triggerIndexEnabled) {
+            // The patient aggregates would silently drift from the notes written here
+            throw new IllegalStateException("history.triggers.index.enabled is not supported by the reactive profile");
+        }
+    }
+
+    /**
+     * Retrieves a patient history by its ID.
+     *
+     * @param id The ID of the history to retrieve.
+     * @return The patient history as a HistoryDTO object.
+     * @throws HistoryNotFoundException if the history with the given ID is not found.
+     */
+    public Mono<HistoryDTO> getHistoryById(String id) {
+        return historyRepository.findById(id)
+                .map(mapper::historyToDTO)
+                .switchIfEmpty(Mono.error(() -> new HistoryNotFoundException("History not found with ID: " + id)));
+    }
+
+    /**
+     * Retrieves all patient histories associated with a given patient ID.
+     *
+     * @param id The ID of the patient.
+     * @return The patient histories as HistoryDTO objects, empty if the patient has none.
+     */
+    public Flux<HistoryDTO> getHistoryByPatientId(Integer id) {
+        return historyRepository.findByPatId(id).map(mapper::historyToDTO);
+    }
+
+    /**
+     * Retrieves all patient histories, emitted as they are read from the database cursor.
+     *
+     * @return All patient histories as HistoryDTO objects.
+     */
+    public Flux<HistoryDTO> getAllHistories() {
+        return historyRepository.findAll().map(mapper::historyToDTO);
+    }
+
+    /**
+     * Adds a new patient history.
+     *
+     * @param historyDTO The HistoryDTO object containing the information of the new history.
+     * @return true if the history is added successfully, false otherwise.
+     */
+    public Mono<Boolean> addHistory(HistoryDTO historyDTO) {
+        History history = mapper.historyDTOtoEntity(historyDTO);
+        history.setCreationDate(LocalDate.now());
+        history.setVersion(0L);
+        history.setLastModified(Instant.now());
+        return historyRepository.save(history)
+                .map(saved -> true)
+                .onErrorResume(e -> {
+                    logger.error("Failed to add patient history", e);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * Updates an existing patient history with the given ID, in a single atomic operation.
+     * Only the fields set in the HistoryDTO are changed, the others keep their current value.
+     *
+     * @param id         The ID of the history to update.
+     * @param historyDTO The HistoryDTO object with the fields to change.
+     * @return true if the history is updated successfully.
+     * @throws HistoryNotFoundException if the history with the given ID is not found.
+     */
+    public Mono<Boolean> updateHistory(String id, HistoryDTO historyDTO) {
+        return updateHistory(id, historyDTO, null, null);
+    }
+
+    /**
+     * Updates an existing patient history with the given ID if it still has the expected version,
+     * in a single atomic operation, so that concurrent updates cannot overwrite each other.
+     *
+     * @param id                   The ID of the history to update.
+     * @param historyDTO           The HistoryDTO object with the fields to change.
+     * @param expectedVersion      The version read by the client, or null to update any version.
+     * @param expectedLastModified The date of the last write read by the client, or null for any date.
+     * @return true if the history is updated successfully.
+     * @throws HistoryNotFoundException        if the history with the given ID is not found.
+     * @throws HistoryVersionConflictException if the history was changed since the expected version.
+     */
+    public Mono<Boolean> updateHistory(String id, HistoryDTO historyDTO, Long expectedVersion, Instant expectedLastModified) {
+        return historyRepository.updateFields(id, mapper.historyDTOtoEntity(historyDTO), expectedVersion, expectedLastModified)
+                .map(previous -> true)
+                // Nothing matched: the history is missing, or it is no longer at the expected version
+                .switchIfEmpty(Mono.defer(() -> expectedVersion == null ? Mono.just(false) : historyRepository.existsById(id))
+                        .flatMap(exists -> Mono.error(exists
+                                ? new HistoryVersionConflictException("Patient history " + id + " is no longer at version " + expectedVersion)
+                                : new HistoryNotFoundException("Patient history not found with ID: " + id))));
+    }
+
+    /**
+     * Deletes a patient history by its ID, in a single atomic operation.
+     *
+     * @param id The ID of the history to delete.
+     * @return true if the history is deleted successfully.
+     * @throws HistoryNotFoundException if the history with the given ID is not found.
+     */
+    public Mono<Boolean> deleteHistory(String id) {
+        return historyRepository.removeById(id)
+                .map(removed -> true)
+                .switchIfEmpty(Mono.error(() -> new HistoryNotFoundException("Patient history not found with ID: " + id)));
+    }
+}
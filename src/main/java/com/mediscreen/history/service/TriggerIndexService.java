@@ -0,0 +1,202 @@
+package com.mediscreen.history.service;
+
+import com.mediscreen.history.dto.BackfillResultDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.PatientTriggers;
+import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.repository.PatientTriggersRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Service class maintaining the trigger terms of each history when it is written, and the number of notes
+ * containing each term for each patient, so that a risk query is a single document read.
+ * Writes only maintain the index when history.triggers.index.enabled is true. After enabling it,
+ * run the backfill once to index the histories written before.
+ */
+@Service
+@Profile("!reactive")
+public class TriggerIndexService {
+
+    private static Logger logger = LoggerFactory.getLogger(TriggerIndexService.class);
+
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    @Autowired
+    HistoryRepository historyRepository;
+
+    @Autowired
+    PatientTriggersRepository patientTriggersRepository;
+
+    private final boolean enabled;
+
+    private final TriggerTermMatcher matcher;
+
+    /**
+     * Normalized terms of the dictionary, by index in the matcher.
+     */
+    private final List<String> normalizedTerms;
+
+    public TriggerIndexService(@Value("${history.triggers.index.enabled:false}") boolean enabled,
+                               @Value("${history.triggers.terms}") List<String> terms) {
+        this.enabled = enabled;
+        this.matcher = new TriggerTermMatcher(terms);
+        this.normalizedTerms = terms.stream().map(TriggerTermMatcher::normalize).toList();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the trigger terms of the history from its notes, before it is written.
+     * Histories without notes are left untouched.
+     *
+     * @param history The history about to be inserted, or the changes of an update.
+     */
+    public void index(History history) {
+        if (enabled && history.getNotes() != null) {
+            history.setTriggers(triggersOf(history.getNotes()));
+        }
+    }
+
+    /**
+     * Counts the terms of inserted histories in the aggregates of their patients, with one write per patient.
+     *
+     * @param histories The inserted histories.
+     */
+    public void onInsert(List<History> histories) {
+        if (!enabled) {
+            return;
+        }
+
+        Map<Integer, Map<String, Integer>> deltasByPatient = new HashMap<>();
+        for (History history : histories) {
+            addDeltas(deltasByPatient, history.getPatId(), history.getTriggers(), 1);
+        }
+        deltasByPatient.forEach(patientTriggersRepository::increment);
+    }
+
+    /**
+     * Moves the terms of an updated history in the aggregates, when its notes or its patient changed.
+     *
+     * @param previous The history before the update.
+     * @param changes  The changes applied, null fields were left unchanged.
+     */
+    public void onUpdate(History previous, History changes) {
+        if (!enabled) {
+            return;
+        }
+
+        Integer patId = changes.getPatId() != null ? changes.getPatId() : previous.getPatId();
+        List<String> triggers = changes.getTriggers() != null ? changes.getTriggers() : previous.getTriggers();
+        Map<Integer, Map<String, Integer>> deltasByPatient = new HashMap<>();
+        addDeltas(deltasByPatient, previous.getPatId(), previous.getTriggers(), -1);
+        addDeltas(deltasByPatient, patId, triggers, 1);
+        deltasByPatient.forEach(patientTriggersRepository::increment);
+    }
+
+    /**
+     * Removes the terms of a deleted history from the aggregate of its patient.
+     *
+     * @param removed The deleted history.
+     */
+    public void onDelete(History removed) {
+        if (!enabled) {
+            return;
+        }
+
+        Map<Integer, Map<String, Integer>> deltasByPatient = new HashMap<>();
+        addDeltas(deltasByPatient, removed.getPatId(), removed.getTriggers(), -1);
+        deltasByPatient.forEach(patientTriggersRepository::increment);
+    }
+
+    /**
+     * Adds the delta of each term to the deltas of the patient, dropping the terms whose delta falls back to 0.
+     */
+    private static void addDeltas(Map<Integer, Map<String, Integer>> deltasByPatient, Integer patId, List<String> triggers, int delta) {
+        if (patId == null || triggers == null || triggers.isEmpty()) {
+            return;
+        }
+
+        Map<String, Integer> deltas = deltasByPatient.computeIfAbsent(patId, key -> new HashMap<>());
+        for (String trigger : triggers) {
+            if (deltas.merge(trigger, delta, Integer::sum) == 0) {
+                deltas.remove(trigger);
+            }
+        }
+        if (deltas.isEmpty()) {
+            deltasByPatient.remove(patId);
+        }
+    }
+
+    /**
+     * Counts the distinct trigger terms of a patient from its aggregate.
+     *
+     * @param patId The ID of the patient.
+     * @return The number of terms found in at least one note of the patient.
+     */
+    public int countTriggers(Integer patId) {
+        return patientTriggersRepository.findById(patId)
+                .map(PatientTriggers::getCounts)
+                .map(counts -> (int) counts.values().stream().filter(count -> count != null && count > 0).count())
+                .orElse(0);
+    }
+
+    /**
+     * Rebuilds the aggregate of every patient from the trigger terms stored on the histories,
+     * after histories were replaced in bulk.
+     */
+    public void rebuildPatients() {
+        if (enabled) {
+            patientTriggersRepository.rebuildFromHistories();
+        }
+    }
+
+    /**
+     * Computes the trigger terms of every history, then rebuilds the aggregate of every patient.
+     * Only the notes are read, the terms are written in batches.
+     *
+     * @return The number of indexed histories and the duration of the backfill.
+     */
+    public BackfillResultDTO backfill() {
+        long start = System.currentTimeMillis();
+        long count = 0;
+        Map<String, List<String>> batch = new HashMap<>();
+
+        try (Stream<History> histories = historyRepository.streamNotesBy()) {
+            for (History history : (Iterable<History>) histories::iterator) {
+                batch.put(history.getId(), triggersOf(history.getNotes()));
+                count++;
+                if (batch.size() >= BACKFILL_BATCH_SIZE) {
+                    historyRepository.bulkSetTriggers(batch);
+                    batch = new HashMap<>();
+                }
+            }
+        }
+        historyRepository.bulkSetTriggers(batch);
+        patientTriggersRepository.rebuildFromHistories();
+
+        long duration = System.currentTimeMillis() - start;
+        logger.info("Trigger index backfilled for {} histories in {} ms", count, duration);
+        return new BackfillResultDTO(count, duration);
+    }
+
+    List<String> triggersOf(String notes) {
+        BitSet found = matcher.match(notes);
+        List<String> triggers = new ArrayList<>(found.cardinality());
+        found.stream().forEach(index -> triggers.add(normalizedTerms.get(index)));
+        return triggers;
+    }
+}
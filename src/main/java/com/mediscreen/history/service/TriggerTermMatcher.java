@@ -0,0 +1,164 @@
+package com.mediscreen.history.service;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+
+/**
+ * Aho-Corasick automaton finding a fixed dictionary of trigger terms in a text in a single pass,
+ * whatever the number of terms. Terms and texts are normalized the same way: accents removed,
+ * lower case, and every run of characters other than letters and digits replaced by one space.
+ * Terms only match whole words.
+ * Instances are immutable and can be shared between threads.
+ */
+public class TriggerTermMatcher {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final List<String> terms;
+
+    private final Node root = new Node();
+
+    public TriggerTermMatcher(List<String> terms) {
+        this.terms = List.copyOf(terms);
+        for (int i = 0; i < this.terms.size(); i++) {
+            addTerm(normalize(this.terms.get(i)), i);
+        }
+        buildFailureLinks();
+    }
+
+    /**
+     * Normalizes a text for matching: no accents, lower case, single spaces between words.
+     *
+     * @param text The text to normalize.
+     * @return The normalized text, trimmed.
+     */
+    public static String normalize(String text) {
+        String withoutAccents = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(withoutAccents.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /**
+     * Returns the terms of the dictionary, in the order given to the constructor.
+     *
+     * @return The terms, as given.
+     */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    /**
+     * Finds the terms present in the text.
+     *
+     * @param text The text to search, normalized by this method.
+     * @return The indexes of the terms found in the text.
+     */
+    public BitSet match(String text) {
+        BitSet found = new BitSet(terms.size());
+        if (text == null) {
+            return found;
+        }
+
+        String normalized = normalize(text);
+        Node node = root;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            while (node != root && !node.children.containsKey(c)) {
+                node = node.failure;
+            }
+            node = node.children.getOrDefault(c, root);
+
+            for (Node output = node; output != root; output = output.failure) {
+                for (int term : output.terms) {
+                    if (isWholeWord(normalized, i - output.depth + 1, i + 1)) {
+                        found.set(term);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the terms present in any of the texts.
+     *
+     * @param texts The texts to search.
+     * @return The indexes of the terms found in at least one text.
+     */
+    public BitSet match(Iterable<String> texts) {
+        BitSet found = new BitSet(terms.size());
+        for (String text : texts) {
+            found.or(match(text));
+            if (found.cardinality() == terms.size()) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    private static boolean isWholeWord(String text, int start, int end) {
+        return (start == 0 || text.charAt(start - 1) == ' ') && (end == text.length() || text.charAt(end) == ' ');
+    }
+
+    private void addTerm(String term, int index) {
+        if (term.isEmpty()) {
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < term.length(); i++) {
+            Node parent = node;
+            node = parent.children.computeIfAbsent(term.charAt(i), c -> new Node(parent.depth + 1));
+        }
+        node.terms.add(index);
+    }
+
+    private void buildFailureLinks() {
+        Queue<Node> queue = new ArrayDeque<>();
+        for (Node child : root.children.values()) {
+            child.failure = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                Node failure = node.failure;
+                while (failure != root && !failure.children.containsKey(entry.getKey())) {
+                    failure = failure.failure;
+                }
+                Node child = entry.getValue();
+                Node target = failure.children.get(entry.getKey());
+                child.failure = target != null && target != child ? target : root;
+                queue.add(child);
+            }
+        }
+    }
+
+    private static final class Node {
+
+        private final Map<Character, Node> children = new HashMap<>();
+
+        private final List<Integer> terms = new ArrayList<>(1);
+
+        private final int depth;
+
+        private Node failure;
+
+        private Node() {
+            this(0);
+        }
+
+        private Node(int depth) {
+            this.depth = depth;
+            this.failure = this;
+        }
+    }
+}
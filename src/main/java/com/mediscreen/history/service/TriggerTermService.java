@@ -0,0 +1,74 @@
+package com.mediscreen.history.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mediscreen.history.dto.TriggerCountDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.HistoryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Service class counting the trigger terms of the diabetes risk assessment in the notes of a patient.
+ */
+@Service
+@Profile("!reactive")
+public class TriggerTermService {
+
+    @Autowired
+    HistoryRepository historyRepository;
+
+    @Autowired
+    TriggerIndexService triggerIndexService;
+
+    private final TriggerTermMatcher defaultMatcher;
+
+    /**
+     * Matchers of the custom term lists sent by clients, compiled once per list.
+     */
+    private final Cache<List<String>, TriggerTermMatcher> customMatchers = Caffeine.newBuilder()
+            .maximumSize(100)
+            .build();
+
+    public TriggerTermService(@Value("${history.triggers.terms}") List<String> terms) {
+        this.defaultMatcher = new TriggerTermMatcher(terms);
+    }
+
+    /**
+     * Counts the distinct trigger terms found in the notes of a patient, matching ignores case and accents.
+     * The configured terms are read from the patient aggregate of the trigger index when it is enabled,
+     * otherwise only the notes are read from the database and matched here.
+     *
+     * @param patId The ID of the patient.
+     * @param terms The terms to count, or null or empty for the terms of history.triggers.terms.
+     * @return The patient ID with the number of distinct terms found.
+     */
+    public TriggerCountDTO countTriggers(Integer patId, List<String> terms) {
+        if ((terms == null || terms.isEmpty()) && triggerIndexService.isEnabled()) {
+            return new TriggerCountDTO(patId, triggerIndexService.countTriggers(patId));
+        }
+
+        TriggerTermMatcher matcher = getMatcher(terms);
+        List<String> notes = historyRepository.findNotesByPatId(patId).stream()
+                .map(History::getNotes)
+                .toList();
+        return new TriggerCountDTO(patId, matcher.match(notes).cardinality());
+    }
+
+    /**
+     * Returns the matcher of the given terms, or the default matcher when no term is given.
+     *
+     * @param terms The terms to match.
+     * @return The compiled matcher.
+     */
+    public TriggerTermMatcher getMatcher(List<String> terms) {
+        if (terms == null || terms.isEmpty()) {
+            return defaultMatcher;
+        }
+        return customMatchers.get(List.copyOf(terms), TriggerTermMatcher::new);
+    }
+}
@@ -1,10 +1,24 @@
 package com.mediscreen.history;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @SpringBootTest
+@ActiveProfiles("test")
 class HistoryApplicationTests {
 
+    @Autowired
+    private ApplicationContext applicationContext;
 
+    @Test
+    void testServletStack_CreatesOnlyTheBlockingMongoClient() {
+        // THEN
+        assertEquals(1, applicationContext.getBeanNamesForType(com.mongodb.client.MongoClient.class).length);
+        assertEquals(0, applicationContext.getBeanNamesForType(com.mongodb.reactivestreams.client.MongoClient.class).length);
+    }
 }
@@ -0,0 +1,30 @@
+package com.mediscreen.history;
+
+import com.mediscreen.history.service.HistoryService;
+import com.mediscreen.history.service.HistoryWriteBehind;
+import com.mediscreen.history.service.ReactiveHistoryService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+@ActiveProfiles({"test", "reactive"})
+class HistoryReactiveApplicationTests {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Test
+    void testReactiveProfile_CreatesOnlyTheReactiveMongoClient() {
+        // THEN
+        assertEquals(0, applicationContext.getBeanNamesForType(com.mongodb.client.MongoClient.class).length);
+        assertEquals(1, applicationContext.getBeanNamesForType(com.mongodb.reactivestreams.client.MongoClient.class).length);
+        assertEquals(0, applicationContext.getBeanNamesForType(HistoryService.class).length);
+        assertEquals(0, applicationContext.getBeanNamesForType(HistoryWriteBehind.class).length);
+        assertEquals(1, applicationContext.getBeanNamesForType(ReactiveHistoryService.class).length);
+    }
+}
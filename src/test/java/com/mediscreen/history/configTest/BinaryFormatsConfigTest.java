@@ -0,0 +1,89 @@
+package com.mediscreen.history.configTest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.mediscreen.history.controller.HistoryController;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.service.HistoryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class BinaryFormatsConfigTest {
+
+    @Autowired
+    private HttpMessageConverters httpMessageConverters;
+
+    @Mock
+    private HistoryService historyService;
+
+    @InjectMocks
+    private HistoryController historyController;
+
+    private MockMvc mvc;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        mvc = MockMvcBuilders.standaloneSetup(historyController)
+                .setMessageConverters(httpMessageConverters.getConverters().toArray(new HttpMessageConverter<?>[0]))
+                .build();
+
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        historyDTO.setPatId(1);
+        historyDTO.setCreationDate(LocalDate.of(2023, 7, 1));
+        historyDTO.setNotes("Le patient déclare qu'il fume depuis peu");
+        when(historyService.getHistoryById("1", null)).thenReturn(historyDTO);
+    }
+
+    @Test
+    void testGetHistory_DefaultsToJson() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/1").accept(MediaType.ALL))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.creationDate").value("2023-07-01"));
+    }
+
+    @Test
+    void testGetHistory_NegotiatesCborAndSmile() throws Exception {
+        for (ObjectMapper reader : new ObjectMapper[] { new ObjectMapper(new CBORFactory()), new ObjectMapper(new SmileFactory()) }) {
+            // GIVEN
+            MediaType mediaType = MediaType.valueOf(reader.getFactory() instanceof CBORFactory ? "application/cbor" : "application/x-jackson-smile");
+
+            // WHEN
+            byte[] body = mvc.perform(MockMvcRequestBuilders.get("/patHistory/1").accept(mediaType))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentTypeCompatibleWith(mediaType))
+                    .andReturn().getResponse().getContentAsByteArray();
+
+            // THEN
+            // Same content and date format as the JSON response
+            assertEquals("2023-07-01", reader.readTree(body).get("creationDate").asText());
+            assertEquals("Le patient déclare qu'il fume depuis peu", reader.readTree(body).get("notes").asText());
+        }
+    }
+}
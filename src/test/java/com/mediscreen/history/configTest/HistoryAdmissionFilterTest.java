@@ -0,0 +1,258 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.HistoryAdmissionFilter;
+import com.mediscreen.history.config.HistoryAdmissionProperties;
+import com.mediscreen.history.service.HistoryMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryAdmissionFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final HistoryAdmissionProperties properties = new HistoryAdmissionProperties();
+
+    private final FilterChain ok = (req, res) -> ((HttpServletResponse) res).setStatus(200);
+
+    @BeforeEach
+    void setUp() {
+        properties.setEnabled(true);
+        properties.setRead(new HistoryAdmissionProperties.Rate(2, 0.001));
+        properties.setWrite(new HistoryAdmissionProperties.Rate(2, 0.001));
+        properties.setExpensive(new HistoryAdmissionProperties.Rate(10, 0.001));
+    }
+
+    private HistoryAdmissionFilter filter() {
+        return new HistoryAdmissionFilter(properties, new HistoryMetrics(meterRegistry));
+    }
+
+    private MockHttpServletResponse send(HistoryAdmissionFilter filter, MockHttpServletRequest request, FilterChain chain)
+            throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    private double rejected(String admissionClass, String reason) {
+        return meterRegistry.get("history.admission.rejected")
+                .tag("class", admissionClass).tag("reason", reason).counter().count();
+    }
+
+    @Test
+    void testDoFilter_ClientOverItsRate_Returns429WithRetryAfter() throws Exception {
+        // GIVEN
+        HistoryAdmissionFilter filter = filter();
+        send(filter, new MockHttpServletRequest("GET", "/patHistory/1"), ok);
+        send(filter, new MockHttpServletRequest("GET", "/patHistory/1"), ok);
+
+        // WHEN
+        MockHttpServletResponse response = send(filter, new MockHttpServletRequest("GET", "/patHistory/1"), ok);
+
+        // THEN
+        assertEquals(429, response.getStatus());
+        assertTrue(Long.parseLong(response.getHeader("Retry-After")) > 1);
+        assertEquals(1, rejected("read", "rate"));
+    }
+
+    @Test
+    void testDoFilter_ClientsHaveTheirOwnBuckets() throws Exception {
+        // GIVEN
+        properties.setClientHeader("X-Client-Id");
+        HistoryAdmissionFilter filter = filter();
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/patHistory/1");
+            request.addHeader("X-Client-Id", "noisy");
+            send(filter, request, ok);
+        }
+        MockHttpServletRequest other = new MockHttpServletRequest("GET", "/patHistory/1");
+        other.addHeader("X-Client-Id", "quiet");
+
+        // WHEN
+        MockHttpServletResponse response = send(filter, other, ok);
+
+        // THEN
+        assertEquals(200, response.getStatus());
+        // the writes have their own bucket too
+        assertEquals(200, send(filter, new MockHttpServletRequest("POST", "/patHistory/add"), ok).getStatus());
+    }
+
+    @Test
+    void testDoFilter_TooManyExpensiveRequests_Returns503() throws Exception {
+        // GIVEN
+        properties.setMaxConcurrentExpensive(1);
+        HistoryAdmissionFilter filter = filter();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<MockHttpServletResponse> first = executor.submit(() -> send(filter,
+                    new MockHttpServletRequest("GET", "/patHistory/all"), (req, res) -> {
+                        running.countDown();
+                        try {
+                            finish.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }));
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+
+            // WHEN
+            MockHttpServletResponse second = send(filter, new MockHttpServletRequest("GET", "/patHistory/search"), ok);
+            MockHttpServletResponse read = send(filter, new MockHttpServletRequest("GET", "/patHistory/1"), ok);
+            finish.countDown();
+            first.get(5, TimeUnit.SECONDS);
+
+            // THEN
+            assertEquals(503, second.getStatus());
+            assertEquals("1", second.getHeader("Retry-After"));
+            assertEquals(200, read.getStatus());
+            assertEquals(1, rejected("expensive", "concurrency"));
+            assertEquals(200, send(filter, new MockHttpServletRequest("GET", "/patHistory/all"), ok).getStatus());
+        } finally {
+            finish.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testDoFilter_AboveShedThreshold_AdmitsOnlySingleHistoryReads() throws Exception {
+        // GIVEN
+        properties.setShedThreshold(0);
+        HistoryAdmissionFilter filter = filter();
+
+        // WHEN
+        MockHttpServletResponse write = send(filter, new MockHttpServletRequest("PUT", "/patHistory/update"), ok);
+        MockHttpServletResponse list = send(filter, new MockHttpServletRequest("GET", "/patHistory"), ok);
+        MockHttpServletResponse read = send(filter,
+                new MockHttpServletRequest("GET", "/patHistory/64bd7c1f2a9e4b0c8d3f5a61"), ok);
+
+        // THEN
+        assertEquals(503, write.getStatus());
+        assertEquals(503, list.getStatus());
+        assertEquals(200, read.getStatus());
+        assertEquals(1, rejected("write", "shed"));
+        assertEquals(1, rejected("read", "shed"));
+    }
+
+    @Test
+    void testDoFilter_ForwardedForHeader_KeysOnTheEntryOfTheTrustedProxy() throws Exception {
+        // GIVEN
+        // The gateway appends the address of the client to the X-Forwarded-For it sends
+        properties.setClientHeader("X-Forwarded-For");
+        HistoryAdmissionFilter filter = filter();
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/patHistory/1");
+            request.addHeader("X-Forwarded-For", "10.0.0.1");
+            send(filter, request, ok);
+        }
+        // the client forges a new first entry to get a fresh bucket
+        MockHttpServletRequest sameClient = new MockHttpServletRequest("GET", "/patHistory/1");
+        sameClient.addHeader("X-Forwarded-For", "192.168.1.1, 10.0.0.1");
+        MockHttpServletRequest otherClient = new MockHttpServletRequest("GET", "/patHistory/1");
+        otherClient.addHeader("X-Forwarded-For", "10.0.0.1, 10.0.0.2");
+
+        // WHEN
+        MockHttpServletResponse same = send(filter, sameClient, ok);
+        MockHttpServletResponse other = send(filter, otherClient, ok);
+
+        // THEN
+        assertEquals(429, same.getStatus());
+        assertEquals(200, other.getStatus());
+    }
+
+    @Test
+    void testDoFilter_ForwardedForHeaderBehindTwoProxies_KeysOnTheSecondEntryFromTheRight() throws Exception {
+        // GIVEN
+        properties.setClientHeader("X-Forwarded-For");
+        properties.setTrustedProxies(2);
+        HistoryAdmissionFilter filter = filter();
+        for (int i = 0; i < 2; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/patHistory/1");
+            request.addHeader("X-Forwarded-For", "10.0.0.1, 10.0.0.254");
+            send(filter, request, ok);
+        }
+        MockHttpServletRequest sameClient = new MockHttpServletRequest("GET", "/patHistory/1");
+        sameClient.addHeader("X-Forwarded-For", "192.168.1.1, 10.0.0.1, 10.0.0.254");
+
+        // WHEN
+        MockHttpServletResponse same = send(filter, sameClient, ok);
+
+        // THEN
+        assertEquals(429, same.getStatus());
+    }
+
+    @Test
+    void testDoFilter_StreamingRequest_RateLimitedButDoesNotHoldASlot() throws Exception {
+        // GIVEN
+        properties.setMaxConcurrentExpensive(1);
+        properties.setExpensive(new HistoryAdmissionProperties.Rate(2, 0.001));
+        HistoryAdmissionFilter filter = filter();
+        MockHttpServletRequest changes = new MockHttpServletRequest("GET", "/patHistory/changes");
+        changes.setAsyncSupported(true);
+        send(filter, changes, (req, res) -> req.startAsync());
+
+        // WHEN
+        MockHttpServletResponse scan = send(filter, new MockHttpServletRequest("GET", "/patHistory/all"), ok);
+        MockHttpServletResponse reconnect = send(filter, new MockHttpServletRequest("GET", "/patHistory/changes"), ok);
+
+        // THEN
+        assertEquals(200, scan.getStatus());
+        assertEquals(429, reconnect.getStatus());
+        assertEquals(1, rejected("expensive", "rate"));
+    }
+
+    @Test
+    void testDoFilter_AsyncRequest_HoldsItsSlotUntilComplete() throws Exception {
+        // GIVEN
+        properties.setMaxConcurrentExpensive(1);
+        HistoryAdmissionFilter filter = filter();
+        MockHttpServletRequest streaming = new MockHttpServletRequest("GET", "/admin/patHistory/export");
+        streaming.setAsyncSupported(true);
+        send(filter, streaming, (req, res) -> req.startAsync());
+
+        // WHEN
+        MockHttpServletResponse during = send(filter, new MockHttpServletRequest("GET", "/patHistory/all"), ok);
+        ((MockAsyncContext) streaming.getAsyncContext()).complete();
+        MockHttpServletResponse after = send(filter, new MockHttpServletRequest("GET", "/patHistory/all"), ok);
+
+        // THEN
+        assertEquals(503, during.getStatus());
+        assertEquals(200, after.getStatus());
+    }
+
+    @Test
+    void testDoFilter_ExemptOrDisabled_NotLimited() throws Exception {
+        // GIVEN
+        HistoryAdmissionFilter filter = filter();
+
+        // WHEN
+        properties.setExemptPaths(List.of("/patHistory/cache/stats"));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, send(filter, new MockHttpServletRequest("GET", "/patHistory/cache/stats"), ok).getStatus());
+        }
+        properties.setEnabled(false);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, send(filter, new MockHttpServletRequest("GET", "/patHistory/1"), ok).getStatus());
+        }
+
+        // THEN
+        assertNull(meterRegistry.find("history.admission.rejected").counter());
+    }
+}
@@ -0,0 +1,65 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.HistoryMongoProperties;
+import com.mediscreen.history.config.HistoryReadRouting;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryReadRoutingTest {
+
+    private static HistoryMongoProperties.Read read(String preference, long maxStalenessSeconds, String concern) {
+        HistoryMongoProperties.Read read = new HistoryMongoProperties.Read();
+        read.setPreference(preference);
+        read.setMaxStalenessSeconds(maxStalenessSeconds);
+        read.setConcern(concern);
+        return read;
+    }
+
+    @Test
+    void testRoute_ConfiguredRead_SetsPreferenceAndConcern() {
+        // GIVEN
+        HistoryMongoProperties properties = new HistoryMongoProperties();
+        properties.getReads().put(HistoryReadRouting.PATIENT, read("secondaryPreferred", 90, null));
+        properties.getReads().put(HistoryReadRouting.ALL, read("secondary", 0, "majority"));
+        HistoryReadRouting routing = new HistoryReadRouting(properties);
+
+        // WHEN
+        Query patient = routing.route(HistoryReadRouting.PATIENT, new Query());
+        Query all = routing.route(HistoryReadRouting.ALL, new Query());
+
+        // THEN
+        assertEquals(ReadPreference.secondaryPreferred(90, TimeUnit.SECONDS), patient.getReadPreference());
+        assertFalse(patient.hasReadConcern());
+        assertEquals(ReadPreference.secondary(), all.getReadPreference());
+        assertEquals(ReadConcern.MAJORITY, all.getReadConcern());
+    }
+
+    @Test
+    void testRoute_UnconfiguredRead_KeepsClientDefaults() {
+        // GIVEN
+        HistoryReadRouting routing = new HistoryReadRouting(new HistoryMongoProperties());
+
+        // WHEN
+        Query query = routing.route(HistoryReadRouting.PATIENT, new Query());
+
+        // THEN
+        assertFalse(query.hasReadPreference());
+        assertFalse(query.hasReadConcern());
+    }
+
+    @Test
+    void testHistoryReadRouting_UnknownPreference_FailsAtStartup() {
+        // GIVEN
+        HistoryMongoProperties properties = new HistoryMongoProperties();
+        properties.getReads().put(HistoryReadRouting.ALL, read("secondaries", 0, null));
+
+        // WHEN THEN
+        assertThrows(IllegalArgumentException.class, () -> new HistoryReadRouting(properties));
+    }
+}
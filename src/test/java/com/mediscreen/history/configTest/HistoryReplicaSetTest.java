@@ -0,0 +1,178 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.HistoryMongoProperties;
+import com.mediscreen.history.config.HistoryReadRouting;
+import com.mediscreen.history.config.MongoClientConfig;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.HistoryRepositoryImpl;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.connection.ServerDescription;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import de.flapdoodle.embed.mongo.commands.MongodArguments;
+import de.flapdoodle.embed.mongo.commands.ServerAddress;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.config.Storage;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.mongo.transitions.Mongod;
+import de.flapdoodle.embed.mongo.transitions.RunningMongodProcess;
+import de.flapdoodle.reverse.TransitionWalker;
+import de.flapdoodle.reverse.transitions.Start;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the read routing and the write concern against a three node replica set started with the embedded MongoDB.
+ * Disabled by default because the embedded MongoDB is downloaded on its first run and the nodes take a while to start,
+ * run with -Dhistory.replica-set.test=true.
+ */
+@EnabledIfSystemProperty(named = "history.replica-set.test", matches = "true")
+class HistoryReplicaSetTest {
+
+    private static final String REPLICA_SET = "rs0";
+
+    private static final List<TransitionWalker.ReachedState<RunningMongodProcess>> nodes = new ArrayList<>();
+
+    private static final List<CommandStartedEvent> finds = new CopyOnWriteArrayList<>();
+
+    private static MongoClient client;
+
+    private static MongoTemplate mongoTemplate;
+
+    private HistoryRepositoryImpl historyRepository;
+
+    @BeforeAll
+    static void startReplicaSet() throws Exception {
+        List<String> hosts = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int port = de.flapdoodle.net.Net.freeServerPort();
+            nodes.add(Mongod.instance()
+                    .withNet(Start.to(Net.class).initializedWith(Net.of("localhost", port, false)))
+                    .withMongodArguments(Start.to(MongodArguments.class)
+                            .initializedWith(MongodArguments.defaults().withReplication(Storage.of(REPLICA_SET, 0))))
+                    .start(Version.Main.V6_0));
+            ServerAddress address = nodes.get(i).current().getServerAddress();
+            hosts.add(address.getHost() + ":" + address.getPort());
+        }
+
+        List<Document> members = new ArrayList<>();
+        for (int i = 0; i < hosts.size(); i++) {
+            members.add(new Document("_id", i).append("host", hosts.get(i)));
+        }
+        try (MongoClient direct = MongoClients.create("mongodb://" + hosts.get(0) + "/?directConnection=true")) {
+            direct.getDatabase("admin").runCommand(new Document("replSetInitiate",
+                    new Document("_id", REPLICA_SET).append("members", members)));
+        }
+
+        // Every write waits for the three nodes, so that any secondary holds it
+        HistoryMongoProperties properties = new HistoryMongoProperties();
+        properties.setWriteConcern("w3");
+        properties.setWriteConcernTimeoutMs(10000);
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString("mongodb://" + String.join(",", hosts) + "/?replicaSet=" + REPLICA_SET))
+                .addCommandListener(new CommandListener() {
+                    @Override
+                    public void commandStarted(CommandStartedEvent event) {
+                        if ("find".equals(event.getCommandName())) {
+                            finds.add(event);
+                        }
+                    }
+                });
+        new MongoClientConfig().historyMongoClientSettings(properties).customize(builder);
+        client = MongoClients.create(builder.build());
+        mongoTemplate = new MongoTemplate(client, "patientHistoryReplicaSet");
+    }
+
+    @AfterAll
+    static void stopReplicaSet() {
+        if (client != null) {
+            client.close();
+        }
+        Collections.reverse(nodes);
+        nodes.forEach(TransitionWalker.ReachedState::close);
+    }
+
+    @BeforeEach
+    void setUp() {
+        HistoryMongoProperties properties = new HistoryMongoProperties();
+        HistoryMongoProperties.Read patient = new HistoryMongoProperties.Read();
+        patient.setPreference("secondary");
+        patient.setConcern("majority");
+        properties.getReads().put(HistoryReadRouting.PATIENT, patient);
+
+        historyRepository = new HistoryRepositoryImpl();
+        ReflectionTestUtils.setField(historyRepository, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(historyRepository, "readRouting", new HistoryReadRouting(properties));
+        mongoTemplate.remove(new Query(), History.class);
+        finds.clear();
+    }
+
+    private static History history(Integer patId, String notes) {
+        History history = new History();
+        history.setPatId(patId);
+        history.setPatient("Ferguson");
+        history.setCreationDate(LocalDate.now());
+        history.setNotes(notes);
+        return history;
+    }
+
+    private static Set<com.mongodb.ServerAddress> primaries() {
+        return client.getClusterDescription().getServerDescriptions().stream()
+                .filter(ServerDescription::isPrimary)
+                .map(ServerDescription::getAddress)
+                .collect(Collectors.toSet());
+    }
+
+    @Test
+    void testFindByPatId_PatientRead_IsSentToASecondaryWithItsReadConcern() {
+        // GIVEN
+        mongoTemplate.insert(history(1, "Fumeur"));
+        mongoTemplate.insert(history(1, "Vertiges"));
+
+        // WHEN
+        List<History> histories = historyRepository.findByPatId(1);
+
+        // THEN
+        assertEquals(2, histories.size());
+        CommandStartedEvent find = finds.get(finds.size() - 1);
+        assertFalse(primaries().contains(find.getConnectionDescription().getServerAddress()));
+        assertEquals(new Document("level", "majority"), find.getCommand().get("readConcern"));
+    }
+
+    @Test
+    void testFindByIdWithFields_UnroutedRead_IsSentToThePrimary() {
+        // GIVEN
+        History inserted = mongoTemplate.insert(history(2, "Microalbumine"));
+
+        // WHEN
+        History history = historyRepository.findByIdWithFields(inserted.getId(), null);
+
+        // THEN
+        assertNotNull(history);
+        CommandStartedEvent find = finds.get(finds.size() - 1);
+        assertTrue(primaries().contains(find.getConnectionDescription().getServerAddress()));
+    }
+}
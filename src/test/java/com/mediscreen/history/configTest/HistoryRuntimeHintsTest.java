@@ -0,0 +1,36 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.HistoryRuntimeHints;
+import com.mediscreen.history.dto.HistoryChangeDTO;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.PatientTriggers;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryRuntimeHintsTest {
+
+    @Test
+    void testRegisterHints_CoversMapperDtosAndDocuments() throws NoSuchMethodException {
+        // GIVEN
+        RuntimeHints hints = new RuntimeHints();
+
+        // WHEN
+        new HistoryRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        // THEN
+        // Mappers.getMapper can instantiate the generated mapper
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("com.mediscreen.history.model.MapstructMapperImpl")).test(hints));
+        // Jackson can bind the DTOs written outside of controller return types
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(HistoryChangeDTO.class.getMethod("getResumeToken")).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(HistoryDTO.class.getMethod("setNotes", String.class)).test(hints));
+        // Spring Data can map the documents only read through MongoTemplate
+        assertTrue(RuntimeHintsPredicates.reflection().onType(PatientTriggers.class).test(hints));
+        // The bundled notes dictionary is in the image
+        assertTrue(RuntimeHintsPredicates.resource().forResource("notes.dict").test(hints));
+    }
+}
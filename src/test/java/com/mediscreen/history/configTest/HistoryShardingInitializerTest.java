@@ -0,0 +1,90 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.HistoryShardingInitializer;
+import com.mediscreen.history.model.History;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class HistoryShardingInitializerTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private IndexOperations indexOperations;
+
+    @Mock
+    private MongoDatabaseFactory databaseFactory;
+
+    @Mock
+    private MongoDatabase database;
+
+    @Mock
+    private MongoDatabase adminDatabase;
+
+    @InjectMocks
+    private HistoryShardingInitializer historyShardingInitializer;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(mongoTemplate.getDb()).thenReturn(database);
+        when(database.getName()).thenReturn("patientHistory");
+        when(mongoTemplate.getCollectionName(History.class)).thenReturn("histories");
+        when(mongoTemplate.indexOps(History.class)).thenReturn(indexOperations);
+        when(mongoTemplate.getMongoDatabaseFactory()).thenReturn(databaseFactory);
+        when(databaseFactory.getMongoDatabase("admin")).thenReturn(adminDatabase);
+    }
+
+    @Test
+    void testShardHistories_CreatesHashedIndexAndShardsCollection() {
+        // WHEN
+        historyShardingInitializer.shardHistories();
+
+        // THEN
+        ArgumentCaptor<IndexDefinition> index = ArgumentCaptor.forClass(IndexDefinition.class);
+        verify(indexOperations).ensureIndex(index.capture());
+        assertEquals(new Document("patId", "hashed"), index.getValue().getIndexKeys());
+
+        ArgumentCaptor<Document> commands = ArgumentCaptor.forClass(Document.class);
+        verify(adminDatabase, times(2)).runCommand(commands.capture());
+        assertEquals(new Document("enableSharding", "patientHistory"), commands.getAllValues().get(0));
+        assertEquals(new Document("shardCollection", "patientHistory.histories").append("key", new Document("patId", "hashed")),
+                commands.getAllValues().get(1));
+    }
+
+    @Test
+    void testShardHistories_NotARouter_DoesNotFailTheStartup() {
+        // GIVEN
+        // A replica set member does not know the sharding commands
+        BsonDocument response = new BsonDocument("ok", new BsonInt32(0)).append("code", new BsonInt32(59))
+                .append("errmsg", new BsonString("no such command: 'enableSharding'"));
+        when(adminDatabase.runCommand(any(Document.class)))
+                .thenThrow(new MongoCommandException(response, new ServerAddress()));
+
+        // WHEN
+        assertDoesNotThrow(() -> historyShardingInitializer.shardHistories());
+
+        // THEN
+        verify(adminDatabase, times(1)).runCommand(any(Document.class));
+    }
+}
@@ -0,0 +1,63 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.HistoryMongoProperties;
+import com.mediscreen.history.config.MongoClientConfig;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.WriteConcern;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MongoClientConfigTest {
+
+    @Test
+    void testHistoryMongoClientSettings_AppliesPoolAndSocketProperties() {
+        // GIVEN
+        HistoryMongoProperties properties = new HistoryMongoProperties();
+        properties.getPool().setMaxSize(200);
+        properties.getPool().setMaxWaitTimeMs(2000);
+        properties.getSocket().setReadTimeoutMs(15000);
+        properties.setServerSelectionTimeoutMs(5000);
+        MongoClientSettings.Builder builder = MongoClientSettings.builder();
+
+        // WHEN
+        new MongoClientConfig().historyMongoClientSettings(properties).customize(builder);
+        MongoClientSettings settings = builder.build();
+
+        // THEN
+        assertEquals(200, settings.getConnectionPoolSettings().getMaxSize());
+        assertEquals(2000, settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS));
+        assertEquals(15000, settings.getSocketSettings().getReadTimeout(TimeUnit.MILLISECONDS));
+        assertEquals(5000, settings.getClusterSettings().getServerSelectionTimeout(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testHistoryMongoClientSettings_AppliesWriteConcern() {
+        // GIVEN
+        HistoryMongoProperties properties = new HistoryMongoProperties();
+        properties.setWriteConcern("majority");
+        properties.setWriteConcernTimeoutMs(5000);
+        MongoClientSettings.Builder builder = MongoClientSettings.builder();
+
+        // WHEN
+        new MongoClientConfig().historyMongoClientSettings(properties).customize(builder);
+        MongoClientSettings settings = builder.build();
+
+        // THEN
+        assertEquals(WriteConcern.MAJORITY.withWTimeout(5000, TimeUnit.MILLISECONDS), settings.getWriteConcern());
+    }
+
+    @Test
+    void testHistoryMongoClientSettings_UnknownWriteConcern_Throws() {
+        // GIVEN
+        HistoryMongoProperties properties = new HistoryMongoProperties();
+        properties.setWriteConcern("everyone");
+
+        // WHEN THEN
+        assertThrows(IllegalArgumentException.class,
+                () -> new MongoClientConfig().historyMongoClientSettings(properties).customize(MongoClientSettings.builder()));
+    }
+}
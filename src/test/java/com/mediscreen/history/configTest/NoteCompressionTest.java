@@ -0,0 +1,159 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.NoteCompression;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.NoteCodec;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NoteCompressionTest {
+
+    private static final String NOTES = "Le patient déclare qu'il se sent fatigué pendant la journée\n"
+            + "Il se plaint également de douleurs musculaires\nTests de laboratoire indiquant une microalbumine élevée";
+
+    private final NoteCompression enabled = new NoteCompression(true, "", List.of());
+
+    private final NoteCompression disabled = new NoteCompression(false, "", List.of());
+
+    private static Document document(String notes) {
+        return new Document("_id", "1").append("patId", 1).append("notes", notes);
+    }
+
+    @Test
+    void testOnBeforeSave_Enabled_StoresCompressedNotesOnly() {
+        // GIVEN
+        Document document = document(NOTES);
+
+        // WHEN
+        enabled.onBeforeSave(new History(), document, "histories");
+
+        // THEN
+        assertFalse(document.containsKey("notes"));
+        byte[] compressed = (byte[]) document.get("compressedNotes");
+        assertTrue(compressed.length < NOTES.getBytes(StandardCharsets.UTF_8).length / 2);
+        assertEquals(NOTES, NoteCodec.decompress(compressed));
+    }
+
+    @Test
+    void testOnBeforeSave_Disabled_StoresNotesUnchanged() {
+        // GIVEN
+        Document document = document(NOTES);
+
+        // WHEN
+        disabled.onBeforeSave(new History(), document, "histories");
+
+        // THEN
+        assertEquals(NOTES, document.get("notes"));
+        assertFalse(document.containsKey("compressedNotes"));
+    }
+
+    @Test
+    void testOnBeforeSave_NotesNotSmallerCompressed_StoredUncompressed() {
+        // GIVEN
+        Document document = document("ok");
+
+        // WHEN
+        enabled.onBeforeSave(new History(), document, "histories");
+
+        // THEN
+        assertEquals("ok", document.get("notes"));
+        assertFalse(document.containsKey("compressedNotes"));
+    }
+
+    @Test
+    void testOnBeforeSave_HistoryReadCompressed_KeepsOneForm() {
+        // GIVEN
+        byte[] compressed = enabled.compress(NOTES);
+        Document enabledDocument = document(NOTES).append("compressedNotes", compressed);
+        Document disabledDocument = document(NOTES).append("compressedNotes", compressed);
+
+        // WHEN
+        enabled.onBeforeSave(new History(), enabledDocument, "histories");
+        disabled.onBeforeSave(new History(), disabledDocument, "histories");
+
+        // THEN
+        assertFalse(enabledDocument.containsKey("notes"));
+        assertArrayEquals(compressed, (byte[]) enabledDocument.get("compressedNotes"));
+        assertEquals(NOTES, disabledDocument.get("notes"));
+        assertFalse(disabledDocument.containsKey("compressedNotes"));
+    }
+
+    @Test
+    void testSetNotes_SetsOneFormAndUnsetsTheOther() {
+        // GIVEN
+        Update compressedUpdate = new Update();
+        Update plainUpdate = new Update();
+
+        // WHEN
+        int compressedBytes = enabled.setNotes(compressedUpdate, NOTES);
+        int plainBytes = disabled.setNotes(plainUpdate, NOTES);
+
+        // THEN
+        Document compressedSet = (Document) compressedUpdate.getUpdateObject().get("$set");
+        assertEquals(NOTES, NoteCodec.decompress((byte[]) compressedSet.get("compressedNotes")));
+        assertEquals(compressedBytes, ((byte[]) compressedSet.get("compressedNotes")).length);
+        assertTrue(((Document) compressedUpdate.getUpdateObject().get("$unset")).containsKey("notes"));
+        assertEquals(NOTES, ((Document) plainUpdate.getUpdateObject().get("$set")).get("notes"));
+        assertEquals(NOTES.getBytes(StandardCharsets.UTF_8).length, plainBytes);
+        assertTrue(((Document) plainUpdate.getUpdateObject().get("$unset")).containsKey("compressedNotes"));
+    }
+
+    @Test
+    void testGetNotes_ReadCompressed_DecompressedOnFirstRead() {
+        // GIVEN
+        History history = new History();
+        // Spring Data sets the fields directly
+        ReflectionTestUtils.setField(history, "compressedNotes", enabled.compress(NOTES));
+        assertNull(ReflectionTestUtils.getField(history, "notes"));
+
+        // WHEN
+        String notes = history.getNotes();
+        history.setNotes("Poids");
+
+        // THEN
+        assertEquals(NOTES, notes);
+        assertNull(history.getCompressedNotes());
+        assertEquals("Poids", history.getNotes());
+    }
+
+    @Test
+    void testDecompress_UnknownDictionary_Throws() {
+        // GIVEN
+        byte[] compressed = NoteCodec.compress(NOTES, "not a registered dictionary".getBytes(StandardCharsets.UTF_8));
+
+        // WHEN
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> NoteCodec.decompress(compressed));
+
+        // THEN
+        assertTrue(exception.getMessage().startsWith("Unknown notes dictionary"));
+    }
+
+    @Test
+    void testTrain_KeepsSequencesSharedByNotes() {
+        // GIVEN
+        List<String> notes = List.of("Le patient déclare qu'il fume", "Le patient déclare qu'il a des vertiges",
+                "Le patient déclare qu'il se sent bien", "Taille normale");
+
+        // WHEN
+        byte[] dictionary = NoteCodec.train(notes, 1024);
+
+        // THEN
+        String text = new String(dictionary, StandardCharsets.UTF_8);
+        assertTrue(text.contains("Le patient déclare qu'il "));
+        assertFalse(text.contains("Taille"));
+        NoteCodec.register(dictionary);
+        assertEquals(notes.get(1), NoteCodec.decompress(NoteCodec.compress(notes.get(1), dictionary)));
+    }
+}
@@ -0,0 +1,78 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.ReactiveHistoryIndexInitializer;
+import com.mediscreen.history.model.History;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ReactiveHistoryIndexInitializerTest {
+
+    @Mock
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Mock
+    private MongoConverter converter;
+
+    @Mock
+    private ReactiveIndexOperations indexOperations;
+
+    @InjectMocks
+    private ReactiveHistoryIndexInitializer historyIndexInitializer;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        doReturn(mappingContext).when(converter).getMappingContext();
+        when(reactiveMongoTemplate.getConverter()).thenReturn(converter);
+        when(reactiveMongoTemplate.indexOps(History.class)).thenReturn(indexOperations);
+        when(indexOperations.dropIndex(any())).thenReturn(Mono.empty());
+        when(indexOperations.ensureIndex(any())).thenAnswer(invocation -> Mono.just("index"));
+    }
+
+    @Test
+    void testCreateIndexes_DropsNotesIndexAndCreatesPatientAndTextIndexes() {
+        // GIVEN
+        // The collection still has the legacy index on the notes
+        IndexInfo idIndex = new IndexInfo(List.of(IndexField.create("_id", Sort.Direction.ASC)), "_id_", true, false, "");
+        IndexInfo notesIndex = new IndexInfo(List.of(IndexField.create("notes", Sort.Direction.ASC)), "notes", false, false, "");
+        when(indexOperations.getIndexInfo()).thenReturn(Flux.just(idIndex, notesIndex));
+
+        // WHEN
+        historyIndexInitializer.createIndexes();
+
+        // THEN
+        // The notes index is dropped, the patient, creation date and French text indexes are created
+        verify(indexOperations).dropIndex("notes");
+        verify(indexOperations, never()).dropIndex("_id_");
+        ArgumentCaptor<IndexDefinition> index = ArgumentCaptor.forClass(IndexDefinition.class);
+        verify(indexOperations, times(3)).ensureIndex(index.capture());
+        assertTrue(index.getAllValues().stream()
+                .anyMatch(definition -> definition.getIndexKeys().equals(Document.parse("{'patId': 1, 'creationDate': -1, '_id': 1}"))));
+        assertTrue(index.getAllValues().stream()
+                .anyMatch(definition -> definition.getIndexKeys().equals(Document.parse("{'notes': 'text'}"))));
+    }
+}
@@ -0,0 +1,55 @@
+package com.mediscreen.history.configTest;
+
+import com.mediscreen.history.config.ResponseSizeMetricsFilter;
+import com.mediscreen.history.service.HistoryMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResponseSizeMetricsFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ResponseSizeMetricsFilter filter = new ResponseSizeMetricsFilter(new HistoryMetrics(meterRegistry));
+
+    @Test
+    void testDoFilter_RecordsBytesWrittenPerUriTemplate() throws Exception {
+        // GIVEN
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/patHistory/1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setCharacterEncoding("UTF-8");
+        FilterChain chain = (req, res) -> {
+            req.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/patHistory/{id}");
+            res.getOutputStream().write("{\"id\":\"1\"}".getBytes(StandardCharsets.UTF_8));
+            res.getWriter().write("é");
+        };
+
+        // WHEN
+        filter.doFilter(request, response, chain);
+
+        // THEN
+        assertEquals(12, meterRegistry.get("history.response.size").tag("uri", "/patHistory/{id}").summary().totalAmount());
+        assertEquals("{\"id\":\"1\"}é", response.getContentAsString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testDoFilter_UnmatchedRequest_RecordsNothing() throws Exception {
+        // GIVEN
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/unknown");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // WHEN
+        filter.doFilter(request, response, (req, res) -> res.getOutputStream().write(1));
+
+        // THEN
+        assertNull(meterRegistry.find("history.response.size").summary());
+    }
+}
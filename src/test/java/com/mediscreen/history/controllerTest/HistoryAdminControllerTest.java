@@ -0,0 +1,141 @@
+package com.mediscreen.history.controllerTest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mediscreen.history.controller.HistoryAdminController;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.ImportResultDTO;
+import com.mediscreen.history.dto.NoteMigrationResultDTO;
+import com.mediscreen.history.service.HistoryTransferService;
+import com.mediscreen.history.service.NoteCompressionService;
+import com.mediscreen.history.service.TriggerIndexService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+class HistoryAdminControllerTest {
+
+    @Mock
+    private TriggerIndexService triggerIndexService;
+
+    @Mock
+    private HistoryTransferService historyTransferService;
+
+    @Mock
+    private NoteCompressionService noteCompressionService;
+
+    @InjectMocks
+    private HistoryAdminController historyAdminController;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(historyAdminController, "objectMapper", new ObjectMapper().findAndRegisterModules());
+    }
+
+    @Test
+    void testExportHistories_Gzip_WritesOneHistoryPerLine() throws IOException {
+        // GIVEN
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        historyDTO.setPatId(1);
+        historyDTO.setNotes("Le patient déclare qu'il « se sent très bien »");
+        doAnswer(invocation -> {
+            Consumer<HistoryDTO> consumer = invocation.getArgument(2);
+            consumer.accept(historyDTO);
+            consumer.accept(historyDTO);
+            return 2L;
+        }).when(historyTransferService).exportHistories(isNull(), eq(false), any());
+
+        // WHEN
+        ResponseEntity<StreamingResponseBody> response = historyAdminController.exportHistories(null, true, false);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        response.getBody().writeTo(output);
+
+        // THEN
+        assertEquals("application/gzip", response.getHeaders().getContentType().toString());
+        assertTrue(response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION).contains("histories.ndjson.gz"));
+        String ndjson = new String(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())).readAllBytes(), StandardCharsets.UTF_8);
+        String[] lines = ndjson.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"notes\":\"Le patient déclare qu'il « se sent très bien »\""));
+    }
+
+    @Test
+    void testImportHistories_GzipBody_IsParsedIncrementally() throws IOException {
+        // GIVEN
+        // A gzipped seed file, without IDs
+        String ndjson = "{\"patId\": 1, \"patient\": \"Ferguson\", \"creationDate\": \"2023-07-23\", \"notes\": \"Fumeur\"}\n"
+                + "{\"patId\": 2, \"patient\": \"Rees\", \"creationDate\": \"2023-07-23\", \"notes\": \"Vertiges\"}\n";
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(ndjson.getBytes(StandardCharsets.UTF_8));
+        }
+        List<HistoryDTO> imported = new ArrayList<>();
+        ImportResultDTO result = new ImportResultDTO();
+        when(historyTransferService.importHistories(eq("import-1"), any())).thenAnswer(invocation -> {
+            Iterator<HistoryDTO> historyDTOs = invocation.getArgument(1);
+            historyDTOs.forEachRemaining(imported::add);
+            return result;
+        });
+
+        // WHEN
+        historyAdminController.importHistories("import-1", "application/gzip", null, new ByteArrayInputStream(gzipped.toByteArray()));
+
+        // THEN
+        assertEquals(2, imported.size());
+        assertEquals("Rees", imported.get(1).getPatient());
+    }
+
+    @Test
+    void testMigrateNotes_ReturnsMigrationResult() {
+        // GIVEN
+        NoteMigrationResultDTO result = new NoteMigrationResultDTO(true, 2, 0, 280, 120, 5);
+        when(noteCompressionService.migrate()).thenReturn(result);
+
+        // WHEN
+        NoteMigrationResultDTO response = historyAdminController.migrateNotes();
+
+        // THEN
+        assertEquals(result, response);
+    }
+
+    @Test
+    void testTrainNotesDictionary_DownloadsDictionary() {
+        // GIVEN
+        byte[] dictionary = "Le patient déclare qu'il ".getBytes(StandardCharsets.UTF_8);
+        when(noteCompressionService.trainDictionary(500, 4096)).thenReturn(dictionary);
+
+        // WHEN
+        ResponseEntity<byte[]> response = historyAdminController.trainNotesDictionary(500, 4096);
+
+        // THEN
+        assertEquals("application/octet-stream", response.getHeaders().getContentType().toString());
+        assertTrue(response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION).contains("notes.dict"));
+        assertEquals(dictionary, response.getBody());
+    }
+}
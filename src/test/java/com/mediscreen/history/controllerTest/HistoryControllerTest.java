@@ -1,44 +1,91 @@
 package com.mediscreen.history.controllerTest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mediscreen.history.Exception.HistoryVersionConflictException;
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.Exception.SearchUnavailableException;
 import com.mediscreen.history.controller.HistoryController;
+import com.mediscreen.history.dto.BulkResultDTO;
+import com.mediscreen.history.dto.CacheStatsDTO;
+import com.mediscreen.history.dto.HistoryChangeDTO;
+import com.mediscreen.history.dto.HistoryCountDTO;
 import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryDateDTO;
+import com.mediscreen.history.dto.HistoryPageDTO;
+import com.mediscreen.history.dto.HistorySummaryDTO;
+import com.mediscreen.history.dto.HistoryVersionDTO;
+import com.mediscreen.history.dto.TriggerCountDTO;
 import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.service.HistoryBulkService;
+import com.mediscreen.history.service.HistoryChangeFeed;
+import com.mediscreen.history.service.HistoryChangeListener;
 import com.mediscreen.history.service.HistoryService;
+import com.mediscreen.history.service.TriggerTermService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.hibernate.validator.internal.util.Contracts.assertNotNull;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @AutoConfigureMockMvc
 @AutoConfigureDataMongo
 @SpringBootTest
+@ActiveProfiles("test")
 public class HistoryControllerTest {
 
     @Mock
     private HistoryService historyService;
+    @Mock
+    private HistoryBulkService historyBulkService;
+    @Mock
+    private TriggerTermService triggerTermService;
+    @Mock
+    private HistoryChangeFeed historyChangeFeed;
     @InjectMocks
     private HistoryController historyController;
     @Autowired
@@ -54,6 +101,10 @@ public class HistoryControllerTest {
         mvc = MockMvcBuilders.standaloneSetup(historyController).build();
     }
 
+    private static ServletWebRequest webRequest() {
+        return new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse());
+    }
+
 
     @Test
     void testGetPatientById() throws Exception {
@@ -64,16 +115,72 @@ public class HistoryControllerTest {
 
         // WHEN
         // I request the history of the patient
-        when(historyService.getHistoryById("1")).thenReturn(historyDTO);
+        when(historyService.getHistoryById("1", null)).thenReturn(historyDTO);
 
 
         // THEN
         // I get the information about the patient I requested
-        HistoryDTO result = historyController.getHistoryById("1");
+        HistoryDTO result = historyController.getHistoryById("1", null, webRequest());
         mvc.perform(MockMvcRequestBuilders.get("/patHistory/1")).andExpect(status().isOk());
         assertNotNull(result);
     }
 
+    @Test
+    void testGetHistoryByIdReturnsETag() throws Exception {
+        // GIVEN
+        // There is a history in db updated three times
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        historyDTO.setVersion(3L);
+        historyDTO.setLastModified(Instant.parse("2023-07-23T10:00:00Z"));
+
+        // WHEN
+        // I request the history
+        when(historyService.getHistoryById("1", null)).thenReturn(historyDTO);
+
+        // THEN
+        // I get its version in the headers, not in the body
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3-1690106400000\""))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andExpect(jsonPath("$.version").doesNotExist());
+    }
+
+    @Test
+    void testGetHistoryByIdNotModified() throws Exception {
+        // GIVEN
+        // The history did not change since I read it
+        when(historyService.getHistoryVersion("1", null)).thenReturn(new HistoryVersionDTO("\"3\"", null));
+
+        // WHEN
+        // I request it again with its ETag
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/1").header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        // THEN
+        // the history is not read again
+        verify(historyService, never()).getHistoryById(any(), any());
+    }
+
+    @Test
+    void testGetHistoryByPatientIdModifiedSinceETag() throws Exception {
+        // GIVEN
+        // A history of the patient changed since I read them
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        when(historyService.getPatientHistoryVersion(1, null)).thenReturn(new HistoryVersionDTO("\"new\"", null));
+        when(historyService.getHistoryByPatientId(1, null)).thenReturn(List.of(historyDTO));
+
+        // WHEN & THEN
+        // I get the histories again with the new ETag
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory?patId=1").header(HttpHeaders.IF_NONE_MATCH, "\"old\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"new\""))
+                .andExpect(jsonPath("$[0].id").value("1"));
+    }
+
     @Test
     void testGetPatientByIdWithTheWrongId() throws Exception {
         // GIVEN
@@ -83,11 +190,11 @@ public class HistoryControllerTest {
 
         // WHEN
         // I request the history with ID "2" (which does not exist)
-        when(historyService.getHistoryById("2")).thenReturn(null);
+        when(historyService.getHistoryById("2", null)).thenReturn(null);
 
         // THEN
         // I don't get the information about the patient I requested
-        HistoryDTO result = historyController.getHistoryById("2");
+        HistoryDTO result = historyController.getHistoryById("2", null, webRequest());
         assertNull(result);
     }
 
@@ -103,17 +210,163 @@ public class HistoryControllerTest {
 
         // WHEN
         // I request the history of the patient
-        when(historyService.getHistoryByPatientId(1)).thenReturn(histories);
+        when(historyService.getHistoryByPatientId(1, null)).thenReturn(histories);
 
 
         // THEN
         // I get the information about the patient I requested
-        List<HistoryDTO> result = historyController.getHistoryByPatientId(1);
+        List<HistoryDTO> result = historyController.getHistoryByPatientId(1, null, webRequest());
         mvc.perform(MockMvcRequestBuilders.get("/patHistory?patId=1")).andExpect(status().isOk());
         assertNotNull(result);
         assertFalse(result.isEmpty());
     }
 
+    @Test
+    void testGetHistoryByPatientIdWithFields() throws Exception {
+        // GIVEN
+        // There are already a history in db
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        historyDTO.setCreationDate(LocalDate.of(2023, 7, 23));
+
+        // WHEN
+        // I request only the dates of the patient histories
+        when(historyService.getHistoryByPatientId(1, Set.of("id", "creationDate"))).thenReturn(List.of(historyDTO));
+
+        // THEN
+        // I get the selected fields only
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory?patId=1&fields=creationDate"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value("1"))
+                .andExpect(jsonPath("$[0].creationDate").exists())
+                .andExpect(jsonPath("$[0].notes").doesNotExist())
+                .andExpect(jsonPath("$[0].patient").doesNotExist());
+    }
+
+    @Test
+    void testGetHistoryByPatientIdWithUnknownField() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory?patId=1&fields=password"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testGetHistorySummaries() throws Exception {
+        // GIVEN
+        // There are already a history in db
+        HistorySummaryDTO summary = new HistorySummaryDTO();
+        summary.setId("1");
+        summary.setPatId(1);
+        summary.setPatient("Ferguson");
+
+        // WHEN
+        // I request the summaries of the patient
+        when(historyService.getHistorySummaries(1)).thenReturn(List.of(summary));
+
+        // THEN
+        // I get the histories without their notes
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/summary?patId=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].patient").value("Ferguson"))
+                .andExpect(jsonPath("$[0].notes").doesNotExist());
+    }
+
+    @Test
+    void testGetHistorySummaries_NoPatient_Returns400() throws Exception {
+        // WHEN & THEN
+        // The summaries of every patient are not loaded at once
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/summary"))
+                .andExpect(status().isBadRequest());
+        verify(historyService, never()).getHistorySummaries(any());
+    }
+
+    @Test
+    void testGetHistoriesByPatientIds() throws Exception {
+        // GIVEN
+        // There are already histories in db for the first patient only
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        historyDTO.setPatId(1);
+        Map<Integer, List<HistoryDTO>> histories = new LinkedHashMap<>();
+        histories.put(1, List.of(historyDTO));
+        histories.put(2, List.of());
+
+        // WHEN
+        // I request the latest history of both patients at once
+        when(historyService.getHistoriesByPatientIds(List.of(1, 2), 1, null)).thenReturn(histories);
+
+        // THEN
+        // I get the histories grouped by patient
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/batch?patIds=1,2&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.1[0].id").value("1"))
+                .andExpect(jsonPath("$.2").isEmpty());
+    }
+
+    @Test
+    void testGetHistoriesByCreationDate() throws Exception {
+        // GIVEN
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        historyDTO.setCreationDate(LocalDate.of(2023, 7, 23));
+
+        // WHEN
+        // I request the first history of the patient 1 created in July
+        when(historyService.getHistoriesByCreationDate(1, LocalDate.of(2023, 7, 1), LocalDate.of(2023, 7, 31), "asc", 1, null))
+                .thenReturn(List.of(historyDTO));
+
+        // THEN
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/range?patId=1&from=2023-07-01&to=2023-07-31&order=asc&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value("1"));
+    }
+
+    @Test
+    void testCountHistoriesByCreationDate() throws Exception {
+        // GIVEN WHEN
+        // I request the number of histories of all patients by week
+        when(historyService.countHistoriesByCreationDate(null, null, null, "week"))
+                .thenReturn(List.of(new HistoryCountDTO(LocalDate.of(2023, 7, 17), 3)));
+
+        // THEN
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/counts?unit=week"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].count").value(3));
+    }
+
+    @Test
+    void testGetHistoryDatesByPatientId() throws Exception {
+        // GIVEN
+        // There are already a history in db
+        HistoryDateDTO historyDateDTO = new HistoryDateDTO();
+        historyDateDTO.setId("1");
+        historyDateDTO.setCreationDate(LocalDate.of(2023, 7, 23));
+
+        // WHEN
+        // I request the history dates of the patient
+        when(historyService.getHistoryDatesByPatientId(1)).thenReturn(List.of(historyDateDTO));
+
+        // THEN
+        // I get the dates without the notes
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/dates?patId=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value("1"))
+                .andExpect(jsonPath("$[0].notes").doesNotExist());
+    }
+
+    @Test
+    void testGetCacheStats() throws Exception {
+        // WHEN
+        // I request the cache statistics
+        when(historyService.getCacheStats()).thenReturn(new CacheStatsDTO(3, 1, 0, 1, 512));
+
+        // THEN
+        // I get the cache counters
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/cache/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hitCount").value(3))
+                .andExpect(jsonPath("$.missCount").value(1));
+    }
+
     @Test
     void testGetAllHistories() throws Exception {
         // GIVEN
@@ -126,17 +379,113 @@ public class HistoryControllerTest {
 
         // WHEN
         // I request all histories
-        when(historyService.getAllHistories()).thenReturn(histories);
+        when(historyService.getAllHistories(null)).thenReturn(histories);
 
 
         // THEN
         // I get the information about all histories
-        List<HistoryDTO> result = historyController.getHistoryList();
+        List<HistoryDTO> result = historyController.getHistoryList(null);
         mvc.perform(MockMvcRequestBuilders.get("/patHistory/all")).andExpect(status().isOk());
         assertNotNull(result);
         assertFalse(result.isEmpty());
     }
 
+    @Test
+    void testGetHistoryPage() throws Exception {
+        // GIVEN
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("64bd0a2f9c1e4a3b2c1d0e01");
+        HistoryPageDTO page = new HistoryPageDTO(List.of(historyDTO), historyDTO.getId());
+
+        // WHEN
+        // I request a page of histories
+        when(historyService.getHistoryPage(1, null, null)).thenReturn(page);
+
+        // THEN
+        // I get the histories and the cursor of the next page
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/all?limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].id").value("64bd0a2f9c1e4a3b2c1d0e01"))
+                .andExpect(jsonPath("$.next").value("64bd0a2f9c1e4a3b2c1d0e01"));
+    }
+
+    @Test
+    void testStreamHistoryList() throws Exception {
+        // GIVEN
+        // There are two histories in db
+        ReflectionTestUtils.setField(historyController, "objectMapper", objectMapper);
+        doAnswer(invocation -> {
+            Consumer<HistoryDTO> consumer = invocation.getArgument(0);
+            for (String id : List.of("1", "2")) {
+                HistoryDTO historyDTO = new HistoryDTO();
+                historyDTO.setId(id);
+                consumer.accept(historyDTO);
+            }
+            return null;
+        }).when(historyService).streamAllHistories(any());
+
+        // WHEN
+        // I request all histories as NDJSON
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get("/patHistory/all").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // THEN
+        // I get one history per line
+        String body = mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+        assertEquals(2, body.lines().count());
+        assertTrue(body.startsWith("{\"id\":\"1\""));
+    }
+
+    @Test
+    void testSearchHistories() throws Exception {
+        // GIVEN
+        // A history of the patient mentions a smoker
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        historyDTO.setNotes("Fumeur, il a arrêté");
+
+        // WHEN
+        // I search the notes of the patient
+        when(historyService.searchHistories("fumeur", 1, 0, 20)).thenReturn(List.of(historyDTO));
+
+        // THEN
+        // I get the matching history
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/search?q=fumeur&patId=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value("1"));
+    }
+
+    @Test
+    void testSearchHistories_CompressedNotes_Returns501() throws Exception {
+        // GIVEN
+        // The notes are stored compressed, out of the text index
+        when(historyService.searchHistories("fumeur", 1, 0, 20))
+                .thenThrow(new SearchUnavailableException("Search is unavailable while the notes are stored compressed"));
+
+        // WHEN & THEN
+        // The search is refused rather than answered with the uncompressed notes only
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/search?q=fumeur&patId=1"))
+                .andExpect(status().isNotImplemented());
+    }
+
+    @Test
+    void testCountTriggers() throws Exception {
+        // WHEN
+        // I request the number of trigger terms of the patient
+        when(triggerTermService.countTriggers(1, List.of("Fumeur", "Poids"))).thenReturn(new TriggerCountDTO(1, 2));
+
+        // THEN
+        // I only get the count
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/triggers/count?patId=1&terms=Fumeur,Poids"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.patId").value(1))
+                .andExpect(jsonPath("$.count").value(2));
+    }
+
     @Test
     void testAddHistory() throws Exception {
         MultiValueMap<String, String> formData = new LinkedMultiValueMap<>();
@@ -156,6 +505,55 @@ public class HistoryControllerTest {
                 .andExpect(status().isCreated());
     }
 
+    @Test
+    void testAddHistory_WriteBehind_ReturnsAcceptedWithId() throws Exception {
+        // GIVEN
+        when(historyService.isWriteBehind()).thenReturn(true);
+        when(historyService.queueHistory(any(HistoryDTO.class))).thenReturn("64a1b2c3d4e5f6a7b8c9d0e1");
+
+        // WHEN
+        mvc.perform(MockMvcRequestBuilders.post("/patHistory/add")
+                        .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                        .param("patId", "1")
+                        .param("notes", "Fumeur"))
+
+        // THEN
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", "/patHistory/64a1b2c3d4e5f6a7b8c9d0e1"))
+                .andExpect(content().string("64a1b2c3d4e5f6a7b8c9d0e1"));
+        verify(historyService, never()).addHistory(any(HistoryDTO.class));
+    }
+
+    @Test
+    void testAddHistories() throws Exception {
+        // GIVEN
+        // Two histories in the format of mongodb_data.ndjson
+        ReflectionTestUtils.setField(historyController, "objectMapper", objectMapper);
+        String body = "{\"patId\": 1, \"patient\": \"Ferguson\", \"creationDate\": \"2023-07-23\", \"notes\": \"Fumeur\"}\n"
+                + "{\"patId\": 2, \"patient\": \"Rees\", \"creationDate\": \"2023-07-24\", \"notes\": \"Microalbumine\"}\n";
+        List<HistoryDTO> received = new ArrayList<>();
+        when(historyBulkService.addHistories(any())).thenAnswer(invocation -> {
+            Iterator<HistoryDTO> historyDTOs = invocation.getArgument(0);
+            historyDTOs.forEachRemaining(received::add);
+            BulkResultDTO result = new BulkResultDTO();
+            result.setInserted(received.size());
+            return result;
+        });
+
+        // WHEN
+        // I send them in bulk
+        mvc.perform(MockMvcRequestBuilders.post("/patHistory/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted").value(2));
+
+        // THEN
+        // Both histories are parsed
+        assertEquals(2, received.size());
+        assertEquals(LocalDate.of(2023, 7, 24), received.get(1).getCreationDate());
+    }
+
     @Test
     void testUpdateHistory() throws Exception {
         // GIVEN
@@ -168,7 +566,7 @@ public class HistoryControllerTest {
 
         // WHEN
         // I update the infos
-        when(historyService.updateHistory(any(String.class), any(HistoryDTO.class))).thenReturn(true);
+        when(historyService.updateHistory(any(String.class), any(HistoryDTO.class), isNull(), isNull())).thenReturn(true);
 
         // THEN
         // it shouldn't update the history
@@ -179,6 +577,60 @@ public class HistoryControllerTest {
 
     }
 
+    @Test
+    void testUpdateHistoryIfMatch() throws Exception {
+        // GIVEN
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setNotes("test");
+
+        // WHEN
+        // Someone else updated the history after I read its version 2
+        when(historyService.updateHistory(eq("1"), any(HistoryDTO.class), eq(2L), eq(Instant.ofEpochMilli(1690106400000L))))
+                .thenThrow(new HistoryVersionConflictException("Patient history 1 is no longer at version 2"));
+
+        // THEN
+        // my update is rejected instead of overwriting theirs
+        mvc.perform(MockMvcRequestBuilders.put("/patHistory/update/1")
+                        .header(HttpHeaders.IF_MATCH, "\"2-1690106400000\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(historyDTO)))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void testStreamHistoryChangesResumesAfterLastEventId() throws Exception {
+        // GIVEN
+        // My EventSource reconnects after receiving the change 82AA
+        HistoryChangeFeed.Subscription subscription = new HistoryChangeFeed.Subscription();
+        ArgumentCaptor<HistoryChangeListener> listener = ArgumentCaptor.forClass(HistoryChangeListener.class);
+        when(historyChangeFeed.subscribe(eq("82AA"), listener.capture())).thenReturn(subscription);
+
+        // WHEN
+        // the history 1 of the patient 1 is updated
+        MvcResult result = mvc.perform(MockMvcRequestBuilders.get("/patHistory/changes").header("Last-Event-ID", "82AA"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        listener.getValue().onChange(new HistoryChangeDTO("82AB", "update", "1", 1, null, null, Instant.ofEpochSecond(1700000000)));
+
+        // THEN
+        // I receive the change as an event named after the operation, with its resume token as ID
+        String body = result.getResponse().getContentAsString();
+        assertTrue(body.contains("id:82AB\n"));
+        assertTrue(body.contains("event:update\n"));
+        assertTrue(body.contains("\"patId\":1"));
+        assertFalse(subscription.isClosed());
+    }
+
+    @Test
+    void testStreamHistoryChangesInvalidResumeToken() throws Exception {
+        // GIVEN WHEN
+        when(historyChangeFeed.subscribe(eq("zz"), any())).thenThrow(new InvalidCursorException("Invalid resume token: zz"));
+
+        // THEN
+        mvc.perform(MockMvcRequestBuilders.get("/patHistory/changes").param("resumeAfter", "zz"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void testDeleteHistory() throws Exception {
         // GIVEN
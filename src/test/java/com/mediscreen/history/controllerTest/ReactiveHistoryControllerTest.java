@@ -0,0 +1,120 @@
+package com.mediscreen.history.controllerTest;
+
+import com.mediscreen.history.Exception.HistoryNotFoundException;
+import com.mediscreen.history.Exception.HistoryVersionConflictException;
+import com.mediscreen.history.controller.ReactiveHistoryController;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.service.ReactiveHistoryService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(ReactiveHistoryController.class)
+@ActiveProfiles({"test", "reactive"})
+public class ReactiveHistoryControllerTest {
+
+    @MockBean
+    private ReactiveHistoryService historyService;
+    @Autowired
+    private WebTestClient client;
+
+    private static HistoryDTO historyDTO(String id) {
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId(id);
+        historyDTO.setPatId(1);
+        return historyDTO;
+    }
+
+    @Test
+    void testGetHistoryById() {
+        // GIVEN
+        when(historyService.getHistoryById("1")).thenReturn(Mono.just(historyDTO("1")));
+
+        // WHEN & THEN
+        client.get().uri("/patHistory/1").exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.id").isEqualTo("1");
+    }
+
+    @Test
+    void testGetHistoryByIdWithTheWrongId() {
+        // GIVEN
+        when(historyService.getHistoryById("2")).thenReturn(Mono.error(new HistoryNotFoundException("History not found with ID: 2")));
+
+        // WHEN & THEN
+        client.get().uri("/patHistory/2").exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    void testStreamHistoryList() {
+        // GIVEN
+        when(historyService.getAllHistories()).thenReturn(Flux.just(historyDTO("1"), historyDTO("2")));
+
+        // WHEN
+        String body = client.get().uri("/patHistory/all").accept(MediaType.APPLICATION_NDJSON).exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        // THEN
+        assertEquals(2, body.lines().count());
+    }
+
+    @Test
+    void testAddHistory() {
+        // GIVEN
+        when(historyService.addHistory(any(HistoryDTO.class))).thenReturn(Mono.just(true));
+
+        // WHEN & THEN
+        client.post().uri("/patHistory/add")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .bodyValue("patId=1&patient=Doe&notes=Fumeur")
+                .exchange()
+                .expectStatus().isCreated();
+    }
+
+    @Test
+    void testUpdateHistoryIfMatch() {
+        // GIVEN
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setNotes("test");
+
+        // WHEN
+        // Someone else updated the history after I read its version 2
+        when(historyService.updateHistory(eq("1"), any(HistoryDTO.class), eq(2L), eq(Instant.ofEpochMilli(1690106400000L))))
+                .thenReturn(Mono.error(new HistoryVersionConflictException("Patient history 1 is no longer at version 2")));
+
+        // THEN
+        // my update is rejected instead of overwriting theirs
+        client.put().uri("/patHistory/update/1")
+                .header(HttpHeaders.IF_MATCH, "\"2-1690106400000\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(historyDTO)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @Test
+    void testDeleteHistory() {
+        // GIVEN
+        when(historyService.deleteHistory("1")).thenReturn(Mono.just(true));
+
+        // WHEN & THEN
+        client.delete().uri("/patHistory/1").exchange().expectStatus().isOk();
+    }
+}
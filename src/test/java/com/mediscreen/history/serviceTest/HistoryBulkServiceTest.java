@@ -0,0 +1,123 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.mediscreen.history.dto.BulkResultDTO;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.service.HistoryBulkService;
+import com.mediscreen.history.service.HistoryCache;
+import com.mediscreen.history.service.TriggerIndexService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class HistoryBulkServiceTest {
+
+    @Mock
+    private HistoryRepository historyRepository;
+
+    @Mock
+    private TriggerIndexService triggerIndexService;
+
+    @Spy
+    private HistoryCache historyCache = new HistoryCache(true, 1024 * 1024);
+
+    @InjectMocks
+    private HistoryBulkService historyBulkService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(historyBulkService, "batchSize", 2);
+    }
+
+    private static HistoryDTO historyDTO(Integer patId) {
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setPatId(patId);
+        historyDTO.setNotes("Le patient déclare qu'il se sent bien");
+        return historyDTO;
+    }
+
+    @Test
+    void testAddHistories_WritesInBatches() {
+        // GIVEN
+        when(historyRepository.bulkInsert(anyList())).thenReturn(Map.of());
+        List<HistoryDTO> historyDTOs = List.of(historyDTO(1), historyDTO(1), historyDTO(2));
+
+        // WHEN
+        BulkResultDTO result = historyBulkService.addHistories(historyDTOs.iterator());
+
+        // THEN
+        assertEquals(3, result.getInserted());
+        assertEquals(0, result.getFailed());
+        verify(historyRepository, times(2)).bulkInsert(anyList());
+        assertNotNull(result.getItems().get(2).getId());
+        verify(historyCache).invalidatePatient(2);
+    }
+
+    @Test
+    void testAddHistories_ReportsFailedItems() {
+        // GIVEN
+        // The second history of the batch is rejected by the database, the third has no patient
+        when(historyRepository.bulkInsert(anyList())).thenReturn(Map.of(1, "E11000 duplicate key error"));
+        List<HistoryDTO> historyDTOs = List.of(historyDTO(1), historyDTO(1), historyDTO(null));
+
+        // WHEN
+        BulkResultDTO result = historyBulkService.addHistories(historyDTOs.iterator());
+
+        // THEN
+        assertEquals(1, result.getInserted());
+        assertEquals(2, result.getFailed());
+        assertTrue(result.getItems().get(0).isSuccess());
+        assertEquals("E11000 duplicate key error", result.getItems().get(1).getError());
+        assertEquals("Missing patId", result.getItems().get(2).getError());
+    }
+
+    @Test
+    void testAddHistories_UnreadableInput_KeepsPreviousHistories() {
+        // GIVEN
+        // The second history of the input cannot be parsed
+        when(historyRepository.bulkInsert(anyList())).thenReturn(Map.of());
+        Iterator<HistoryDTO> historyDTOs = new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public HistoryDTO next() {
+                if (next++ == 1) {
+                    throw new IllegalStateException("Unexpected character");
+                }
+                return historyDTO(1);
+            }
+        };
+
+        // WHEN
+        BulkResultDTO result = historyBulkService.addHistories(historyDTOs);
+
+        // THEN
+        assertEquals(1, result.getInserted());
+        assertEquals(1, result.getFailed());
+        assertFalse(result.getItems().get(1).isSuccess());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<History>> batch = ArgumentCaptor.forClass(List.class);
+        verify(historyRepository).bulkInsert(batch.capture());
+        assertNotNull(batch.getValue().get(0).getCreationDate());
+    }
+}
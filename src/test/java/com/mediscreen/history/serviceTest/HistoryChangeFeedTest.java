@@ -0,0 +1,186 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.mediscreen.history.Exception.ChangeFeedBusyException;
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.dto.HistoryChangeDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.service.HistoryChangeFeed;
+import com.mediscreen.history.service.HistoryChangeListener;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class HistoryChangeFeedTest {
+
+    private static final String ID = "64a1b2c3d4e5f6a7b8c9d0e1";
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    @Mock
+    private ChangeStreamIterable<Document> changeStream;
+
+    @Mock
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+
+    private HistoryChangeFeed historyChangeFeed;
+
+    private final BlockingQueue<HistoryChangeDTO> changes = new LinkedBlockingQueue<>();
+
+    private final HistoryChangeListener listener = new HistoryChangeListener() {
+        @Override
+        public void onChange(HistoryChangeDTO change) {
+            changes.add(change);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            fail(error);
+        }
+    };
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(mongoTemplate.getCollectionName(History.class)).thenReturn("histories");
+        when(mongoTemplate.getCollection("histories")).thenReturn(collection);
+        when(collection.watch(anyList())).thenReturn(changeStream);
+        when(changeStream.fullDocument(any())).thenReturn(changeStream);
+        when(changeStream.fullDocumentBeforeChange(any())).thenReturn(changeStream);
+        when(changeStream.maxAwaitTime(anyLong(), any())).thenReturn(changeStream);
+        when(changeStream.resumeAfter(any())).thenReturn(changeStream);
+        when(changeStream.cursor()).thenReturn(cursor);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        historyChangeFeed.shutdown();
+    }
+
+    private void createFeed(boolean preImages, int maxSubscribers) {
+        historyChangeFeed = new HistoryChangeFeed(preImages, maxSubscribers);
+        ReflectionTestUtils.setField(historyChangeFeed, "mongoTemplate", mongoTemplate);
+    }
+
+    private static ChangeStreamDocument<Document> change(String operation, String token, Integer patId, Integer previousPatId) {
+        return new ChangeStreamDocument<>(operation, new BsonDocument("_data", new BsonString(token)), null, null,
+                patId == null ? null : new Document("patId", patId),
+                previousPatId == null ? null : new Document("patId", previousPatId),
+                new BsonDocument("_id", new BsonObjectId(new ObjectId(ID))),
+                new BsonTimestamp(1700000000, 1), null, null, null, null, null);
+    }
+
+    @Test
+    void testSubscribe_SendsChangesAfterResumeToken() throws InterruptedException {
+        // GIVEN
+        createFeed(false, 1);
+        when(cursor.tryNext()).thenReturn(change("update", "82AB", 1, null), (ChangeStreamDocument<Document>) null);
+
+        // WHEN
+        HistoryChangeFeed.Subscription subscription = historyChangeFeed.subscribe("82AA", listener);
+        HistoryChangeDTO change = changes.poll(5, TimeUnit.SECONDS);
+        subscription.close();
+
+        // THEN
+        assertNotNull(change);
+        assertEquals("82AB", change.getResumeToken());
+        assertEquals("update", change.getOperation());
+        assertEquals(ID, change.getId());
+        assertEquals(1, change.getPatId());
+        assertNull(change.getPreviousPatId());
+        assertEquals(Instant.ofEpochSecond(1700000000), change.getClusterTime());
+        verify(changeStream).resumeAfter(new BsonDocument("_data", new BsonString("82AA")));
+        verify(changeStream, never()).fullDocumentBeforeChange(any());
+    }
+
+    @Test
+    void testSubscribe_TellsPatientOfDeletedHistoryFromPreImage() throws InterruptedException {
+        // GIVEN
+        createFeed(true, 1);
+        when(cursor.tryNext()).thenReturn(change("delete", "82AB", null, 2), (ChangeStreamDocument<Document>) null);
+
+        // WHEN
+        HistoryChangeFeed.Subscription subscription = historyChangeFeed.subscribe(null, listener);
+        HistoryChangeDTO change = changes.poll(5, TimeUnit.SECONDS);
+        subscription.close();
+
+        // THEN
+        assertNotNull(change);
+        assertEquals(2, change.getPatId());
+        assertNull(change.getPreviousPatId());
+        verify(changeStream).fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE);
+        verify(changeStream, never()).resumeAfter(any());
+    }
+
+    @Test
+    void testSubscribe_TellsPatientUpdatedWithoutPreImage() throws InterruptedException {
+        // GIVEN
+        // The history moves to the patient 3, the previous patient is unknown without the pre-image
+        createFeed(false, 1);
+        ChangeStreamDocument<Document> moved = new ChangeStreamDocument<>("update",
+                new BsonDocument("_data", new BsonString("82AB")), null, null, null, null,
+                new BsonDocument("_id", new BsonObjectId(new ObjectId(ID))), new BsonTimestamp(1700000000, 1),
+                new UpdateDescription(List.of(), new BsonDocument("patId", new BsonInt32(3))), null, null, null, null);
+        when(cursor.tryNext()).thenReturn(moved, (ChangeStreamDocument<Document>) null);
+
+        // WHEN
+        HistoryChangeFeed.Subscription subscription = historyChangeFeed.subscribe(null, listener);
+        HistoryChangeDTO change = changes.poll(5, TimeUnit.SECONDS);
+        subscription.close();
+
+        // THEN
+        assertNotNull(change);
+        assertEquals(3, change.getPatId());
+        assertNull(change.getPreviousPatId());
+        assertEquals(Boolean.TRUE, change.getPatIdUpdated());
+    }
+
+    @Test
+    void testSubscribe_InvalidResumeToken() {
+        createFeed(false, 1);
+
+        assertThrows(InvalidCursorException.class, () -> historyChangeFeed.subscribe("not a token", listener));
+    }
+
+    @Test
+    void testSubscribe_TooManySubscribers() {
+        // GIVEN
+        createFeed(false, 1);
+        when(cursor.tryNext()).thenReturn(null);
+        HistoryChangeFeed.Subscription subscription = historyChangeFeed.subscribe(null, listener);
+
+        // WHEN THEN
+        assertThrows(ChangeFeedBusyException.class, () -> historyChangeFeed.subscribe(null, listener));
+        subscription.close();
+    }
+}
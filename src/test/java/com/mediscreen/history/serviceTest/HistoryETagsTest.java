@@ -0,0 +1,78 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import com.mediscreen.history.Exception.HistoryVersionConflictException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.service.HistoryETags;
+import org.junit.jupiter.api.Test;
+
+class HistoryETagsTest {
+
+    private static HistoryDTO history(String id, Long version) {
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId(id);
+        historyDTO.setVersion(version);
+        return historyDTO;
+    }
+
+    @Test
+    void testOfHistory_TagsVersionAndSelectedFields() {
+        assertEquals("\"3\"", HistoryETags.ofHistory(history("1", 3L), null).getEtag());
+        assertEquals("\"0\"", HistoryETags.ofHistory(history("1", null), null).getEtag());
+        assertEquals("\"3.creationDate.id\"", HistoryETags.ofHistory(history("1", 3L), Set.of("id", "creationDate")).getEtag());
+    }
+
+    @Test
+    void testOfHistory_SameVersionWrittenAgain_DifferentTag() {
+        // An imported history starts again at version 0
+        HistoryDTO before = history("1", 0L);
+        before.setLastModified(Instant.ofEpochMilli(1000));
+        HistoryDTO after = history("1", 0L);
+        after.setLastModified(Instant.ofEpochMilli(2000));
+
+        assertEquals("\"0-1000\"", HistoryETags.ofHistory(before, null).getEtag());
+        assertNotEquals(HistoryETags.ofHistory(before, null).getEtag(), HistoryETags.ofHistory(after, null).getEtag());
+        assertNotEquals(HistoryETags.ofHistories(List.of(before), null).getEtag(), HistoryETags.ofHistories(List.of(after), null).getEtag());
+    }
+
+    @Test
+    void testOfHistories_NoLastModified() {
+        HistoryDTO history = history("1", 0L);
+        history.setLastModified(Instant.ofEpochMilli(1000));
+
+        assertNull(HistoryETags.ofHistories(List.of(history), null).getLastModified());
+    }
+
+    @Test
+    void testOfHistories_IgnoresOrderButNotVersions() {
+        String etag = HistoryETags.ofHistories(List.of(history("1", 0L), history("2", 1L)), null).getEtag();
+
+        assertEquals(etag, HistoryETags.ofHistories(List.of(history("2", 1L), history("1", 0L)), null).getEtag());
+        assertNotEquals(etag, HistoryETags.ofHistories(List.of(history("1", 1L), history("2", 1L)), null).getEtag());
+        assertNotEquals(etag, HistoryETags.ofHistories(List.of(history("1", 0L)), null).getEtag());
+    }
+
+    @Test
+    void testParseIfMatch_ReadsExpectedVersion() {
+        assertNull(HistoryETags.parseIfMatch(null));
+        assertNull(HistoryETags.parseIfMatch("*"));
+        assertEquals(3L, HistoryETags.parseIfMatch("\"3\""));
+        assertEquals(3L, HistoryETags.parseIfMatch("\"3.id.notes\""));
+        assertThrows(HistoryVersionConflictException.class, () -> HistoryETags.parseIfMatch("W/\"3\""));
+        assertThrows(HistoryVersionConflictException.class, () -> HistoryETags.parseIfMatch("\"abc\""));
+        assertThrows(HistoryVersionConflictException.class, () -> HistoryETags.parseIfMatch("\"3-abc\""));
+    }
+
+    @Test
+    void testParseIfMatch_ReadsExpectedVersionAndLastWrite() {
+        assertEquals(3L, HistoryETags.parseIfMatch("\"3-1000.id.notes\""));
+        assertEquals(Instant.ofEpochMilli(1000), HistoryETags.parseIfMatchLastModified("\"3-1000.id.notes\""));
+        assertNull(HistoryETags.parseIfMatchLastModified("\"3\""));
+        assertNull(HistoryETags.parseIfMatchLastModified("*"));
+    }
+}
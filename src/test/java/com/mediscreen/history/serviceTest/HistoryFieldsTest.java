@@ -0,0 +1,30 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+
+import com.mediscreen.history.Exception.InvalidQueryException;
+import com.mediscreen.history.service.HistoryFields;
+import org.junit.jupiter.api.Test;
+
+class HistoryFieldsTest {
+
+    @Test
+    void testParse_AlwaysSelectsId() {
+        assertEquals(Set.of("id", "patId", "creationDate"), HistoryFields.parse(List.of("patId", " creationDate")));
+    }
+
+    @Test
+    void testParse_NoneOrAllFields_ReturnsNull() {
+        assertNull(HistoryFields.parse(null));
+        assertNull(HistoryFields.parse(List.of()));
+        assertNull(HistoryFields.parse(List.of("patId", "patient", "creationDate", "notes")));
+    }
+
+    @Test
+    void testParse_UnknownField_ThrowsInvalidQueryException() {
+        assertThrows(InvalidQueryException.class, () -> HistoryFields.parse(List.of("notes", "triggers")));
+    }
+}
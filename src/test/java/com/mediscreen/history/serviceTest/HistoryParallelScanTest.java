@@ -0,0 +1,151 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.service.HistoryMetrics;
+import com.mediscreen.history.service.HistoryParallelScan;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class HistoryParallelScanTest {
+
+    @Mock
+    private HistoryRepository historyRepository;
+
+    private HistoryParallelScan historyParallelScan;
+
+    // Sorted like the _id index
+    private final List<String> ids = IntStream.range(0, 3000)
+            .mapToObj(i -> new ObjectId().toHexString())
+            .sorted()
+            .toList();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        // 2 threads, 4 ranges, a buffer of one chunk per range to exercise the read-ahead limit
+        historyParallelScan = new HistoryParallelScan(2, 2, 10, 1);
+        ReflectionTestUtils.setField(historyParallelScan, "historyRepository", historyRepository);
+        ReflectionTestUtils.setField(historyParallelScan, "historyMetrics", new HistoryMetrics(new SimpleMeterRegistry()));
+
+        when(historyRepository.estimatedCount()).thenReturn((long) ids.size());
+        // Every ID is sampled, the ranges are exact quarters
+        when(historyRepository.sampleIds(anyInt())).thenReturn(ids);
+        when(historyRepository.streamByIdRange(any(), any(), any())).thenAnswer(invocation -> {
+            String after = invocation.getArgument(0);
+            String to = invocation.getArgument(1);
+            return ids.stream()
+                    .filter(id -> after == null || id.compareTo(after) > 0)
+                    .filter(id -> to == null || id.compareTo(to) <= 0)
+                    .map(HistoryParallelScanTest::history);
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        historyParallelScan.shutdown();
+    }
+
+    private static History history(String id) {
+        History history = new History();
+        history.setId(id);
+        history.setPatId(1);
+        return history;
+    }
+
+    @Test
+    void testScan_Ordered_ReadsRangesConcurrentlyInIdOrder() {
+        // GIVEN
+        List<String> received = new ArrayList<>();
+
+        // WHEN
+        long count = historyParallelScan.scan(null, true, null, historyDTO -> received.add(historyDTO.getId()));
+
+        // THEN
+        assertEquals(3000, count);
+        assertEquals(ids, received);
+        verify(historyRepository).streamByIdRange(isNull(), eq(ids.get(750)), isNull());
+        verify(historyRepository).streamByIdRange(eq(ids.get(750)), eq(ids.get(1500)), isNull());
+        verify(historyRepository).streamByIdRange(eq(ids.get(2250)), isNull(), isNull());
+    }
+
+    @Test
+    void testScan_Unordered_ReadsEveryHistoryOnce() {
+        // GIVEN
+        Queue<String> received = new ConcurrentLinkedQueue<>();
+
+        // WHEN
+        long count = historyParallelScan.scan(null, false, null, historyDTO -> received.add(historyDTO.getId()));
+
+        // THEN
+        assertEquals(3000, count);
+        assertEquals(3000, received.size());
+        assertEquals(new HashSet<>(ids), new HashSet<>(received));
+        verify(historyRepository, times(4)).streamByIdRange(any(), any(), any());
+    }
+
+    @Test
+    void testScan_After_ReadsOnlyLaterHistories() {
+        // GIVEN
+        List<String> received = new ArrayList<>();
+
+        // WHEN
+        long count = historyParallelScan.scan(ids.get(1999), true, null, historyDTO -> received.add(historyDTO.getId()));
+
+        // THEN
+        assertEquals(1000, count);
+        assertEquals(ids.subList(2000, 3000), received);
+    }
+
+    @Test
+    void testScan_SmallCollection_UsesASingleCursor() {
+        // GIVEN
+        when(historyRepository.estimatedCount()).thenReturn(15L);
+
+        // WHEN
+        historyParallelScan.scan(null, true, null, historyDTO -> { });
+
+        // THEN
+        verify(historyRepository, never()).sampleIds(anyInt());
+        verify(historyRepository).streamByIdRange(null, null, null);
+    }
+
+    @Test
+    void testScan_FailingConsumer_StopsTheScan() {
+        // GIVEN
+        List<HistoryDTO> received = new ArrayList<>();
+
+        // WHEN
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> historyParallelScan.scan(null, true, null, historyDTO -> {
+            if (received.size() == 10) {
+                throw new IllegalStateException("Client went away");
+            }
+            received.add(historyDTO);
+        }));
+
+        // THEN
+        assertEquals("Client went away", e.getMessage());
+        assertThrows(InvalidCursorException.class, () -> historyParallelScan.scan("not an id", true, null, historyDTO -> { }));
+    }
+}
@@ -2,28 +2,74 @@ package com.mediscreen.history.serviceTest;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
 
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mediscreen.history.Exception.HistoryNotFoundException;
+import com.mediscreen.history.Exception.HistoryVersionConflictException;
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.Exception.InvalidQueryException;
+import com.mediscreen.history.Exception.SearchUnavailableException;
+import com.mediscreen.history.config.NoteCompression;
+import com.mediscreen.history.dto.HistoryCountDTO;
 import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.HistoryDateDTO;
+import com.mediscreen.history.dto.HistoryPageDTO;
+import com.mediscreen.history.dto.HistoryVersionDTO;
 import com.mediscreen.history.model.History;
 import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.service.HistoryCache;
+import com.mediscreen.history.service.HistoryETags;
+import com.mediscreen.history.service.HistoryMetrics;
 import com.mediscreen.history.service.HistoryService;
+import com.mediscreen.history.service.HistoryWriteBehind;
+import com.mediscreen.history.service.TriggerIndexService;
+import org.bson.types.ObjectId;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 
 class HistoryServiceTest {
 
     @Mock
     private HistoryRepository historyRepository;
 
+    @Mock
+    private TriggerIndexService triggerIndexService;
+
+    @Mock
+    private HistoryWriteBehind historyWriteBehind;
+
+    @Mock
+    private NoteCompression noteCompression;
+
+    @Spy
+    private HistoryCache historyCache = new HistoryCache(true, 1024 * 1024);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private HistoryMetrics historyMetrics = new HistoryMetrics(meterRegistry);
+
     @InjectMocks
     private HistoryService historyService;
 
@@ -79,6 +125,88 @@ class HistoryServiceTest {
         assertEquals(patientId, result.get(0).getPatId());
     }
 
+    @Test
+    void testGetHistoryByPatientId_RecordsDocumentsAndMappingTime() {
+        // GIVEN
+        History history = new History();
+        history.setId("1");
+        history.setPatId(1);
+        when(historyRepository.findByPatId(1)).thenReturn(List.of(history, new History()));
+
+        // WHEN
+        historyService.getHistoryByPatientId(1);
+
+        // THEN
+        assertEquals(2, meterRegistry.get("history.documents").tag("operation", "findByPatId").summary().totalAmount());
+        assertEquals(1, meterRegistry.get("history.mapping").tag("operation", "findByPatId").timer().count());
+    }
+
+    @Test
+    void testGetHistoryByPatientId_WithFields_ReadsProjectionWithoutCache() {
+        // GIVEN
+        History history = new History();
+        history.setId("1");
+        history.setCreationDate(LocalDate.of(2023, 7, 23));
+        Set<String> fields = Set.of("id", "creationDate");
+        when(historyRepository.findByPatIdWithFields(1, fields)).thenReturn(List.of(history));
+
+        // WHEN
+        List<HistoryDTO> result = historyService.getHistoryByPatientId(1, fields);
+
+        // THEN
+        assertEquals(LocalDate.of(2023, 7, 23), result.get(0).getCreationDate());
+        verify(historyRepository, never()).findByPatId(any());
+        verify(historyCache, never()).getPatientHistories(any(), any());
+    }
+
+    @Test
+    void testGetHistoryById_WithFields_LeavesOnlyTheOtherFieldsOutOfTheJson() throws JsonProcessingException {
+        // GIVEN
+        History history = new History();
+        history.setId("1");
+        history.setPatId(1);
+        Set<String> fields = Set.of("id", "patId");
+        when(historyRepository.findByIdWithFields("1", fields)).thenReturn(history);
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+        // WHEN
+        String selected = objectMapper.writeValueAsString(historyService.getHistoryById("1", fields));
+        String complete = objectMapper.writeValueAsString(new HistoryDTO());
+
+        // THEN
+        assertEquals("{\"id\":\"1\",\"patId\":1}", selected);
+        assertTrue(complete.contains("\"notes\":null"));
+    }
+
+    @Test
+    void testGetHistoryById_WithFields_NotFound_ThrowsHistoryNotFoundException() {
+        // GIVEN
+        when(historyRepository.findByIdWithFields("1", Set.of("id"))).thenReturn(null);
+
+        // WHEN & THEN
+        assertThrows(HistoryNotFoundException.class, () -> historyService.getHistoryById("1", Set.of("id")));
+    }
+
+    @Test
+    void testGetHistorySummaries_ReadsSummaryProjection() {
+        // GIVEN
+        History history = new History();
+        history.setId("1");
+        history.setPatId(1);
+        history.setPatient("Ferguson");
+        when(historyRepository.findSummariesByPatId(1)).thenReturn(List.of(history));
+
+        // WHEN & THEN
+        assertEquals("Ferguson", historyService.getHistorySummaries(1).get(0).getPatient());
+    }
+
+    @Test
+    void testGetHistorySummaries_NoPatient_ThrowsInvalidQueryException() {
+        // WHEN & THEN
+        assertThrows(InvalidQueryException.class, () -> historyService.getHistorySummaries(null));
+        verifyNoInteractions(historyRepository);
+    }
+
     @Test
     void testGetHistoryByPatientId_InvalidPatientId_ReturnsEmptyList() {
         // GIVEN
@@ -93,6 +221,202 @@ class HistoryServiceTest {
         assertTrue(result.isEmpty());
     }
 
+    @Test
+    void testGetHistoryByPatientId_RepeatedRead_ServedFromCache() {
+        // GIVEN
+        Integer patientId = 1;
+        History history = new History();
+        history.setId("1");
+        history.setPatId(patientId);
+        when(historyRepository.findByPatId(patientId)).thenReturn(List.of(history));
+
+        // WHEN
+        historyService.getHistoryByPatientId(patientId);
+        List<HistoryDTO> result = historyService.getHistoryByPatientId(patientId);
+
+        // THEN
+        assertEquals(1, result.size());
+        verify(historyRepository, times(1)).findByPatId(patientId);
+        assertEquals(1, historyService.getCacheStats().getHitCount());
+        assertEquals(1, historyService.getCacheStats().getMissCount());
+    }
+
+    @Test
+    void testAddHistory_InvalidatesPatientCache() {
+        // GIVEN
+        Integer patientId = 1;
+        when(historyRepository.findByPatId(patientId)).thenReturn(new ArrayList<>());
+        historyService.getHistoryByPatientId(patientId);
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setPatId(patientId);
+
+        // WHEN
+        historyService.addHistory(historyDTO);
+        historyService.getHistoryByPatientId(patientId);
+
+        // THEN
+        verify(historyRepository, times(2)).findByPatId(patientId);
+    }
+
+    @Test
+    void testQueueHistory_GeneratesIdAndQueuesHistory() {
+        // GIVEN
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setPatId(1);
+        historyDTO.setNotes("Fumeur");
+
+        // WHEN
+        String id = historyService.queueHistory(historyDTO);
+
+        // THEN
+        ArgumentCaptor<History> queued = ArgumentCaptor.forClass(History.class);
+        verify(historyWriteBehind).enqueue(queued.capture());
+        assertEquals(id, queued.getValue().getId());
+        assertEquals(LocalDate.now(), queued.getValue().getCreationDate());
+        assertEquals(0L, queued.getValue().getVersion());
+        verify(triggerIndexService).index(queued.getValue());
+        verify(historyRepository, never()).save(any(History.class));
+    }
+
+    @Test
+    void testDeleteHistory_InvalidatesCachedHistory() {
+        // GIVEN
+        String historyId = "1";
+        History history = new History();
+        history.setId(historyId);
+        history.setPatId(1);
+        when(historyRepository.findById(historyId)).thenReturn(Optional.of(history));
+        when(historyRepository.removeById(historyId)).thenReturn(history);
+        historyService.getHistoryById(historyId);
+
+        // WHEN
+        historyService.deleteHistory(historyId);
+
+        // THEN
+        verify(historyCache).invalidateHistory(historyId);
+        verify(historyCache).invalidatePatient(1);
+    }
+
+    @Test
+    void testGetHistoryDatesByPatientId_ReturnsIdsAndDates() {
+        // GIVEN
+        Integer patientId = 1;
+        History history = new History();
+        history.setId("1");
+        history.setCreationDate(LocalDate.of(2023, 7, 23));
+        when(historyRepository.findDatesByPatId(patientId)).thenReturn(List.of(history));
+
+        // WHEN
+        List<HistoryDateDTO> result = historyService.getHistoryDatesByPatientId(patientId);
+
+        // THEN
+        assertEquals(1, result.size());
+        assertEquals("1", result.get(0).getId());
+        assertEquals(LocalDate.of(2023, 7, 23), result.get(0).getCreationDate());
+    }
+
+    @Test
+    void testGetHistoriesByPatientIds_GroupsByPatientInRequestOrder() {
+        // GIVEN
+        History history1 = new History();
+        history1.setId("1");
+        history1.setPatId(2);
+        History history2 = new History();
+        history2.setId("2");
+        history2.setPatId(1);
+        History history3 = new History();
+        history3.setId("3");
+        history3.setPatId(2);
+        when(historyRepository.findLatestByPatIds(Set.of(2, 1, 3), 2, null)).thenReturn(List.of(history2, history1, history3));
+
+        // WHEN
+        Map<Integer, List<HistoryDTO>> result = historyService.getHistoriesByPatientIds(List.of(2, 1, 3, 2), 2, null);
+
+        // THEN
+        assertEquals(List.of(2, 1, 3), List.copyOf(result.keySet()));
+        assertEquals(List.of("1", "3"), result.get(2).stream().map(HistoryDTO::getId).toList());
+        assertEquals(List.of("2"), result.get(1).stream().map(HistoryDTO::getId).toList());
+        assertTrue(result.get(3).isEmpty());
+        verify(historyRepository, times(1)).findLatestByPatIds(any(), any(), any());
+    }
+
+    @Test
+    void testGetHistoriesByPatientIds_WithFields_ClearsFieldsReadForGrouping() {
+        // GIVEN
+        History history = new History();
+        history.setId("1");
+        history.setPatId(1);
+        history.setCreationDate(LocalDate.of(2023, 7, 23));
+        history.setNotes("Fumeur");
+        Set<String> fields = Set.of("id", "notes");
+        when(historyRepository.findLatestByPatIds(Set.of(1), null, fields)).thenReturn(List.of(history));
+
+        // WHEN
+        Map<Integer, List<HistoryDTO>> result = historyService.getHistoriesByPatientIds(List.of(1), null, fields);
+
+        // THEN
+        HistoryDTO historyDTO = result.get(1).get(0);
+        assertEquals("Fumeur", historyDTO.getNotes());
+        assertNull(historyDTO.getPatId());
+        assertNull(historyDTO.getCreationDate());
+    }
+
+    @Test
+    void testGetHistoriesByPatientIds_InvalidRequest_ThrowsInvalidQueryException() {
+        // GIVEN
+        List<Integer> tooMany = IntStream.rangeClosed(1, 501).boxed().toList();
+
+        // WHEN & THEN
+        assertThrows(InvalidQueryException.class, () -> historyService.getHistoriesByPatientIds(List.of(), null, null));
+        assertThrows(InvalidQueryException.class, () -> historyService.getHistoriesByPatientIds(tooMany, null, null));
+        assertThrows(InvalidQueryException.class, () -> historyService.getHistoriesByPatientIds(List.of(1), 0, null));
+        verify(historyRepository, never()).findLatestByPatIds(any(), any(), any());
+    }
+
+    @Test
+    void testGetHistoriesByCreationDate_CapsLimitAndReadsRangeInOrder() {
+        // GIVEN
+        History history = new History();
+        history.setId("1");
+        history.setCreationDate(LocalDate.of(2023, 7, 23));
+        LocalDate from = LocalDate.of(2023, 7, 1);
+        LocalDate to = LocalDate.of(2023, 7, 31);
+        when(historyRepository.findByCreationDateRange(1, from, to, Sort.Direction.ASC, 1000, null)).thenReturn(List.of(history));
+
+        // WHEN
+        List<HistoryDTO> result = historyService.getHistoriesByCreationDate(1, from, to, "asc", 5000, null);
+
+        // THEN
+        assertEquals(1, result.size());
+        assertEquals(LocalDate.of(2023, 7, 23), result.get(0).getCreationDate());
+    }
+
+    @Test
+    void testGetHistoriesByCreationDate_InvalidRequest_ThrowsInvalidQueryException() {
+        LocalDate from = LocalDate.of(2023, 7, 31);
+        LocalDate to = LocalDate.of(2023, 7, 1);
+
+        assertThrows(InvalidQueryException.class, () -> historyService.getHistoriesByCreationDate(null, from, to, "desc", 10, null));
+        assertThrows(InvalidQueryException.class, () -> historyService.getHistoriesByCreationDate(null, null, null, "newest", 10, null));
+        assertThrows(InvalidQueryException.class, () -> historyService.getHistoriesByCreationDate(null, null, null, "desc", 0, null));
+        assertThrows(InvalidQueryException.class, () -> historyService.countHistoriesByCreationDate(null, null, null, "year"));
+        verify(historyRepository, never()).findByCreationDateRange(any(), any(), any(), any(), anyInt(), any());
+        verify(historyRepository, never()).countByCreationDate(any(), any(), any(), any());
+    }
+
+    @Test
+    void testCountHistoriesByCreationDate_ReturnsCountsOfEachPeriod() {
+        // GIVEN
+        List<HistoryCountDTO> counts = List.of(new HistoryCountDTO(LocalDate.of(2023, 6, 1), 2), new HistoryCountDTO(LocalDate.of(2023, 7, 1), 1));
+        when(historyRepository.countByCreationDate(null, LocalDate.of(2023, 1, 1), null, "month")).thenReturn(counts);
+
+        // WHEN
+        List<HistoryCountDTO> result = historyService.countHistoriesByCreationDate(null, LocalDate.of(2023, 1, 1), null, "month");
+
+        // THEN
+        assertEquals(counts, result);
+    }
+
     @Test
     void testGetAllHistories_ReturnsListOfHistoryDTOs() {
         // GIVEN
@@ -112,6 +436,97 @@ class HistoryServiceTest {
         assertEquals(2, result.size());
     }
 
+    @Test
+    void testGetHistoryPage_FullFirstPage_ReturnsNextCursor() {
+        // GIVEN
+        History history1 = new History();
+        history1.setId("64bd0a2f9c1e4a3b2c1d0e01");
+        History history2 = new History();
+        history2.setId("64bd0a2f9c1e4a3b2c1d0e02");
+        when(historyRepository.findAllByOrderByIdAsc(any(Pageable.class))).thenReturn(List.of(history1, history2));
+
+        // WHEN
+        HistoryPageDTO result = historyService.getHistoryPage(2, null);
+
+        // THEN
+        assertEquals(2, result.getItems().size());
+        assertEquals("64bd0a2f9c1e4a3b2c1d0e02", result.getNext());
+    }
+
+    @Test
+    void testGetHistoryPage_LastPage_ReturnsNoCursor() {
+        // GIVEN
+        String after = "64bd0a2f9c1e4a3b2c1d0e02";
+        History history = new History();
+        history.setId("64bd0a2f9c1e4a3b2c1d0e03");
+        when(historyRepository.findByIdGreaterThanOrderByIdAsc(eq(new ObjectId(after)), any(Pageable.class))).thenReturn(List.of(history));
+
+        // WHEN
+        HistoryPageDTO result = historyService.getHistoryPage(2, after);
+
+        // THEN
+        assertEquals(1, result.getItems().size());
+        assertNull(result.getNext());
+    }
+
+    @Test
+    void testGetHistoryPage_InvalidCursor_ThrowsInvalidCursorException() {
+        // WHEN & THEN
+        assertThrows(InvalidCursorException.class, () -> historyService.getHistoryPage(10, "not-an-id"));
+        assertThrows(InvalidCursorException.class, () -> historyService.getHistoryPage(0, null));
+    }
+
+    @Test
+    void testStreamAllHistories_MapsEachHistory() {
+        // GIVEN
+        History history1 = new History();
+        history1.setId("1");
+        History history2 = new History();
+        history2.setId("2");
+        when(historyRepository.streamAllBy()).thenReturn(Stream.of(history1, history2));
+        List<HistoryDTO> result = new ArrayList<>();
+
+        // WHEN
+        historyService.streamAllHistories(result::add);
+
+        // THEN
+        assertEquals(2, result.size());
+        assertEquals("2", result.get(1).getId());
+    }
+
+    @Test
+    void testSearchHistories_ReturnsMatchesInRankOrder() {
+        // GIVEN
+        History best = new History();
+        best.setId("2");
+        History other = new History();
+        other.setId("1");
+        when(historyRepository.searchNotes(eq("fumeur"), eq(1), any(Pageable.class))).thenReturn(List.of(best, other));
+
+        // WHEN
+        List<HistoryDTO> result = historyService.searchHistories("fumeur", 1, 0, 20);
+
+        // THEN
+        assertEquals(List.of("2", "1"), result.stream().map(HistoryDTO::getId).toList());
+    }
+
+    @Test
+    void testSearchHistories_CompressedNotes_ThrowsSearchUnavailableException() {
+        // GIVEN
+        when(noteCompression.isEnabled()).thenReturn(true);
+
+        // WHEN & THEN
+        assertThrows(SearchUnavailableException.class, () -> historyService.searchHistories("fumeur", 1, 0, 20));
+        verify(historyRepository, never()).searchNotes(any(), any(), any());
+    }
+
+    @Test
+    void testSearchHistories_BlankText_ThrowsInvalidQueryException() {
+        // WHEN & THEN
+        assertThrows(InvalidQueryException.class, () -> historyService.searchHistories(" ", null, 0, 20));
+        verify(historyRepository, never()).searchNotes(any(), any(), any());
+    }
+
     @Test
     void testAddHistory_ValidData_ReturnsTrue() {
         // GIVEN
@@ -132,45 +547,117 @@ class HistoryServiceTest {
         String historyId = "1";
         History history = new History();
         history.setId(historyId);
-        when(historyRepository.findById(historyId)).thenReturn(Optional.of(history));
-        when(historyRepository.save(any(History.class))).thenReturn(new History());
+        when(historyRepository.updateFields(eq(historyId), any(History.class), isNull(), isNull())).thenReturn(history);
 
         // WHEN
         boolean result = historyService.updateHistory(historyId, new HistoryDTO());
 
         // THEN
         assertTrue(result);
+        verify(historyRepository, never()).findById(historyId);
+        verify(historyRepository, never()).save(any(History.class));
+    }
+
+    @Test
+    void testUpdateHistory_OnlyChangedFields_AreSet() {
+        // GIVEN
+        String historyId = "1";
+        History previous = new History();
+        previous.setId(historyId);
+        previous.setPatId(1);
+        when(historyRepository.updateFields(eq(historyId), any(History.class), isNull(), isNull())).thenReturn(previous);
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setPatient("Doe");
+
+        // WHEN
+        historyService.updateHistory(historyId, historyDTO);
+
+        // THEN
+        ArgumentCaptor<History> changes = ArgumentCaptor.forClass(History.class);
+        verify(historyRepository).updateFields(eq(historyId), changes.capture(), isNull(), isNull());
+        assertEquals("Doe", changes.getValue().getPatient());
+        assertNull(changes.getValue().getNotes());
+        verify(historyCache).invalidatePatient(1);
     }
 
     @Test
     void testUpdateHistory_NonexistentHistory_ThrowsHistoryNotFoundException() {
         // GIVEN
         String historyId = "nonexistent";
-        when(historyRepository.findById(historyId)).thenReturn(Optional.empty());
+        when(historyRepository.updateFields(eq(historyId), any(History.class), isNull(), isNull())).thenReturn(null);
 
         // WHEN & THEN
         assertThrows(HistoryNotFoundException.class, () -> historyService.updateHistory(historyId, new HistoryDTO()));
     }
 
+    @Test
+    void testUpdateHistory_StaleVersion_ThrowsHistoryVersionConflictException() {
+        // GIVEN
+        Instant lastModified = Instant.parse("2023-07-23T10:00:00Z");
+        when(historyRepository.updateFields(eq("1"), any(History.class), eq(2L), eq(lastModified))).thenReturn(null);
+        when(historyRepository.existsById("1")).thenReturn(true);
+
+        // WHEN & THEN
+        assertThrows(HistoryVersionConflictException.class,
+                () -> historyService.updateHistory("1", new HistoryDTO(), 2L, lastModified));
+        verify(triggerIndexService, never()).onUpdate(any(), any());
+    }
+
+    @Test
+    void testAddHistory_StartsAtVersionZero() {
+        // GIVEN
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setPatId(1);
+
+        // WHEN
+        historyService.addHistory(historyDTO);
+
+        // THEN
+        ArgumentCaptor<History> saved = ArgumentCaptor.forClass(History.class);
+        verify(historyRepository).save(saved.capture());
+        assertEquals(0L, saved.getValue().getVersion());
+        assertNotNull(saved.getValue().getLastModified());
+    }
+
+    @Test
+    void testGetPatientHistoryVersion_ReadsVersionsOnly() {
+        // GIVEN
+        History history = new History();
+        history.setId("1");
+        history.setVersion(2L);
+        when(historyRepository.findVersionsByPatId(1)).thenReturn(List.of(history));
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId("1");
+        historyDTO.setVersion(2L);
+
+        // WHEN
+        HistoryVersionDTO version = historyService.getPatientHistoryVersion(1, null);
+
+        // THEN
+        assertEquals(HistoryETags.ofHistories(List.of(historyDTO), null).getEtag(), version.getEtag());
+        verify(historyRepository, never()).findByPatId(any());
+    }
+
     @Test
     void testDeleteHistory_ExistingHistory_ReturnsTrue() {
         // GIVEN
         String historyId = "1";
-        when(historyRepository.findById(historyId)).thenReturn(Optional.of(new History()));
+        when(historyRepository.removeById(historyId)).thenReturn(new History());
 
         // WHEN
         boolean result = historyService.deleteHistory(historyId);
 
         // THEN
         assertTrue(result);
-        verify(historyRepository, times(1)).deleteById(historyId);
+        verify(historyRepository, times(1)).removeById(historyId);
+        verify(historyRepository, never()).findById(historyId);
     }
 
     @Test
     void testDeleteHistory_NonexistentHistory_ThrowsHistoryNotFoundException() {
         // GIVEN
         String historyId = "nonexistent";
-        when(historyRepository.findById(historyId)).thenReturn(Optional.empty());
+        when(historyRepository.removeById(historyId)).thenReturn(null);
 
         // WHEN & THEN
         assertThrows(HistoryNotFoundException.class, () -> historyService.deleteHistory(historyId));
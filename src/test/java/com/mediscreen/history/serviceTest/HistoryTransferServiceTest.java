@@ -0,0 +1,174 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.mediscreen.history.Exception.InvalidCursorException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.dto.ImportResultDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.HistoryImport;
+import com.mediscreen.history.repository.HistoryImportRepository;
+import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.service.HistoryCache;
+import com.mediscreen.history.service.HistoryMetrics;
+import com.mediscreen.history.service.HistoryTransferService;
+import com.mediscreen.history.service.TriggerIndexService;
+import org.bson.types.ObjectId;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class HistoryTransferServiceTest {
+
+    private static final String ID_1 = "64a1b2c3d4e5f6a7b8c9d0e1";
+
+    @Mock
+    private HistoryRepository historyRepository;
+
+    @Mock
+    private HistoryImportRepository historyImportRepository;
+
+    @Mock
+    private TriggerIndexService triggerIndexService;
+
+    @Spy
+    private HistoryCache historyCache = new HistoryCache(true, 1024 * 1024);
+
+    @Spy
+    private HistoryMetrics historyMetrics = new HistoryMetrics(new SimpleMeterRegistry());
+
+    @InjectMocks
+    private HistoryTransferService historyTransferService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(historyTransferService, "batchSize", 2);
+        when(historyImportRepository.save(any(HistoryImport.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(historyRepository.bulkReplace(anyList())).thenReturn(Map.of());
+    }
+
+    private static HistoryDTO historyDTO(String id, Integer patId) {
+        HistoryDTO historyDTO = new HistoryDTO();
+        historyDTO.setId(id);
+        historyDTO.setPatId(patId);
+        historyDTO.setNotes("Le patient déclare qu'il se sent bien");
+        return historyDTO;
+    }
+
+    @Test
+    void testImportHistories_WritesInBatchesAndSavesProgress() {
+        // GIVEN
+        List<HistoryDTO> historyDTOs = List.of(historyDTO("1", 1), historyDTO("2", 1), historyDTO(null, 2));
+
+        // WHEN
+        ImportResultDTO result = historyTransferService.importHistories("import-1", historyDTOs.iterator());
+
+        // THEN
+        ArgumentCaptor<List<History>> batches = ArgumentCaptor.forClass(List.class);
+        verify(historyRepository, times(2)).bulkReplace(batches.capture());
+        assertEquals(List.of(2, 1), batches.getAllValues().stream().map(List::size).toList());
+        History generated = batches.getAllValues().get(1).get(0);
+        assertNotNull(generated.getId());
+        assertNotNull(generated.getCreationDate());
+        assertEquals(0L, generated.getVersion());
+        assertEquals("import-1", result.getImportId());
+        assertEquals(3, result.getRead());
+        assertEquals(3, result.getImported());
+        assertEquals(generated.getId(), result.getLastId());
+        assertTrue(result.isCompleted());
+        verify(historyImportRepository, atLeast(2)).save(any(HistoryImport.class));
+        verify(historyCache).invalidateAll();
+        verify(triggerIndexService).rebuildPatients();
+    }
+
+    @Test
+    void testImportHistories_Resume_SkipsCompletedBatches() {
+        // GIVEN
+        // The first batch of the import was written before it was interrupted
+        HistoryImport progress = new HistoryImport();
+        progress.setId("import-1");
+        progress.setRead(2);
+        progress.setImported(2);
+        when(historyImportRepository.findById("import-1")).thenReturn(Optional.of(progress));
+        List<HistoryDTO> historyDTOs = List.of(historyDTO("1", 1), historyDTO("2", 1), historyDTO("3", 2));
+
+        // WHEN
+        ImportResultDTO result = historyTransferService.importHistories("import-1", historyDTOs.iterator());
+
+        // THEN
+        ArgumentCaptor<List<History>> batch = ArgumentCaptor.forClass(List.class);
+        verify(historyRepository).bulkReplace(batch.capture());
+        assertEquals(List.of("3"), batch.getValue().stream().map(History::getId).toList());
+        assertEquals(3, result.getRead());
+        assertEquals(3, result.getImported());
+        assertTrue(result.isCompleted());
+    }
+
+    @Test
+    void testImportHistories_InvalidHistories_AreCountedAndReadingStopsWhenUnreadable() {
+        // GIVEN
+        // The second history has no patient and the third one cannot be parsed
+        List<HistoryDTO> valid = new ArrayList<>(List.of(historyDTO("1", 1), historyDTO("2", null)));
+        Iterator<HistoryDTO> historyDTOs = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public HistoryDTO next() {
+                if (valid.isEmpty()) {
+                    throw new IllegalStateException("Unexpected character");
+                }
+                return valid.remove(0);
+            }
+        };
+
+        // WHEN
+        ImportResultDTO result = historyTransferService.importHistories(null, historyDTOs);
+
+        // THEN
+        assertNotNull(result.getImportId());
+        assertEquals(2, result.getRead());
+        assertEquals(1, result.getImported());
+        assertEquals(1, result.getFailed());
+        assertEquals(2, result.getErrors().size());
+        assertFalse(result.isCompleted());
+    }
+
+    @Test
+    void testExportHistories_StreamsInIdOrderAfterCursor() {
+        // GIVEN
+        History history = new History();
+        history.setId("64a1b2c3d4e5f6a7b8c9d0e2");
+        history.setPatId(1);
+        when(historyRepository.streamByIdGreaterThanOrderByIdAsc(new ObjectId(ID_1))).thenReturn(Stream.of(history));
+        List<HistoryDTO> exported = new ArrayList<>();
+
+        // WHEN
+        long count = historyTransferService.exportHistories(ID_1, exported::add);
+
+        // THEN
+        assertEquals(1, count);
+        assertEquals("64a1b2c3d4e5f6a7b8c9d0e2", exported.get(0).getId());
+        verify(historyRepository, never()).streamAllByOrderByIdAsc();
+        assertThrows(InvalidCursorException.class, () -> historyTransferService.exportHistories("not an id", exported::add));
+    }
+}
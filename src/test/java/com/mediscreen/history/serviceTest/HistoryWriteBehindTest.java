@@ -0,0 +1,190 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.mediscreen.history.Exception.HistoryQueueFullException;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.service.HistoryCache;
+import com.mediscreen.history.service.HistoryMetrics;
+import com.mediscreen.history.service.HistoryWriteBehind;
+import com.mediscreen.history.service.TriggerIndexService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class HistoryWriteBehindTest {
+
+    @Mock
+    private HistoryRepository historyRepository;
+
+    @Mock
+    private TriggerIndexService triggerIndexService;
+
+    private HistoryCache historyCache;
+
+    private HistoryWriteBehind historyWriteBehind;
+
+    // Holds the writer in its first insert until released
+    private final CountDownLatch writing = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        historyCache = spy(new HistoryCache(true, 1024 * 1024));
+        when(historyRepository.bulkInsert(anyList())).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Map.of();
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        release.countDown();
+        historyWriteBehind.shutdown();
+    }
+
+    private HistoryWriteBehind writeBehind(String durability, int capacity) {
+        HistoryWriteBehind writeBehind = new HistoryWriteBehind(true, durability, capacity, 100, 50, 1000, 5000);
+        ReflectionTestUtils.setField(writeBehind, "historyRepository", historyRepository);
+        ReflectionTestUtils.setField(writeBehind, "historyCache", historyCache);
+        ReflectionTestUtils.setField(writeBehind, "triggerIndexService", triggerIndexService);
+        ReflectionTestUtils.setField(writeBehind, "historyMetrics", new HistoryMetrics(new SimpleMeterRegistry()));
+        writeBehind.start();
+        return writeBehind;
+    }
+
+    private static History history(String id, Integer patId) {
+        History history = new History();
+        history.setId(id);
+        history.setPatId(patId);
+        return history;
+    }
+
+    @Test
+    void testEnqueue_HistoriesQueuedDuringAWrite_AreInsertedTogether() throws InterruptedException {
+        // GIVEN
+        historyWriteBehind = writeBehind("enqueue", 100);
+        historyWriteBehind.enqueue(history("1", 1));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // WHEN
+        historyWriteBehind.enqueue(history("2", 1));
+        historyWriteBehind.enqueue(history("3", 2));
+        historyWriteBehind.enqueue(history("4", 2));
+        release.countDown();
+        historyWriteBehind.shutdown();
+
+        // THEN
+        ArgumentCaptor<List<History>> batches = ArgumentCaptor.forClass(List.class);
+        verify(historyRepository, times(2)).bulkInsert(batches.capture());
+        assertEquals(List.of(List.of("1"), List.of("2", "3", "4")), batches.getAllValues().stream()
+                .map(batch -> batch.stream().map(History::getId).toList()).toList());
+        verify(historyCache, times(2)).invalidatePatient(2);
+        verify(triggerIndexService, times(2)).onInsert(anyList());
+        assertEquals(0, historyWriteBehind.getPending());
+    }
+
+    @Test
+    void testEnqueue_FullQueue_ThrowsQueueFull() throws InterruptedException {
+        // GIVEN
+        // The writer holds the first history and the second one fills the queue
+        historyWriteBehind = writeBehind("enqueue", 1);
+        historyWriteBehind.enqueue(history("1", 1));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        historyWriteBehind.enqueue(history("2", 1));
+
+        // WHEN THEN
+        assertThrows(HistoryQueueFullException.class, () -> historyWriteBehind.enqueue(history("3", 1)));
+        assertEquals(1, historyWriteBehind.getPending());
+    }
+
+    @Test
+    void testEnqueue_FlushDurability_WaitsForTheInsert() {
+        // GIVEN
+        historyWriteBehind = writeBehind("flush", 100);
+        release.countDown();
+        when(historyRepository.bulkInsert(anyList())).thenReturn(Map.of()).thenReturn(Map.of(0, "E11000 duplicate key"));
+
+        // WHEN
+        historyWriteBehind.enqueue(history("1", 1));
+
+        // THEN
+        verify(historyRepository).bulkInsert(List.of(history("1", 1)));
+        assertThrows(CompletionException.class, () -> historyWriteBehind.enqueue(history("1", 1)));
+        verify(historyCache).invalidatePatient(1);
+    }
+
+    @Test
+    void testShutdown_RejectsNewHistories() throws InterruptedException {
+        // GIVEN
+        historyWriteBehind = writeBehind("enqueue", 100);
+
+        // WHEN
+        historyWriteBehind.shutdown();
+
+        // THEN
+        assertThrows(HistoryQueueFullException.class, () -> historyWriteBehind.enqueue(history("1", 1)));
+        verify(historyRepository, never()).bulkInsert(anyList());
+    }
+
+    @Test
+    void testEnqueue_IndexFails_WriterKeepsWriting() {
+        // GIVEN
+        historyWriteBehind = writeBehind("flush", 100);
+        release.countDown();
+        doThrow(new IllegalStateException("patient_triggers unavailable")).when(triggerIndexService).onInsert(anyList());
+        historyWriteBehind.enqueue(history("1", 1));
+
+        // WHEN
+        historyWriteBehind.enqueue(history("2", 1));
+
+        // THEN
+        verify(historyRepository, times(2)).bulkInsert(anyList());
+    }
+
+    @Test
+    void testEnqueue_FlushNotWrittenInTime_BeingWritten_IsAccepted() {
+        // GIVEN
+        // The writer holds the first batch until the end of the test
+        historyWriteBehind = writeBehind("flush", 100);
+
+        // WHEN THEN
+        // the history may already be inserted, a retry could duplicate it
+        assertDoesNotThrow(() -> historyWriteBehind.enqueue(history("1", 1)));
+    }
+
+    @Test
+    void testEnqueue_FlushNotWrittenInTime_StillQueued_ThrowsQueueFullAndIsNotWritten() throws InterruptedException {
+        // GIVEN
+        // The writer holds the first batch and the second history waits behind it
+        historyWriteBehind = writeBehind("flush", 100);
+        historyWriteBehind.enqueue(history("1", 1));
+
+        // WHEN
+        assertThrows(HistoryQueueFullException.class, () -> historyWriteBehind.enqueue(history("2", 1)));
+        release.countDown();
+        historyWriteBehind.shutdown();
+
+        // THEN
+        // the client retries the second history, it must not be written by the writer too
+        verify(historyRepository, times(1)).bulkInsert(anyList());
+        assertEquals(0, historyWriteBehind.getPending());
+    }
+}
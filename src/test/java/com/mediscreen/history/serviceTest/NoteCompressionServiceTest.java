@@ -0,0 +1,128 @@
+package com.mediscreen.history.serviceTest;
+
+import com.mediscreen.history.Exception.InvalidQueryException;
+import com.mediscreen.history.config.NoteCompression;
+import com.mediscreen.history.dto.NoteMigrationResultDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.service.NoteCompressionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NoteCompressionServiceTest {
+
+    private static final String NOTES = "Le patient déclare qu'il se sent très bien";
+
+    @Mock
+    private HistoryRepository historyRepository;
+
+    @Mock
+    private NoteCompression noteCompression;
+
+    @InjectMocks
+    private NoteCompressionService noteCompressionService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    private static History history(String id, String notes) {
+        History history = new History();
+        history.setId(id);
+        history.setNotes(notes);
+        return history;
+    }
+
+    @Test
+    void testMigrate_Enabled_RewritesUncompressedNotesInBatches() {
+        // GIVEN
+        when(noteCompression.isEnabled()).thenReturn(true);
+        when(historyRepository.streamNotesStored(false)).thenReturn(IntStream.range(0, 1500)
+                .mapToObj(i -> history(String.valueOf(i), i == 0 ? null : NOTES)));
+        when(historyRepository.bulkSetNotes(anyList())).thenAnswer(invocation -> {
+            int size = invocation.<List<?>>getArgument(0).size();
+            return new NoteMigrationResultDTO(true, size, 0, 0, 10L * size, 0);
+        });
+
+        // WHEN
+        NoteMigrationResultDTO result = noteCompressionService.migrate();
+
+        // THEN
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<History>> batches = ArgumentCaptor.forClass(List.class);
+        verify(historyRepository, times(2)).bulkSetNotes(batches.capture());
+        assertEquals(1000, batches.getAllValues().get(0).size());
+        assertEquals(499, batches.getAllValues().get(1).size());
+        assertTrue(result.isCompressed());
+        assertEquals(1499, result.getHistories());
+        assertEquals(1499L * NOTES.getBytes(StandardCharsets.UTF_8).length, result.getNotesBytes());
+        assertEquals(14990, result.getStoredBytes());
+    }
+
+    @Test
+    void testMigrate_Disabled_RewritesCompressedNotes() {
+        // GIVEN
+        History history = history("1", NOTES);
+        when(noteCompression.isEnabled()).thenReturn(false);
+        when(historyRepository.streamNotesStored(true)).thenReturn(List.of(history).stream());
+        when(historyRepository.bulkSetNotes(anyList())).thenReturn(new NoteMigrationResultDTO());
+
+        // WHEN
+        noteCompressionService.migrate();
+
+        // THEN
+        verify(historyRepository).bulkSetNotes(List.of(history));
+    }
+
+    @Test
+    void testMigrate_HistoriesUpdatedMeanwhile_CountedAsSkipped() {
+        // GIVEN
+        when(noteCompression.isEnabled()).thenReturn(true);
+        when(historyRepository.streamNotesStored(false)).thenReturn(List.of(history("1", NOTES), history("2", NOTES)).stream());
+        when(historyRepository.bulkSetNotes(anyList())).thenReturn(new NoteMigrationResultDTO(true, 1, 1, 0, 20, 0));
+
+        // WHEN
+        NoteMigrationResultDTO result = noteCompressionService.migrate();
+
+        // THEN
+        assertEquals(1, result.getHistories());
+        assertEquals(1, result.getSkipped());
+    }
+
+    @Test
+    void testTrainDictionary_TrainsOnSampledNotes() {
+        // GIVEN
+        when(historyRepository.sampleNotes(3)).thenReturn(List.of(history("1", NOTES), history("2", NOTES + " Fumeur"),
+                history("3", null)));
+
+        // WHEN
+        byte[] dictionary = noteCompressionService.trainDictionary(3, 64);
+
+        // THEN
+        assertTrue(dictionary.length <= 64);
+        assertTrue(new String(dictionary, StandardCharsets.UTF_8).contains("Le patient déclare qu'il "));
+    }
+
+    @Test
+    void testTrainDictionary_InvalidSize_Throws() {
+        assertThrows(InvalidQueryException.class, () -> noteCompressionService.trainDictionary(100, 64 * 1024));
+        assertThrows(InvalidQueryException.class, () -> noteCompressionService.trainDictionary(1, 1024));
+    }
+}
@@ -0,0 +1,123 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+import java.time.Instant;
+import java.util.List;
+
+import com.mediscreen.history.Exception.HistoryNotFoundException;
+import com.mediscreen.history.Exception.HistoryVersionConflictException;
+import com.mediscreen.history.dto.HistoryDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.ReactiveHistoryRepository;
+import com.mediscreen.history.service.ReactiveHistoryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class ReactiveHistoryServiceTest {
+
+    @Mock
+    private ReactiveHistoryRepository historyRepository;
+
+    @InjectMocks
+    private ReactiveHistoryService historyService = new ReactiveHistoryService(false);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void testGetHistoryById_ValidId_ReturnsHistoryDTO() {
+        // GIVEN
+        History history = new History();
+        history.setId("1");
+        when(historyRepository.findById("1")).thenReturn(Mono.just(history));
+
+        // WHEN
+        HistoryDTO result = historyService.getHistoryById("1").block();
+
+        // THEN
+        assertNotNull(result);
+        assertEquals("1", result.getId());
+    }
+
+    @Test
+    void testGetHistoryById_InvalidId_ThrowsHistoryNotFoundException() {
+        // GIVEN
+        when(historyRepository.findById("nonexistent")).thenReturn(Mono.empty());
+
+        // WHEN & THEN
+        assertThrows(HistoryNotFoundException.class, () -> historyService.getHistoryById("nonexistent").block());
+    }
+
+    @Test
+    void testGetAllHistories_ReturnsEveryHistory() {
+        // GIVEN
+        History history1 = new History();
+        history1.setId("1");
+        History history2 = new History();
+        history2.setId("2");
+        when(historyRepository.findAll()).thenReturn(Flux.just(history1, history2));
+
+        // WHEN
+        List<HistoryDTO> result = historyService.getAllHistories().collectList().block();
+
+        // THEN
+        assertEquals(2, result.size());
+    }
+
+    @Test
+    void testAddHistory_SaveFails_ReturnsFalse() {
+        // GIVEN
+        when(historyRepository.save(any(History.class))).thenReturn(Mono.error(new IllegalStateException("down")));
+
+        // WHEN & THEN
+        assertFalse(historyService.addHistory(new HistoryDTO()).block());
+    }
+
+    @Test
+    void testUpdateHistory_NonexistentHistory_ThrowsHistoryNotFoundException() {
+        // GIVEN
+        when(historyRepository.updateFields(eq("nonexistent"), any(History.class), isNull(), isNull())).thenReturn(Mono.empty());
+
+        // WHEN & THEN
+        assertThrows(HistoryNotFoundException.class, () -> historyService.updateHistory("nonexistent", new HistoryDTO()).block());
+    }
+
+    @Test
+    void testUpdateHistory_StaleVersion_ThrowsHistoryVersionConflictException() {
+        // GIVEN
+        // Someone else updated the history after I read its version 2
+        Instant lastModified = Instant.ofEpochMilli(1690106400000L);
+        when(historyRepository.updateFields(eq("1"), any(History.class), eq(2L), eq(lastModified))).thenReturn(Mono.empty());
+        when(historyRepository.existsById("1")).thenReturn(Mono.just(true));
+
+        // WHEN & THEN
+        assertThrows(HistoryVersionConflictException.class,
+                () -> historyService.updateHistory("1", new HistoryDTO(), 2L, lastModified).block());
+    }
+
+    @Test
+    void testDeleteHistory_ExistingHistory_ReturnsTrue() {
+        // GIVEN
+        when(historyRepository.removeById("1")).thenReturn(Mono.just(new History()));
+
+        // WHEN & THEN
+        assertTrue(historyService.deleteHistory("1").block());
+    }
+
+    @Test
+    void testConstructor_TriggerIndexEnabled_RefusesToStart() {
+        assertThrows(IllegalStateException.class, () -> new ReactiveHistoryService(true));
+    }
+}
@@ -0,0 +1,148 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.mediscreen.history.dto.BackfillResultDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.model.PatientTriggers;
+import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.repository.PatientTriggersRepository;
+import com.mediscreen.history.service.TriggerIndexService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+class TriggerIndexServiceTest {
+
+    @Mock
+    private HistoryRepository historyRepository;
+
+    @Mock
+    private PatientTriggersRepository patientTriggersRepository;
+
+    @InjectMocks
+    private TriggerIndexService triggerIndexService = new TriggerIndexService(true, List.of("Fumeur", "Microalbumine", "Réaction"));
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    private static History history(String id, Integer patId, String notes) {
+        History history = new History();
+        history.setId(id);
+        history.setPatId(patId);
+        history.setNotes(notes);
+        return history;
+    }
+
+    @Test
+    void testIndex_SetsNormalizedTriggers() {
+        // GIVEN
+        History history = history("1", 1, "Fumeur, réaction aux médicaments");
+
+        // WHEN
+        triggerIndexService.index(history);
+
+        // THEN
+        assertEquals(List.of("fumeur", "reaction"), history.getTriggers());
+    }
+
+    @Test
+    void testOnInsert_OneWritePerPatient() {
+        // GIVEN
+        History history1 = history("1", 1, "Fumeur");
+        History history2 = history("2", 1, "Fumeur et microalbumine");
+        triggerIndexService.index(history1);
+        triggerIndexService.index(history2);
+
+        // WHEN
+        triggerIndexService.onInsert(List.of(history1, history2));
+
+        // THEN
+        verify(patientTriggersRepository, times(1)).increment(1, Map.of("fumeur", 2, "microalbumine", 1));
+    }
+
+    @Test
+    void testOnUpdate_NotesChanged_MovesOnlyChangedTerms() {
+        // GIVEN
+        History previous = history("1", 1, "Fumeur");
+        previous.setTriggers(List.of("fumeur"));
+        History changes = history(null, null, "Fumeur et microalbumine");
+        triggerIndexService.index(changes);
+
+        // WHEN
+        triggerIndexService.onUpdate(previous, changes);
+
+        // THEN
+        verify(patientTriggersRepository).increment(1, Map.of("microalbumine", 1));
+    }
+
+    @Test
+    void testOnUpdate_NothingChanged_NoWrite() {
+        // GIVEN
+        History previous = history("1", 1, "Fumeur");
+        previous.setTriggers(List.of("fumeur"));
+        History changes = history(null, null, null);
+        changes.setPatient("Doe");
+
+        // WHEN
+        triggerIndexService.onUpdate(previous, changes);
+
+        // THEN
+        verify(patientTriggersRepository, never()).increment(any(), anyMap());
+    }
+
+    @Test
+    void testOnDelete_DecrementsPatientTerms() {
+        // GIVEN
+        History removed = history("1", 1, "Fumeur");
+        removed.setTriggers(List.of("fumeur"));
+
+        // WHEN
+        triggerIndexService.onDelete(removed);
+
+        // THEN
+        verify(patientTriggersRepository).increment(1, Map.of("fumeur", -1));
+    }
+
+    @Test
+    void testCountTriggers_CountsTermsStillPresent() {
+        // GIVEN
+        PatientTriggers patientTriggers = new PatientTriggers();
+        patientTriggers.setPatId(1);
+        patientTriggers.setCounts(Map.of("fumeur", 2, "microalbumine", 0, "reaction", 1));
+        when(patientTriggersRepository.findById(1)).thenReturn(Optional.of(patientTriggers));
+
+        // WHEN & THEN
+        assertEquals(2, triggerIndexService.countTriggers(1));
+        assertEquals(0, triggerIndexService.countTriggers(2));
+    }
+
+    @Test
+    void testBackfill_IndexesEveryHistoryThenRebuildsAggregates() {
+        // GIVEN
+        when(historyRepository.streamNotesBy()).thenReturn(Stream.of(history("1", 1, "Fumeur"), history("2", 2, "Rien")));
+
+        // WHEN
+        BackfillResultDTO result = triggerIndexService.backfill();
+
+        // THEN
+        assertEquals(2, result.getHistories());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, List<String>>> triggers = ArgumentCaptor.forClass(Map.class);
+        verify(historyRepository).bulkSetTriggers(triggers.capture());
+        assertEquals(Map.of("1", List.of("fumeur"), "2", List.of()), triggers.getValue());
+        verify(patientTriggersRepository).rebuildFromHistories();
+    }
+}
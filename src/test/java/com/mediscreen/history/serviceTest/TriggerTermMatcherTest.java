@@ -0,0 +1,72 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.BitSet;
+import java.util.List;
+
+import com.mediscreen.history.service.TriggerTermMatcher;
+import org.junit.jupiter.api.Test;
+
+class TriggerTermMatcherTest {
+
+    private final TriggerTermMatcher matcher = new TriggerTermMatcher(List.of(
+            "Hémoglobine A1C", "Microalbumine", "Taille", "Poids", "Fumeur", "Fumeuse",
+            "Anormal", "Cholestérol", "Vertiges", "Rechute", "Réaction", "Anticorps"));
+
+    @Test
+    void testMatch_IgnoresCaseAndAccents() {
+        // WHEN
+        BitSet found = matcher.match("Tests de laboratoire indiquant une MICROALBUMINE élevée\nCholesterol LDL et reaction aux médicaments");
+
+        // THEN
+        assertEquals(3, found.cardinality());
+        assertTrue(found.get(1));
+        assertTrue(found.get(7));
+        assertTrue(found.get(10));
+    }
+
+    @Test
+    void testMatch_MultiWordTerm_AcrossPunctuation() {
+        // WHEN
+        BitSet found = matcher.match("Hémoglobine, A1C supérieure au niveau recommandé");
+
+        // THEN
+        assertTrue(found.get(0));
+    }
+
+    @Test
+    void testMatch_OnlyWholeWords() {
+        // WHEN
+        // "Poids" is a whole word but "Tailleur" and "anormalement" are not "Taille" and "Anormal"
+        BitSet found = matcher.match("Poids égal ou inférieur au poids recommandé, Tailleur anormalement fatigué");
+
+        // THEN
+        assertEquals(1, found.cardinality());
+        assertTrue(found.get(3));
+    }
+
+    @Test
+    void testMatch_OverlappingTerms() {
+        // GIVEN
+        TriggerTermMatcher overlapping = new TriggerTermMatcher(List.of("he", "she", "his", "hers"));
+
+        // WHEN
+        BitSet found = overlapping.match("ushers she hers");
+
+        // THEN
+        // "ushers" contains "she", "he" and "hers" but none of them as a whole word
+        assertEquals(2, found.cardinality());
+        assertTrue(found.get(1));
+        assertTrue(found.get(3));
+    }
+
+    @Test
+    void testMatch_ManyNotes_CountsDistinctTerms() {
+        // WHEN
+        BitSet found = matcher.match(List.of("Fumeur, il a arrêté", "Le patient est fumeur", "Anticorps présents"));
+
+        // THEN
+        assertEquals(2, found.cardinality());
+    }
+}
@@ -0,0 +1,85 @@
+package com.mediscreen.history.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import com.mediscreen.history.dto.TriggerCountDTO;
+import com.mediscreen.history.model.History;
+import com.mediscreen.history.repository.HistoryRepository;
+import com.mediscreen.history.service.TriggerIndexService;
+import com.mediscreen.history.service.TriggerTermService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+class TriggerTermServiceTest {
+
+    @Mock
+    private HistoryRepository historyRepository;
+
+    @Mock
+    private TriggerIndexService triggerIndexService;
+
+    @InjectMocks
+    private TriggerTermService triggerTermService = new TriggerTermService(List.of("Fumeur", "Microalbumine", "Anticorps"));
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    private static History notes(String notes) {
+        History history = new History();
+        history.setNotes(notes);
+        return history;
+    }
+
+    @Test
+    void testCountTriggers_DefaultTerms() {
+        // GIVEN
+        when(historyRepository.findNotesByPatId(1)).thenReturn(List.of(
+                notes("Fumeur, il a arrêté dans les 12 mois précédents"),
+                notes("Tests de laboratoire indiquant une microalbumine élevée"),
+                notes("Le patient déclare qu'il est fumeur")));
+
+        // WHEN
+        TriggerCountDTO result = triggerTermService.countTriggers(1, null);
+
+        // THEN
+        assertEquals(1, result.getPatId());
+        assertEquals(2, result.getCount());
+    }
+
+    @Test
+    void testCountTriggers_IndexEnabled_ReadsPatientAggregate() {
+        // GIVEN
+        when(triggerIndexService.isEnabled()).thenReturn(true);
+        when(triggerIndexService.countTriggers(1)).thenReturn(3);
+
+        // WHEN
+        TriggerCountDTO result = triggerTermService.countTriggers(1, null);
+
+        // THEN
+        assertEquals(3, result.getCount());
+        verify(historyRepository, never()).findNotesByPatId(any());
+    }
+
+    @Test
+    void testCountTriggers_CustomTerms() {
+        // GIVEN
+        when(historyRepository.findNotesByPatId(1)).thenReturn(List.of(notes("Vertiges et poids élevé")));
+
+        // WHEN
+        TriggerCountDTO result = triggerTermService.countTriggers(1, List.of("Vertiges", "Poids", "Taille"));
+
+        // THEN
+        assertEquals(2, result.getCount());
+        assertSame(triggerTermService.getMatcher(List.of("Vertiges", "Poids", "Taille")),
+                triggerTermService.getMatcher(List.of("Vertiges", "Poids", "Taille")));
+    }
+}